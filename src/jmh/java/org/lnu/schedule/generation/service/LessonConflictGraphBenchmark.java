@@ -0,0 +1,50 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.LessonConflictGraph;
+import org.lnu.schedule.generation.model.LessonRequirements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build time of the lesson conflict graph of random requirements, up to about 100k lessons.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LessonConflictGraphBenchmark {
+    @Param({"10000", "40000", "100000"})
+    private int lessonsCountPerWeek;
+
+    @Param({"1"})
+    private long seed;
+
+    private List<LessonRequirements> lessonRequirementsList;
+
+    @Setup
+    public void setUp() {
+        try (TimetableBenchmarkContext context = new TimetableBenchmarkContext(Map.of())) {
+            lessonRequirementsList = context.createRequirements(lessonsCountPerWeek, seed).getLessonRequirementsList();
+        }
+    }
+
+    @Benchmark
+    public LessonConflictGraph buildLessonConflictGraph() {
+        return LessonConflictGraph.build(lessonRequirementsList);
+    }
+}
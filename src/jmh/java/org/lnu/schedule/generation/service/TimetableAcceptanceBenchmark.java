@@ -0,0 +1,77 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.MoveAcceptanceMode;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time every move acceptance mode needs to reach the penalty descent ends at on the same seeded instance, i.e. when
+ * it stalls for {@code solver.stall-iterations} iterations, capped at {@code timeBudgetMs}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TimetableAcceptanceBenchmark {
+    @Param({"DESCENT", "SIMULATED_ANNEALING", "TABU", "LATE_ACCEPTANCE"})
+    private MoveAcceptanceMode acceptanceMode;
+
+    @Param({"400", "800"})
+    private int lessonsCountPerWeek;
+
+    @Param({"1"})
+    private long seed;
+
+    @Param({"60000"})
+    private long timeBudgetMs;
+
+    private TimetableBenchmarkContext context;
+    private TimetableGenerationService timetableGenerationService;
+    private TimetableRequirements timetableRequirements;
+
+    @Setup
+    public void setUp() {
+        double targetPenalty;
+        try (TimetableBenchmarkContext descentContext = new TimetableBenchmarkContext(Map.of(
+                "acceptance.mode", MoveAcceptanceMode.DESCENT.name()))) {
+            TimetableRequirements requirements = descentContext.createRequirements(lessonsCountPerWeek, seed);
+            targetPenalty = descentContext.getTimetableGenerationService().generateTimetable(requirements, seed)
+                    .getPenalty();
+        }
+
+        context = new TimetableBenchmarkContext(Map.of(
+                "acceptance.mode", acceptanceMode.name(),
+                "solver.target-penalty", targetPenalty,
+                "solver.stall-iterations", 0,
+                "solver.time-budget-ms", timeBudgetMs));
+        timetableGenerationService = context.getTimetableGenerationService();
+        timetableRequirements = context.createRequirements(lessonsCountPerWeek, seed);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public EvaluatedTimetable generateTimetable() {
+        return timetableGenerationService.generateTimetable(timetableRequirements, seed);
+    }
+}
@@ -0,0 +1,86 @@
+package org.lnu.schedule.generation.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import org.lnu.schedule.generation.metrics.SolverMetrics;
+import org.lnu.schedule.generation.model.LessonPlace;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableRequirementsExample;
+import org.lnu.schedule.generation.util.LessonTimeSlotUtil;
+import org.lnu.schedule.generation.util.TimetableRequirementsCodec;
+import org.lnu.schedule.generation.util.TimetableSnapshotCodec;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.support.ResourcePropertySource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Solver services wired from {@code application.properties} (with optional overrides) without starting the
+ * application, plus the seeded benchmark instances.
+ */
+@Getter
+class TimetableBenchmarkContext implements AutoCloseable {
+    private static final int MAX_LESSON_ACADEMIC_GROUPS_COUNT = 5;
+
+    private final AnnotationConfigApplicationContext applicationContext;
+
+    private final LessonTimeSlotUtil lessonTimeSlotUtil;
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final TimetableGenerationService timetableGenerationService;
+    private final TimetableRequirementsGenerationService timetableRequirementsGenerationService;
+
+    TimetableBenchmarkContext(Map<String, Object> propertyOverrides) {
+        applicationContext = new AnnotationConfigApplicationContext();
+        try {
+            applicationContext.getEnvironment().getPropertySources()
+                    .addFirst(new ResourcePropertySource("classpath:application.properties"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        applicationContext.getEnvironment().getPropertySources()
+                .addFirst(new MapPropertySource("benchmark", propertyOverrides));
+
+        applicationContext.registerBean(ObjectMapper.class);
+        applicationContext.register(LessonTimeSlotUtil.class, SolverMetrics.class, TimetableEvaluationService.class,
+                TimetableGenerationService.class, TimetableRequirementsCodec.class, TimetableSnapshotCodec.class,
+                TimetableRequirementsGenerationService.class);
+        applicationContext.refresh();
+
+        lessonTimeSlotUtil = applicationContext.getBean(LessonTimeSlotUtil.class);
+        timetableEvaluationService = applicationContext.getBean(TimetableEvaluationService.class);
+        timetableGenerationService = applicationContext.getBean(TimetableGenerationService.class);
+        timetableRequirementsGenerationService = applicationContext.getBean(TimetableRequirementsGenerationService.class);
+    }
+
+    /**
+     * Random requirements in the proportions of the Example1 - Example4 instances (200 lessons per week: 10 lecturers,
+     * 5 academic groups, 10 places) with the default time slots. Smaller instances keep 5 academic groups, the most a
+     * lesson of the generator may have, which otherwise could never pick that many distinct ones.
+     */
+    TimetableRequirements createRequirements(int lessonsCountPerWeek, long seed) {
+        int lecturersCount = Math.max(1, lessonsCountPerWeek / 20);
+        int academicGroupsCount = Math.max(MAX_LESSON_ACADEMIC_GROUPS_COUNT, lessonsCountPerWeek / 40);
+        int placesCount = Math.max(1, lessonsCountPerWeek / 20);
+
+        TimetableRequirementsExample example = timetableRequirementsGenerationService.generateRandomTimetableRequirements(
+                new Random(seed), lecturersCount, academicGroupsCount, placesCount, lessonsCountPerWeek);
+
+        List<LessonPlace> places = new ArrayList<>(placesCount);
+        for (int i = 0; i < placesCount; ++i) {
+            places.add(null);
+        }
+
+        return new TimetableRequirements(example.getLessonRequirementsList(), places,
+                ScheduleGenerationDemo.DEFAULT_TIME_SLOTS);
+    }
+
+    @Override
+    public void close() {
+        applicationContext.close();
+    }
+}
@@ -0,0 +1,80 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full evaluation and local penalty of a random initial timetable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TimetableEvaluationBenchmark {
+    @Param({"200", "400", "800", "1600"})
+    private int lessonsCountPerWeek;
+
+    @Param({"1"})
+    private long seed;
+
+    private TimetableBenchmarkContext context;
+    private TimetableEvaluationService timetableEvaluationService;
+    private TimetableOccupancyIndex occupancyIndex;
+
+    private int lessonsCount;
+    private int lessonIndex;
+
+    @Setup
+    public void setUp() {
+        context = new TimetableBenchmarkContext(Map.of());
+        timetableEvaluationService = context.getTimetableEvaluationService();
+
+        TimetableRequirements timetableRequirements = context.createRequirements(lessonsCountPerWeek, seed);
+        LessonTimeSlotGrid timeSlotGrid = context.getLessonTimeSlotUtil()
+                .compileTimeSlots(timetableRequirements);
+        TimetableState timetableState = context.getTimetableGenerationService()
+                .generateInitialTimetable(timetableRequirements, timeSlotGrid, new SplittableRandom(seed));
+
+        occupancyIndex = timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid, timetableState)
+                .getOccupancyIndex();
+        lessonsCount = timetableState.getLessonsCount();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public EvaluatedTimetable evaluateTimetable() {
+        return timetableEvaluationService.evaluateTimetable(occupancyIndex);
+    }
+
+    @Benchmark
+    public double calcLocalPenalty() {
+        lessonIndex = lessonIndex + 1 == lessonsCount ? 0 : lessonIndex + 1;
+
+        return timetableEvaluationService.calcLocalPenalty(occupancyIndex, lessonIndex);
+    }
+}
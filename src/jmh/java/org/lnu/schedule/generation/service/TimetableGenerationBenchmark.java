@@ -0,0 +1,61 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end generation of a seeded instance from a seeded initial timetable, capped at {@code iterationsMaxCount}
+ * iterations so that every size finishes in a reasonable time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TimetableGenerationBenchmark {
+    @Param({"200", "400", "800", "1600"})
+    private int lessonsCountPerWeek;
+
+    @Param({"1"})
+    private long seed;
+
+    @Param({"50"})
+    private int iterationsMaxCount;
+
+    private TimetableBenchmarkContext context;
+    private TimetableGenerationService timetableGenerationService;
+    private TimetableRequirements timetableRequirements;
+
+    @Setup
+    public void setUp() {
+        context = new TimetableBenchmarkContext(Map.of("iterations.max-count", iterationsMaxCount));
+        timetableGenerationService = context.getTimetableGenerationService();
+        timetableRequirements = context.createRequirements(lessonsCountPerWeek, seed);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public EvaluatedTimetable generateTimetable() {
+        return timetableGenerationService.generateTimetable(timetableRequirements, seed);
+    }
+}
@@ -0,0 +1,110 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.metrics.OptimizationPhase;
+import org.lnu.schedule.generation.metrics.OptimizationPassStats;
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single optimization pass over a random initial timetable. Every invocation starts from a fresh copy of the same
+ * timetable; the copy is evaluated and the pass buffers are created in the invocation setup, which the gc profiler
+ * attributes to the pass as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TimetableOptimizationPassBenchmark {
+    @Param({"200", "400", "800", "1600"})
+    private int lessonsCountPerWeek;
+
+    @Param({"1"})
+    private long seed;
+
+    private TimetableBenchmarkContext context;
+    private TimetableEvaluationService timetableEvaluationService;
+    private TimetableGenerationService timetableGenerationService;
+
+    private TimetableRequirements timetableRequirements;
+    private LessonTimeSlotGrid timeSlotGrid;
+    private TimetableState initialTimetableState;
+
+    private EvaluatedTimetable timetable;
+    private TimetableSolverScratch solverScratch;
+
+    @Setup
+    public void setUp() {
+        context = new TimetableBenchmarkContext(Map.of());
+        timetableEvaluationService = context.getTimetableEvaluationService();
+        timetableGenerationService = context.getTimetableGenerationService();
+
+        timetableRequirements = context.createRequirements(lessonsCountPerWeek, seed);
+        timeSlotGrid = context.getLessonTimeSlotUtil().compileTimeSlots(timetableRequirements);
+        initialTimetableState = timetableGenerationService.generateInitialTimetable(timetableRequirements, timeSlotGrid,
+                new SplittableRandom(seed));
+    }
+
+    @Setup(Level.Invocation)
+    public void resetTimetable() {
+        timetable = timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid,
+                initialTimetableState.copy());
+        solverScratch = timetableGenerationService.createSolverScratch(timetableRequirements,
+                timetable.getOccupancyIndex());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public EvaluatedTimetable optimizeScheduleByDayAndTimeSlot() {
+        return timetableGenerationService.optimizeScheduleByDayAndTimeSlot(solverScratch, timetable,
+                new OptimizationPassStats());
+    }
+
+    @Benchmark
+    public EvaluatedTimetable optimizeScheduleByPlace() {
+        return timetableGenerationService.optimizeScheduleByPlace(solverScratch, timetable,
+                new OptimizationPassStats());
+    }
+
+    @Benchmark
+    public EvaluatedTimetable swapTimes() {
+        return timetableGenerationService.optimizeScheduleByCompoundMoves(OptimizationPhase.TIME_SWAP,
+                solverScratch, timetable, new OptimizationPassStats());
+    }
+
+    @Benchmark
+    public EvaluatedTimetable swapPlaces() {
+        return timetableGenerationService.optimizeScheduleByCompoundMoves(OptimizationPhase.PLACE_SWAP,
+                solverScratch, timetable, new OptimizationPassStats());
+    }
+
+    @Benchmark
+    public EvaluatedTimetable moveKempeChains() {
+        return timetableGenerationService.optimizeScheduleByCompoundMoves(OptimizationPhase.KEMPE_CHAIN,
+                solverScratch, timetable, new OptimizationPassStats());
+    }
+}
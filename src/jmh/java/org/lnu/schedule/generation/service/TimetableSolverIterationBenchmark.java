@@ -0,0 +1,125 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.MoveAcceptanceMode;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady-state iterations of one solver run: every invocation runs all optimization phases once over the same,
+ * evolving timetable, reusing the buffers of the run.
+ * <p>
+ * Iterations with sequential evaluation must not allocate, so the benchmark pins {@code evaluation.parallelism} to 1
+ * (parallel evaluation allocates the tasks of its shards). With only a few invocations per benchmark iteration, {@code -prof gc} spreads the
+ * bookkeeping of JMH itself over them, so after every measurement iteration the benchmark counts the bytes a few more
+ * solver iterations allocate on its thread and fails if they allocate anything. Until C2 has compiled the hot path,
+ * escape analysis does not remove all temporary objects yet, so the warmup is longer than in the other benchmarks and
+ * the check skips warmup iterations; a failing measured batch is a real allocation, not a cold JIT.
+ * <p>
+ * The check is part of the benchmark, so it runs only when the benchmark does (the {@code jmh} profile,
+ * {@code java -jar target/benchmarks.jar TimetableSolverIterationBenchmark}); the build runs the same check on a
+ * small instance in {@code TimetableSolverIterationAllocationTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TimetableSolverIterationBenchmark {
+    private static final int CHECKED_ITERATIONS_COUNT = 5;
+
+    @Param({"DESCENT", "SIMULATED_ANNEALING", "TABU", "LATE_ACCEPTANCE"})
+    private MoveAcceptanceMode acceptanceMode;
+
+    @Param({"400", "1600"})
+    private int lessonsCountPerWeek;
+
+    @Param({"1"})
+    private long seed;
+
+    private TimetableBenchmarkContext context;
+    private TimetableGenerationService timetableGenerationService;
+
+    private EvaluatedTimetable timetable;
+    private TimetableSolverScratch solverScratch;
+    private TimetableSolverProgress solverProgress;
+    private TimetableMoveAcceptance moveAcceptance;
+    private int iteration;
+
+    @Setup
+    public void setUp() {
+        context = new TimetableBenchmarkContext(Map.of("acceptance.mode", acceptanceMode.name(),
+                "evaluation.parallelism", 1));
+        TimetableEvaluationService timetableEvaluationService = context.getTimetableEvaluationService();
+        timetableGenerationService = context.getTimetableGenerationService();
+
+        TimetableRequirements timetableRequirements = context.createRequirements(lessonsCountPerWeek, seed);
+        LessonTimeSlotGrid timeSlotGrid = context.getLessonTimeSlotUtil().compileTimeSlots(timetableRequirements);
+        SplittableRandom random = new SplittableRandom(seed);
+        TimetableState timetableState = timetableGenerationService.generateInitialTimetable(timetableRequirements,
+                timeSlotGrid, random);
+
+        timetable = timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid, timetableState);
+        solverScratch = timetableGenerationService.createSolverScratch(timetableRequirements,
+                timetable.getOccupancyIndex());
+        solverProgress = new TimetableSolverProgress(timetableGenerationService.getDefaultSolverControl(), 1, null, 1,
+                state -> timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid, state));
+        moveAcceptance = timetableGenerationService.createMoveAcceptance(timetableState.getLessonsCount(), random);
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkAllocations(IterationParams iterationParams) {
+        if (iterationParams.getType() != IterationType.MEASUREMENT) {
+            return;
+        }
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long allocatedBytes = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CHECKED_ITERATIONS_COUNT; ++i) {
+            runIteration();
+        }
+        allocatedBytes = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBytes;
+
+        if (allocatedBytes != 0) {
+            throw new IllegalStateException(CHECKED_ITERATIONS_COUNT + " solver iterations allocated " + allocatedBytes
+                    + " bytes");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public EvaluatedTimetable runIteration() {
+        timetable = timetableGenerationService.runIteration(timetable, solverScratch, solverProgress, 0, iteration++,
+                null, moveAcceptance);
+
+        return timetable;
+    }
+}
@@ -1,23 +1,47 @@
 package org.lnu.schedule.generation;
 
-import lombok.AllArgsConstructor;
 import org.lnu.schedule.generation.service.ScheduleGenerationDemo;
+import org.lnu.schedule.generation.service.TimetableScalingBenchmarkService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-@AllArgsConstructor
 @SpringBootApplication
 public class ScheduleGenerationApp implements CommandLineRunner {
 
     private final ScheduleGenerationDemo scheduleGenerationDemo;
 
+    private final TimetableScalingBenchmarkService timetableScalingBenchmarkService;
+
+    private final boolean demoEnabled;
+
+    public ScheduleGenerationApp(
+            ScheduleGenerationDemo scheduleGenerationDemo,
+            TimetableScalingBenchmarkService timetableScalingBenchmarkService,
+
+            @Value("${demo.enabled}") boolean demoEnabled
+    ) {
+        this.scheduleGenerationDemo = scheduleGenerationDemo;
+        this.timetableScalingBenchmarkService = timetableScalingBenchmarkService;
+        this.demoEnabled = demoEnabled;
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(ScheduleGenerationApp.class, args);
     }
 
     @Override
     public void run(String... args) {
+        if (timetableScalingBenchmarkService.isEnabled()) {
+            timetableScalingBenchmarkService.runBenchmark();
+            return;
+        }
+
+        if (!demoEnabled) {
+            return;
+        }
+
         scheduleGenerationDemo.runExperiment();
 //        scheduleGenerationDemo.generateScheduleRequirementsExample1();
 //        scheduleGenerationDemo.generateScheduleRequirementsExample2();
@@ -0,0 +1,53 @@
+package org.lnu.schedule.generation.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Request threads only parse bodies, poll job state and hold progress streams open, so on a runtime with virtual
+ * threads Tomcat gets one per request. The classes are compiled for Java 17 ({@code java.version} in the pom), which
+ * has no virtual threads, so the executor is looked up reflectively: it is there from Java 21 on, and on Java 19 and
+ * 20 only as a preview API that works with {@code --enable-preview}. Without virtual threads Tomcat keeps its
+ * platform thread pool.
+ */
+@Slf4j
+@Configuration
+public class WebServerConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer(
+            @Value("${jobs.virtual-threads}") boolean virtualThreads
+    ) {
+        return protocolHandler -> {
+            if (!virtualThreads) {
+                return;
+            }
+
+            ExecutorService executor;
+            try {
+                executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException e) {
+                log.info("Virtual threads are not available on Java {}, Tomcat keeps its thread pool",
+                        Runtime.version().feature());
+                return;
+            } catch (InvocationTargetException e) {
+                // Java 19 and 20 throw UnsupportedOperationException unless preview features are enabled
+                log.info("Virtual threads could not be started on Java {} ({}), Tomcat keeps its thread pool",
+                        Runtime.version().feature(), e.getCause().toString());
+                return;
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads could not be started, Tomcat keeps its thread pool", e);
+                return;
+            }
+
+            protocolHandler.setExecutor(executor);
+        };
+    }
+}
@@ -0,0 +1,72 @@
+package org.lnu.schedule.generation.controller;
+
+import lombok.AllArgsConstructor;
+import org.lnu.schedule.generation.model.TimetableJobInfo;
+import org.lnu.schedule.generation.model.TimetableJobResult;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.service.TimetableJobService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.RejectedExecutionException;
+
+@AllArgsConstructor
+@RestController
+@RequestMapping("/timetable-jobs")
+public class TimetableJobController {
+
+    private final TimetableJobService timetableJobService;
+
+    @PostMapping
+    public ResponseEntity<TimetableJobInfo> submit(@RequestBody TimetableRequirements timetableRequirements) {
+        return ResponseEntity.accepted().body(timetableJobService.submit(timetableRequirements));
+    }
+
+    @GetMapping("/{id}")
+    public TimetableJobInfo getStatus(@PathVariable String id) {
+        return timetableJobService.getStatus(id)
+                .orElseThrow(() -> jobNotFound(id));
+    }
+
+    @DeleteMapping("/{id}")
+    public TimetableJobInfo cancel(@PathVariable String id) {
+        return timetableJobService.cancel(id)
+                .orElseThrow(() -> jobNotFound(id));
+    }
+
+    @GetMapping("/{id}/result")
+    public TimetableJobResult getResult(@PathVariable String id) {
+        TimetableJobInfo info = getStatus(id);
+
+        return timetableJobService.getResult(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.CONFLICT,
+                        "Job " + id + " has no result, its status is " + info.getStatus()));
+    }
+
+    @GetMapping(path = "/{id}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@PathVariable String id) {
+        return timetableJobService.subscribe(id)
+                .orElseThrow(() -> jobNotFound(id));
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> handleRejectedJob() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body("All solver slots are busy and the job queue is full");
+    }
+
+    private ResponseStatusException jobNotFound(String id) {
+        return new ResponseStatusException(HttpStatus.NOT_FOUND, "Job " + id + " not found");
+    }
+}
@@ -0,0 +1,34 @@
+package org.lnu.schedule.generation.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.lnu.schedule.generation.OptimizationPass")
+@Label("Optimization Pass")
+@Category("Schedule Generation")
+@Description("One pass of the solver over the penalized lessons")
+public class OptimizationPassEvent extends Event {
+    @Label("Run Index")
+    public int runIndex;
+
+    @Label("Iteration")
+    public int iteration;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Penalty Before")
+    public double penaltyBefore;
+
+    @Label("Penalty After")
+    public double penaltyAfter;
+
+    @Label("Candidate Evaluations")
+    public int candidateEvaluations;
+
+    @Label("Accepted Moves")
+    public int acceptedMoves;
+}
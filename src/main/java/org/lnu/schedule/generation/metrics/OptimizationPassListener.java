@@ -0,0 +1,9 @@
+package org.lnu.schedule.generation.metrics;
+
+/**
+ * Receives the outcome of every optimization pass on the thread of the run that made it.
+ */
+@FunctionalInterface
+public interface OptimizationPassListener {
+    void onPass(int runIndex, int iteration, OptimizationPhase phase, double penalty, OptimizationPassStats passStats);
+}
@@ -0,0 +1,26 @@
+package org.lnu.schedule.generation.metrics;
+
+import lombok.Getter;
+
+/**
+ * Counters of a single optimization pass, collected in plain fields and published once the pass is over. A solver run
+ * reuses one instance for all its passes, so listeners should copy what they keep.
+ */
+@Getter
+public class OptimizationPassStats {
+    private int candidateEvaluations;
+    private int acceptedMoves;
+
+    public void reset() {
+        candidateEvaluations = 0;
+        acceptedMoves = 0;
+    }
+
+    public void addCandidateEvaluations(int count) {
+        candidateEvaluations += count;
+    }
+
+    public void addAcceptedMove() {
+        ++acceptedMoves;
+    }
+}
@@ -0,0 +1,16 @@
+package org.lnu.schedule.generation.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum OptimizationPhase {
+    DAY_AND_TIME_SLOT("day-and-time-slot"),
+    PLACE("place"),
+    TIME_SWAP("time-swap"),
+    PLACE_SWAP("place-swap"),
+    KEMPE_CHAIN("kempe-chain");
+
+    private final String tag;
+}
@@ -0,0 +1,118 @@
+package org.lnu.schedule.generation.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the solver. Meters are registered in the application {@link MeterRegistry} when there is one
+ * and in a private {@link SimpleMeterRegistry} otherwise; when {@code metrics.enabled} is off nothing is registered
+ * and every call returns immediately.
+ */
+@Component
+public class SolverMetrics {
+    private final boolean enabled;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<OptimizationPhase, Timer> passTimers = new EnumMap<>(OptimizationPhase.class);
+    private final Map<OptimizationPhase, Counter> candidateEvaluationCounters = new EnumMap<>(OptimizationPhase.class);
+    private final Map<OptimizationPhase, Counter> acceptedMoveCounters = new EnumMap<>(OptimizationPhase.class);
+    private final DistributionSummary penaltySummary;
+    private final Timer evaluationTimer;
+
+    private volatile double lastPenalty = Double.NaN;
+
+    public SolverMetrics(
+            @Value("${metrics.enabled}") boolean enabled,
+            ObjectProvider<MeterRegistry> meterRegistryProvider
+    ) {
+        this.enabled = enabled;
+
+        if (!enabled) {
+            this.meterRegistry = null;
+            this.penaltySummary = null;
+            this.evaluationTimer = null;
+            return;
+        }
+
+        this.meterRegistry = meterRegistryProvider.getIfAvailable(SimpleMeterRegistry::new);
+
+        for (OptimizationPhase phase : OptimizationPhase.values()) {
+            passTimers.put(phase, Timer.builder("timetable.solver.pass")
+                    .description("Duration of an optimization pass, including the evaluation that closes it")
+                    .tag("phase", phase.getTag())
+                    .register(meterRegistry));
+
+            candidateEvaluationCounters.put(phase, Counter.builder("timetable.solver.candidate.evaluations")
+                    .description("Scored candidate moves")
+                    .tag("phase", phase.getTag())
+                    .register(meterRegistry));
+
+            acceptedMoveCounters.put(phase, Counter.builder("timetable.solver.moves.accepted")
+                    .description("Moves that changed the position of a lesson")
+                    .tag("phase", phase.getTag())
+                    .register(meterRegistry));
+        }
+
+        this.penaltySummary = DistributionSummary.builder("timetable.solver.pass.penalty")
+                .description("Penalty after an optimization pass")
+                .register(meterRegistry);
+
+        this.evaluationTimer = Timer.builder("timetable.solver.evaluation")
+                .description("Duration of a full timetable evaluation")
+                .register(meterRegistry);
+
+        Gauge.builder("timetable.solver.penalty", this, solverMetrics -> solverMetrics.lastPenalty)
+                .description("Penalty after the latest optimization pass")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Registry holding the solver meters, {@code null} when metrics are disabled.
+     */
+    public MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+    /**
+     * Start time to pass to the {@code record*} methods, {@code 0} when metrics are disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void recordPass(OptimizationPhase phase, long startNanos, double penalty, OptimizationPassStats passStats) {
+        if (!enabled) {
+            return;
+        }
+
+        passTimers.get(phase).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        candidateEvaluationCounters.get(phase).increment(passStats.getCandidateEvaluations());
+        acceptedMoveCounters.get(phase).increment(passStats.getAcceptedMoves());
+        penaltySummary.record(penalty);
+
+        lastPenalty = penalty;
+    }
+
+    public void recordEvaluation(long startNanos) {
+        if (!enabled) {
+            return;
+        }
+
+        evaluationTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
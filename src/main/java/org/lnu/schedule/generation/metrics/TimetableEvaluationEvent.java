@@ -0,0 +1,19 @@
+package org.lnu.schedule.generation.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.lnu.schedule.generation.TimetableEvaluation")
+@Label("Timetable Evaluation")
+@Category("Schedule Generation")
+@Description("Full evaluation of a timetable from its occupancy index")
+public class TimetableEvaluationEvent extends Event {
+    @Label("Lessons Count")
+    public int lessonsCount;
+
+    @Label("Penalty")
+    public double penalty;
+}
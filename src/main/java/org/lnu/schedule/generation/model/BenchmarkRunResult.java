@@ -0,0 +1,30 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BenchmarkRunResult {
+    private int lecturersCount;
+    private int academicGroupsCount;
+    private int placesCount;
+    private int lessonsCountPerWeek;
+    private long seed;
+
+    private double wallTimeMs;
+    private int iterations;
+    private long candidateEvaluations;
+    private long peakHeapBytes;
+
+    private double finalPenalty;
+
+    /**
+     * Every optimization pass that improved the best penalty of the run.
+     */
+    private List<PenaltyPoint> convergence;
+}
@@ -3,18 +3,21 @@ package org.lnu.schedule.generation.model;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
-import java.util.Comparator;
-import java.util.Map;
-import java.util.Set;
-
+/**
+ * Evaluation of the current state of an occupancy index. The state is shared with the index, while the penalty and the
+ * lesson penalties are written by the evaluation: timetables evaluated from an index are reused by later
+ * evaluations of the same index (see {@link TimetableOccupancyIndex#nextEvaluatedTimetable()}), and the state changes
+ * with every move. The timetables the generation service returns have an index of their own.
+ */
 @Data
 @AllArgsConstructor
 public class EvaluatedTimetable {
-    private final Lesson[] lessons;
-    private final double penalty;
+    private final TimetableState timetableState;
+    private double penalty;
     private final double[] lessonPenalties;
-    private final Map<Integer, Set<Integer>> lecturerLessonsMap;
-    private final Map<Integer, Set<Integer>> academicGroupLessonsMap;
-    private final Map<Integer, Set<Integer>> placeLessonsMap;
-    private final Comparator<Integer> lessonIndexcomparator;
+    private final TimetableOccupancyIndex occupancyIndex;
+
+    public Lesson[] getLessons() {
+        return timetableState.toLessons(occupancyIndex.getTimeSlotGrid());
+    }
 }
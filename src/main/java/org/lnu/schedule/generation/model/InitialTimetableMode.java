@@ -0,0 +1,16 @@
+package org.lnu.schedule.generation.model;
+
+/**
+ * How the starting timetable of a run is built before optimization.
+ */
+public enum InitialTimetableMode {
+    /**
+     * Every lesson gets a uniformly random day, time slot and place.
+     */
+    RANDOM,
+
+    /**
+     * Lessons are placed one by one, the most constrained first, each where it adds the least penalty.
+     */
+    GREEDY
+}
@@ -0,0 +1,157 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lessons that can conflict with each other, i.e. share a lecturer or an academic group, in compressed sparse row
+ * form: the neighbours of lesson {@code i} are {@code neighbours[offsets[i]]} up to {@code neighbours[offsets[i + 1]]}
+ * (exclusive), ascending and without the lesson itself.
+ * <p>
+ * Lessons are numbered like in {@link TimetableState}: {@code ceil(lessonsCountPerWeek)} lessons of every lesson
+ * requirements in order, the lessons of requirements {@code r} being {@code requirementsOffsets[r]} up to
+ * {@code requirementsOffsets[r + 1]} (exclusive).
+ */
+@Getter
+public class LessonConflictGraph {
+    private final int[] requirementsOffsets;
+    private final int[] offsets;
+    private final int[] neighbours;
+
+    public LessonConflictGraph(int[] requirementsOffsets, int[] offsets, int[] neighbours) {
+        this.requirementsOffsets = requirementsOffsets;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+    }
+
+    /**
+     * Builds the graph in two steps: first the requirements sharing a lecturer or an academic group with every lesson
+     * requirements, then their lessons. Lessons of the same requirements have the same neighbourhood (apart from
+     * themselves), so no lesson level deduplication or sorting is needed.
+     */
+    public static LessonConflictGraph build(List<LessonRequirements> lessonRequirementsList) {
+        int requirementsCount = lessonRequirementsList.size();
+
+        int[] requirementsOffsets = new int[requirementsCount + 1];
+        int lecturersCount = 0;
+        int academicGroupsCount = 0;
+        for (int r = 0; r < requirementsCount; ++r) {
+            LessonRequirements lessonRequirements = lessonRequirementsList.get(r);
+
+            requirementsOffsets[r + 1] = requirementsOffsets[r]
+                    + (int) Math.ceil(lessonRequirements.getLessonsCountPerWeek());
+
+            lecturersCount = Math.max(lecturersCount, lessonRequirements.getLecturerIndex() + 1);
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                academicGroupsCount = Math.max(academicGroupsCount, academicGroupIndex + 1);
+            }
+        }
+
+        int[][] lecturerRequirements = new int[lecturersCount][];
+        int[][] academicGroupRequirements = new int[academicGroupsCount][];
+        groupRequirements(lessonRequirementsList, lecturerRequirements, academicGroupRequirements);
+
+        int[][] requirementsNeighbours = new int[requirementsCount][];
+        int[] visitedStamps = new int[requirementsCount];
+        int[] buffer = new int[Math.max(1, requirementsCount)];
+        for (int r = 0; r < requirementsCount; ++r) {
+            LessonRequirements lessonRequirements = lessonRequirementsList.get(r);
+            int stamp = r + 1;
+            int count = 0;
+
+            for (int neighbour : lecturerRequirements[lessonRequirements.getLecturerIndex()]) {
+                if (visitedStamps[neighbour] != stamp) {
+                    visitedStamps[neighbour] = stamp;
+                    buffer[count++] = neighbour;
+                }
+            }
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                for (int neighbour : academicGroupRequirements[academicGroupIndex]) {
+                    if (visitedStamps[neighbour] != stamp) {
+                        visitedStamps[neighbour] = stamp;
+                        buffer[count++] = neighbour;
+                    }
+                }
+            }
+
+            requirementsNeighbours[r] = Arrays.copyOf(buffer, count);
+            Arrays.sort(requirementsNeighbours[r]);
+        }
+
+        int lessonsCount = requirementsOffsets[requirementsCount];
+        int[] offsets = new int[lessonsCount + 1];
+        for (int r = 0; r < requirementsCount; ++r) {
+            int degree = -1;
+            for (int neighbour : requirementsNeighbours[r]) {
+                degree += requirementsOffsets[neighbour + 1] - requirementsOffsets[neighbour];
+            }
+
+            for (int lessonIndex = requirementsOffsets[r]; lessonIndex < requirementsOffsets[r + 1]; ++lessonIndex) {
+                offsets[lessonIndex + 1] = offsets[lessonIndex] + degree;
+            }
+        }
+
+        int[] neighbours = new int[offsets[lessonsCount]];
+        for (int r = 0; r < requirementsCount; ++r) {
+            for (int lessonIndex = requirementsOffsets[r]; lessonIndex < requirementsOffsets[r + 1]; ++lessonIndex) {
+                int position = offsets[lessonIndex];
+
+                for (int neighbour : requirementsNeighbours[r]) {
+                    for (int neighbourLesson = requirementsOffsets[neighbour];
+                         neighbourLesson < requirementsOffsets[neighbour + 1]; ++neighbourLesson) {
+                        if (neighbourLesson != lessonIndex) {
+                            neighbours[position++] = neighbourLesson;
+                        }
+                    }
+                }
+            }
+        }
+
+        return new LessonConflictGraph(requirementsOffsets, offsets, neighbours);
+    }
+
+    public int getLessonsCount() {
+        return offsets.length - 1;
+    }
+
+    public int getDegree(int lessonIndex) {
+        return offsets[lessonIndex + 1] - offsets[lessonIndex];
+    }
+
+    public long getEdgesCount() {
+        return neighbours.length / 2;
+    }
+
+    private static void groupRequirements(List<LessonRequirements> lessonRequirementsList,
+                                          int[][] lecturerRequirements, int[][] academicGroupRequirements) {
+        int[] lecturerCounts = new int[lecturerRequirements.length];
+        int[] academicGroupCounts = new int[academicGroupRequirements.length];
+        for (LessonRequirements lessonRequirements : lessonRequirementsList) {
+            ++lecturerCounts[lessonRequirements.getLecturerIndex()];
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                ++academicGroupCounts[academicGroupIndex];
+            }
+        }
+
+        for (int i = 0; i < lecturerRequirements.length; ++i) {
+            lecturerRequirements[i] = new int[lecturerCounts[i]];
+            lecturerCounts[i] = 0;
+        }
+        for (int i = 0; i < academicGroupRequirements.length; ++i) {
+            academicGroupRequirements[i] = new int[academicGroupCounts[i]];
+            academicGroupCounts[i] = 0;
+        }
+
+        for (int r = 0; r < lessonRequirementsList.size(); ++r) {
+            LessonRequirements lessonRequirements = lessonRequirementsList.get(r);
+
+            int lecturerIndex = lessonRequirements.getLecturerIndex();
+            lecturerRequirements[lecturerIndex][lecturerCounts[lecturerIndex]++] = r;
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                academicGroupRequirements[academicGroupIndex][academicGroupCounts[academicGroupIndex]++] = r;
+            }
+        }
+    }
+}
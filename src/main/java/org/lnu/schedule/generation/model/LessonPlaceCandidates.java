@@ -0,0 +1,220 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Places a lesson may be put in: the ones large enough for its academic groups, in buildings that offer its time slot.
+ * <p>
+ * Places are grouped by building (in the order buildings first appear) and sorted by capacity within a building, so
+ * the candidates of a lesson are a suffix of every building group offering the time slot, found by binary search.
+ * Candidates are numbered building by building, smallest place first.
+ * <p>
+ * Unknown data does not prune: a {@code null} place fits every lesson, a place without building or a building without
+ * time slots offers the time slots of the requirements and academic groups without a size count as empty. A lesson
+ * larger than every place goes to the largest ones, and if no building offering the time slot has a place large enough
+ * for the lesson, the time slot is not taken into account. Whether it is, is precomputed for every requirements and
+ * time slot, so that {@link #isCandidate(int, int, int)} costs two array reads.
+ */
+public class LessonPlaceCandidates {
+    @Getter
+    private final LessonTimeSlotGrid timeSlotGrid;
+    private final int timeSlotsCount;
+
+    private final int[] requirementsSizes;
+
+    private final int[] buildingOffsets;
+    private final int[] buildingPlaceIndexes;
+    private final int[] buildingPlaceCapacities;
+    private final boolean[] buildingTimeSlots;
+
+    private final int[] placeBuildings;
+    private final int[] placeCapacities;
+    private final int unknownBuildingIndex;
+
+    private final boolean[] checkedTimeSlots;
+
+    private LessonPlaceCandidates(LessonTimeSlotGrid timeSlotGrid, int[] requirementsSizes, int[] buildingOffsets,
+                                  int[] buildingPlaceIndexes, int[] buildingPlaceCapacities,
+                                  boolean[] buildingTimeSlots, int[] placeBuildings, int[] placeCapacities,
+                                  int unknownBuildingIndex) {
+        this.timeSlotGrid = timeSlotGrid;
+        this.timeSlotsCount = timeSlotGrid.getTimeSlotsCount();
+        this.requirementsSizes = requirementsSizes;
+        this.buildingOffsets = buildingOffsets;
+        this.buildingPlaceIndexes = buildingPlaceIndexes;
+        this.buildingPlaceCapacities = buildingPlaceCapacities;
+        this.buildingTimeSlots = buildingTimeSlots;
+        this.placeBuildings = placeBuildings;
+        this.placeCapacities = placeCapacities;
+        this.unknownBuildingIndex = unknownBuildingIndex;
+
+        this.checkedTimeSlots = new boolean[requirementsSizes.length * timeSlotsCount];
+        for (int r = 0; r < requirementsSizes.length; ++r) {
+            for (int timeSlotOrdinal = 0; timeSlotOrdinal < timeSlotsCount; ++timeSlotOrdinal) {
+                checkedTimeSlots[r * timeSlotsCount + timeSlotOrdinal] = isTimeSlotChecked(requirementsSizes[r],
+                        timeSlotOrdinal);
+            }
+        }
+    }
+
+    public static LessonPlaceCandidates build(TimetableRequirements timetableRequirements,
+                                              LessonTimeSlotGrid timeSlotGrid) {
+        List<LessonPlace> lessonPlaces = timetableRequirements.getLessonPlaces();
+        int placesCount = lessonPlaces.size();
+        int timeSlotsCount = timeSlotGrid.getTimeSlotsCount();
+
+        Map<UniversityBuilding, Integer> buildingIndexes = new HashMap<>();
+        int[] placeBuildings = new int[placesCount];
+        int[] placeCapacities = new int[placesCount];
+        int maxCapacity = 0;
+        for (int placeIndex = 0; placeIndex < placesCount; ++placeIndex) {
+            LessonPlace lessonPlace = lessonPlaces.get(placeIndex);
+            UniversityBuilding building = lessonPlace == null ? null : lessonPlace.getBuilding();
+
+            Integer buildingIndex = buildingIndexes.get(building);
+            if (buildingIndex == null) {
+                buildingIndex = buildingIndexes.size();
+                buildingIndexes.put(building, buildingIndex);
+            }
+
+            placeBuildings[placeIndex] = buildingIndex;
+            placeCapacities[placeIndex] = lessonPlace == null ? Integer.MAX_VALUE : lessonPlace.getCapacity();
+            maxCapacity = Math.max(maxCapacity, placeCapacities[placeIndex]);
+        }
+
+        int buildingsCount = buildingIndexes.size();
+        boolean[] buildingTimeSlots = new boolean[buildingsCount * timeSlotsCount];
+        for (Map.Entry<UniversityBuilding, Integer> entry : buildingIndexes.entrySet()) {
+            int offset = entry.getValue() * timeSlotsCount;
+            List<LessonTimeSlot> timeSlots = entry.getKey() == null ? null : entry.getKey().getTimeSlots();
+            if (timeSlots == null || timeSlots.isEmpty()) {
+                timeSlots = timetableRequirements.getTimeSlots();
+            }
+
+            for (LessonTimeSlot timeSlot : timeSlots) {
+                int timeSlotOrdinal = timeSlotGrid.getTimeSlotOrdinal(timeSlot);
+                if (timeSlotOrdinal >= 0) {
+                    buildingTimeSlots[offset + timeSlotOrdinal] = true;
+                }
+            }
+        }
+
+        int[] buildingOffsets = new int[buildingsCount + 1];
+        for (int buildingIndex : placeBuildings) {
+            ++buildingOffsets[buildingIndex + 1];
+        }
+        for (int b = 0; b < buildingsCount; ++b) {
+            buildingOffsets[b + 1] += buildingOffsets[b];
+        }
+
+        Integer[] sortedPlaceIndexes = new Integer[placesCount];
+        for (int placeIndex = 0; placeIndex < placesCount; ++placeIndex) {
+            sortedPlaceIndexes[placeIndex] = placeIndex;
+        }
+        Arrays.sort(sortedPlaceIndexes, Comparator.<Integer>comparingInt(placeIndex -> placeBuildings[placeIndex])
+                .thenComparingInt(placeIndex -> placeCapacities[placeIndex]));
+
+        int[] buildingPlaceIndexes = new int[placesCount];
+        int[] buildingPlaceCapacities = new int[placesCount];
+        for (int i = 0; i < placesCount; ++i) {
+            buildingPlaceIndexes[i] = sortedPlaceIndexes[i];
+            buildingPlaceCapacities[i] = placeCapacities[sortedPlaceIndexes[i]];
+        }
+
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+        List<Integer> academicGroupSizes = timetableRequirements.getAcademicGroupSizes();
+        int[] requirementsSizes = new int[lessonRequirementsList.size()];
+        for (int r = 0; r < requirementsSizes.length; ++r) {
+            requirementsSizes[r] = Math.min(maxCapacity,
+                    calcSize(lessonRequirementsList.get(r).getAcademicGroupIndexes(), academicGroupSizes));
+        }
+
+        return new LessonPlaceCandidates(timeSlotGrid, requirementsSizes, buildingOffsets, buildingPlaceIndexes,
+                buildingPlaceCapacities, buildingTimeSlots, placeBuildings, placeCapacities,
+                buildingIndexes.getOrDefault(null, -1));
+    }
+
+    /**
+     * Writes the candidate places of a lesson of the requirements in the time slot to {@code placeIndexes} (sized for
+     * all places) and returns their count.
+     */
+    public int getCandidatePlaces(int requirementsIndex, int timeSlotOrdinal, int[] placeIndexes) {
+        int size = requirementsSizes[requirementsIndex];
+        boolean timeSlotChecked = checkedTimeSlots[requirementsIndex * timeSlotsCount + timeSlotOrdinal];
+
+        int candidatesCount = 0;
+        for (int b = 0; b + 1 < buildingOffsets.length; ++b) {
+            if (timeSlotChecked && !buildingTimeSlots[b * timeSlotsCount + timeSlotOrdinal]) {
+                continue;
+            }
+
+            int firstFitting = findFirstFitting(b, size);
+            System.arraycopy(buildingPlaceIndexes, firstFitting, placeIndexes, candidatesCount,
+                    buildingOffsets[b + 1] - firstFitting);
+            candidatesCount += buildingOffsets[b + 1] - firstFitting;
+        }
+
+        return candidatesCount;
+    }
+
+    /**
+     * Index of the building of the place, or {@code -1} if the place or its building is unknown.
+     */
+    public int getPlaceBuilding(int placeIndex) {
+        return placeBuildings[placeIndex] == unknownBuildingIndex ? -1 : placeBuildings[placeIndex];
+    }
+
+    public boolean isCandidate(int requirementsIndex, int timeSlotOrdinal, int placeIndex) {
+        return placeCapacities[placeIndex] >= requirementsSizes[requirementsIndex]
+                && (!checkedTimeSlots[requirementsIndex * timeSlotsCount + timeSlotOrdinal]
+                || buildingTimeSlots[placeBuildings[placeIndex] * timeSlotsCount + timeSlotOrdinal]);
+    }
+
+    private boolean isTimeSlotChecked(int size, int timeSlotOrdinal) {
+        for (int b = 0; b + 1 < buildingOffsets.length; ++b) {
+            if (buildingTimeSlots[b * timeSlotsCount + timeSlotOrdinal]
+                    && findFirstFitting(b, size) < buildingOffsets[b + 1]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int findFirstFitting(int buildingIndex, int size) {
+        int low = buildingOffsets[buildingIndex];
+        int high = buildingOffsets[buildingIndex + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buildingPlaceCapacities[middle] < size) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static int calcSize(Set<Integer> academicGroupIndexes, List<Integer> academicGroupSizes) {
+        if (academicGroupSizes == null) {
+            return 0;
+        }
+
+        int size = 0;
+        for (int academicGroupIndex : academicGroupIndexes) {
+            if (academicGroupIndex < academicGroupSizes.size() && academicGroupSizes.get(academicGroupIndex) != null) {
+                size += academicGroupSizes.get(academicGroupIndex);
+            }
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,79 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lesson requirements of an example as parallel primitive arrays indexed by requirement. The academic groups of
+ * requirement {@code i} are {@code academicGroupIndexes[academicGroupOffsets[i]]} up to (excluding)
+ * {@code academicGroupIndexes[academicGroupOffsets[i + 1]]}, in ascending order.
+ */
+@Getter
+@AllArgsConstructor
+public class LessonRequirementsTable {
+    private final int lecturersCount;
+    private final int academicGroupsCount;
+    private final int placesCount;
+
+    private final int[] lecturerIndexes;
+    private final int[] academicGroupOffsets;
+    private final int[] academicGroupIndexes;
+    private final double[] lessonsCountsPerWeek;
+
+    public int getRequirementsCount() {
+        return lecturerIndexes.length;
+    }
+
+    public static LessonRequirementsTable fromExample(TimetableRequirementsExample example) {
+        List<LessonRequirements> lessonRequirementsList = example.getLessonRequirementsList();
+        int requirementsCount = lessonRequirementsList.size();
+
+        int[] lecturerIndexes = new int[requirementsCount];
+        int[] academicGroupOffsets = new int[requirementsCount + 1];
+        double[] lessonsCountsPerWeek = new double[requirementsCount];
+        for (int i = 0; i < requirementsCount; ++i) {
+            academicGroupOffsets[i + 1] = academicGroupOffsets[i]
+                    + lessonRequirementsList.get(i).getAcademicGroupIndexes().size();
+        }
+
+        int[] academicGroupIndexes = new int[academicGroupOffsets[requirementsCount]];
+        for (int i = 0; i < requirementsCount; ++i) {
+            LessonRequirements lessonRequirements = lessonRequirementsList.get(i);
+
+            lecturerIndexes[i] = lessonRequirements.getLecturerIndex();
+            lessonsCountsPerWeek[i] = lessonRequirements.getLessonsCountPerWeek();
+
+            int offset = academicGroupOffsets[i];
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                academicGroupIndexes[offset++] = academicGroupIndex;
+            }
+            Arrays.sort(academicGroupIndexes, academicGroupOffsets[i], academicGroupOffsets[i + 1]);
+        }
+
+        return new LessonRequirementsTable(example.getLecturersCount(), example.getAcademicGroupsCount(),
+                example.getPlacesCount(), lecturerIndexes, academicGroupOffsets, academicGroupIndexes, lessonsCountsPerWeek);
+    }
+
+    public TimetableRequirementsExample toExample() {
+        int requirementsCount = getRequirementsCount();
+
+        List<LessonRequirements> lessonRequirementsList = new ArrayList<>(requirementsCount);
+        for (int i = 0; i < requirementsCount; ++i) {
+            Set<Integer> lessonAcademicGroupIndexes = new LinkedHashSet<>();
+            for (int j = academicGroupOffsets[i]; j < academicGroupOffsets[i + 1]; ++j) {
+                lessonAcademicGroupIndexes.add(academicGroupIndexes[j]);
+            }
+
+            lessonRequirementsList.add(new LessonRequirements(lecturerIndexes[i], lessonAcademicGroupIndexes,
+                    lessonsCountsPerWeek[i]));
+        }
+
+        return new TimetableRequirementsExample(lecturersCount, academicGroupsCount, placesCount, lessonRequirementsList);
+    }
+}
@@ -0,0 +1,82 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Time slots of a timetable compiled into ordinals (ascending time order, equal slots share an ordinal) with
+ * precomputed conflict and time window relations between every pair of ordinals. The slots of all bell schedules
+ * (requirements and buildings) share the grid, so {@link #getTimeSlotOrdinals()} lists every ordinal a lesson may take:
+ * those of the requirements time slots in the requirements order first, then the ones only buildings use.
+ * The relations come in two variants: for two lessons in the same building and for two lessons in different
+ * buildings, between which a lecturer or an academic group has to travel.
+ * <p>
+ * Slots of merged bell schedules may overlap non-adjacently: 8:00 - 11:00 conflicts with 10:10 - 11:30 although
+ * 8:30 - 9:50 lies between them. When such conflicts are counted, the grid keeps for every ordinal the earliest ordinal
+ * before its predecessor it conflicts with in either variant, which bounds how far back a scan in time order has to
+ * look; otherwise every ordinal is its own earliest one and only predecessors are compared.
+ */
+@Getter
+public class LessonTimeSlotGrid {
+    private final LessonTimeSlot[] orderedTimeSlots;
+    private final int[] timeSlotOrdinals;
+    private final int timeSlotsCount;
+
+    private final boolean[] conflicts;
+    private final boolean[] windows;
+    private final boolean[] travelConflicts;
+    private final boolean[] travelWindows;
+    private final int[] earliestConflictOrdinals;
+
+    public LessonTimeSlotGrid(LessonTimeSlot[] orderedTimeSlots, int[] timeSlotOrdinals, boolean[] conflicts,
+                              boolean[] windows, boolean[] travelConflicts, boolean[] travelWindows,
+                              boolean nonAdjacentConflictsCounted) {
+        this.orderedTimeSlots = orderedTimeSlots;
+        this.timeSlotOrdinals = timeSlotOrdinals;
+        this.timeSlotsCount = orderedTimeSlots.length;
+        this.conflicts = conflicts;
+        this.windows = windows;
+        this.travelConflicts = travelConflicts;
+        this.travelWindows = travelWindows;
+
+        this.earliestConflictOrdinals = new int[timeSlotsCount];
+        for (int i = 0; i < timeSlotsCount; ++i) {
+            int earliestConflictOrdinal = i;
+            for (int j = nonAdjacentConflictsCounted ? i - 2 : -1; j >= 0; --j) {
+                if (conflicts[j * timeSlotsCount + i] || travelConflicts[j * timeSlotsCount + i]) {
+                    earliestConflictOrdinal = j;
+                }
+            }
+            earliestConflictOrdinals[i] = earliestConflictOrdinal;
+        }
+    }
+
+    public int getTimeSlotOrdinal(LessonTimeSlot timeSlot) {
+        return Arrays.binarySearch(orderedTimeSlots, timeSlot);
+    }
+
+    /**
+     * Earliest ordinal before the predecessor of {@code timeSlotOrdinal} that conflicts with it with or without travel,
+     * or {@code timeSlotOrdinal} itself if there is none or such conflicts are not counted.
+     */
+    public int getEarliestConflictOrdinal(int timeSlotOrdinal) {
+        return earliestConflictOrdinals[timeSlotOrdinal];
+    }
+
+    public boolean isConflict(int timeSlotOrdinal1, int timeSlotOrdinal2) {
+        return conflicts[timeSlotOrdinal1 * timeSlotsCount + timeSlotOrdinal2];
+    }
+
+    public boolean isWindow(int timeSlotOrdinal1, int timeSlotOrdinal2) {
+        return windows[timeSlotOrdinal1 * timeSlotsCount + timeSlotOrdinal2];
+    }
+
+    public boolean isConflict(int timeSlotOrdinal1, int timeSlotOrdinal2, boolean travel) {
+        return (travel ? travelConflicts : conflicts)[timeSlotOrdinal1 * timeSlotsCount + timeSlotOrdinal2];
+    }
+
+    public boolean isWindow(int timeSlotOrdinal1, int timeSlotOrdinal2, boolean travel) {
+        return (travel ? travelWindows : windows)[timeSlotOrdinal1 * timeSlotsCount + timeSlotOrdinal2];
+    }
+}
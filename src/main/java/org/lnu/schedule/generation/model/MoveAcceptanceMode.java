@@ -0,0 +1,29 @@
+package org.lnu.schedule.generation.model;
+
+/**
+ * How the day and time slot pass decides where a lesson moves.
+ */
+public enum MoveAcceptanceMode {
+    /**
+     * The lesson moves to its best candidate, so the penalty never grows.
+     */
+    DESCENT,
+
+    /**
+     * The lesson moves to its best other candidate if that is not worse, or with a probability that falls with the
+     * penalty increase and with the temperature, which cools down every iteration.
+     */
+    SIMULATED_ANNEALING,
+
+    /**
+     * The lesson moves to its best other candidate even if that is worse, but not back to a cell it left within the
+     * last iterations unless that lowers the penalty.
+     */
+    TABU,
+
+    /**
+     * The lesson moves to its best other candidate if the penalty after the move is not above the penalty a fixed
+     * number of decisions ago, or not above the current one.
+     */
+    LATE_ACCEPTANCE
+}
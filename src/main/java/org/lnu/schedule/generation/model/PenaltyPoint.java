@@ -0,0 +1,16 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Best penalty reached after {@code timeMs} milliseconds of a run.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PenaltyPoint {
+    private double timeMs;
+    private double penalty;
+}
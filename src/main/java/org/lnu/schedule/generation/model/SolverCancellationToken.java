@@ -0,0 +1,17 @@
+package org.lnu.schedule.generation.model;
+
+/**
+ * Lets another thread stop a running generation; the solver checks it between optimization passes and returns the
+ * best timetable found so far.
+ */
+public class SolverCancellationToken {
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,48 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.lnu.schedule.generation.metrics.OptimizationPassListener;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Stopping conditions and callbacks of a single generation. Whichever condition is met first stops the solver, which
+ * then returns the best timetable found so far.
+ */
+@Getter
+@Builder(toBuilder = true)
+public class SolverControl {
+    /**
+     * Wall-clock time the whole generation may take, {@code null} for no limit.
+     */
+    private final Duration timeBudget;
+
+    /**
+     * Iterations without improvement of its best penalty after which a run stops, {@code 0} for no limit.
+     */
+    private final int stallIterations;
+
+    /**
+     * Penalty that is good enough to stop at.
+     */
+    private final double targetPenalty;
+
+    private final SolverCancellationToken cancellationToken;
+
+    /**
+     * Receives an independent copy of the best timetable every time the best penalty improves, starting with the
+     * initial timetable. Calls are serialized, even when several starts run concurrently.
+     */
+    private final Consumer<EvaluatedTimetable> improvementListener;
+
+    private final OptimizationPassListener passListener;
+
+    /**
+     * Snapshot file to resume from and to save the best timetable to every {@code checkpoint.iterations} iterations,
+     * {@code null} for no checkpoints.
+     */
+    private final Path checkpointPath;
+}
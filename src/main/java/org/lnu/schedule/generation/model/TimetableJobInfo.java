@@ -0,0 +1,23 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Point-in-time view of a timetable generation job. {@code bestPenalty} and {@code iteration} are {@code null} until
+ * the first optimization pass of the job is over.
+ */
+@Data
+@AllArgsConstructor
+public class TimetableJobInfo {
+    private String id;
+    private TimetableJobStatus status;
+    private Instant submittedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private Double bestPenalty;
+    private Integer iteration;
+    private String error;
+}
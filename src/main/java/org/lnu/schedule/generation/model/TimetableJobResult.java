@@ -0,0 +1,14 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class TimetableJobResult {
+    private String id;
+    private double penalty;
+    private List<Lesson> lessons;
+}
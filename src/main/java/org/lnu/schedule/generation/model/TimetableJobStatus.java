@@ -0,0 +1,13 @@
+package org.lnu.schedule.generation.model;
+
+public enum TimetableJobStatus {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    CANCELLED,
+    FAILED;
+
+    public boolean isFinished() {
+        return this == COMPLETED || this == CANCELLED || this == FAILED;
+    }
+}
@@ -0,0 +1,349 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Dense occupancy counters of a {@link TimetableState}, which stays the single source of lesson positions: moves
+ * applied through the index update both.
+ * <p>
+ * Every lecturer, academic group and place owns a contiguous block of {@code days * timeSlots * periodicities}
+ * counters ("week cells"). Time slots are addressed by their {@link LessonTimeSlotGrid} ordinal, so a single forward
+ * scan over a day block visits lessons in the same order as sorting them by time slot and periodicity.
+ * <p>
+ * Next to the counters every entity keeps its per-day statistics (conflicts counted in halves and time windows,
+ * packed by {@link #packDayStats(int, int)}), which let a move be scored by rescanning only the days it touches.
+ * The counters are updated here, the statistics are refreshed by whoever applies the move. The same goes for the
+ * cell penalties, the share of the penalty of every entity each of its occupied cells is blamed for.
+ * <p>
+ * Lecturers and academic groups travel between lessons in different buildings, so every one of their cells also keeps
+ * the buildings of its lessons: the count of the lessons whose place has a known building and the sums of
+ * {@code building + 1} and of its square over them, packed into one long. They tell whether all those lessons are in
+ * one building ({@link #getCellBuilding(long)}); lessons without a known building do not count.
+ * <p>
+ * Places are also tracked as a bitmap: for every week cell a run of {@link #getPlaceWordsCount()} words with a bit
+ * set for each place holding at least one lesson there, so places free in a set of cells are found by or-ing words.
+ * The places a lesson may go to at all come from {@link LessonPlaceCandidates}; the index owns scratch buffers for
+ * both, so that place selection does not allocate.
+ * <p>
+ * The index also owns the buffers of evaluation: per-entity scratch and two {@link EvaluatedTimetable}s handed out
+ * in turns by {@link #nextEvaluatedTimetable()}, so that evaluating the same index again and again does not allocate.
+ */
+@Getter
+public class TimetableOccupancyIndex {
+    public static final int PERIODICITIES_COUNT = LessonPeriodicity.values().length;
+    public static final int UNKNOWN_BUILDING = -1;
+    public static final int MIXED_BUILDINGS = -2;
+
+    private static final int KNOWN_COUNT_BITS = 16;
+    private static final int BUILDINGS_SUM_BITS = 24;
+
+    private final int daysCount;
+    private final LessonTimeSlotGrid timeSlotGrid;
+    private final int timeSlotsCount;
+    private final int dayCellsCount;
+    private final int weekCellsCount;
+
+    private final int[] lecturerOccupancy;
+    private final int[] academicGroupOccupancy;
+    private final int[] placeOccupancy;
+    private final long[] lecturerCellBuildings;
+    private final long[] academicGroupCellBuildings;
+    private final long[] placeBuildings;
+    private final int placeWordsCount;
+    private final long[] occupiedPlaceBits;
+    private final LessonPlaceCandidates placeCandidates;
+    private final long[] clashingPlaceBits;
+    private final int[] candidatePlaceIndexes;
+
+    private final long[] lecturerDayStats;
+    private final long[] academicGroupDayStats;
+    private final long[] placeDayStats;
+
+    private final double[] lecturerCellPenalties;
+    private final double[] academicGroupCellPenalties;
+    private final double[] placeCellPenalties;
+    private final int[] conflictLessonCounts;
+    private final boolean[] timeWindowDays;
+    private final double[] entityPenalties;
+
+    @Getter(AccessLevel.NONE)
+    private final EvaluatedTimetable[] evaluatedTimetables = new EvaluatedTimetable[2];
+    @Getter(AccessLevel.NONE)
+    private int evaluatedTimetableTurn;
+
+    private final TimetableState timetableState;
+    private final int[] lessonLecturerIndexes;
+    private final int[][] lessonAcademicGroupIndexes;
+
+    public TimetableOccupancyIndex(int daysCount, LessonTimeSlotGrid timeSlotGrid, int lecturersCount,
+                                   int academicGroupsCount, int placesCount, LessonPlaceCandidates placeCandidates,
+                                   TimetableState timetableState) {
+        this.daysCount = daysCount;
+        this.timeSlotGrid = timeSlotGrid;
+        this.timeSlotsCount = timeSlotGrid.getTimeSlotsCount();
+        this.dayCellsCount = timeSlotsCount * PERIODICITIES_COUNT;
+        this.weekCellsCount = daysCount * dayCellsCount;
+
+        this.lecturerOccupancy = new int[lecturersCount * weekCellsCount];
+        this.academicGroupOccupancy = new int[academicGroupsCount * weekCellsCount];
+        this.placeOccupancy = new int[placesCount * weekCellsCount];
+        this.lecturerCellBuildings = new long[lecturerOccupancy.length];
+        this.academicGroupCellBuildings = new long[academicGroupOccupancy.length];
+        this.placeBuildings = new long[placesCount];
+        for (int placeIndex = 0; placeIndex < placesCount; ++placeIndex) {
+            placeBuildings[placeIndex] = packBuilding(placeCandidates.getPlaceBuilding(placeIndex));
+        }
+        this.placeWordsCount = (placesCount + Long.SIZE - 1) / Long.SIZE;
+        this.occupiedPlaceBits = new long[weekCellsCount * placeWordsCount];
+        this.placeCandidates = placeCandidates;
+        this.clashingPlaceBits = new long[placeWordsCount];
+        this.candidatePlaceIndexes = new int[placesCount];
+
+        this.lecturerDayStats = new long[lecturersCount * daysCount];
+        this.academicGroupDayStats = new long[academicGroupsCount * daysCount];
+        this.placeDayStats = new long[placesCount * daysCount];
+
+        this.lecturerCellPenalties = new double[lecturerOccupancy.length];
+        this.academicGroupCellPenalties = new double[academicGroupOccupancy.length];
+        this.placeCellPenalties = new double[placeOccupancy.length];
+        this.conflictLessonCounts = new int[weekCellsCount];
+        this.timeWindowDays = new boolean[daysCount];
+        this.entityPenalties = new double[2 * Math.max(lecturersCount, Math.max(academicGroupsCount, placesCount))];
+
+        this.timetableState = timetableState;
+        this.lessonLecturerIndexes = new int[timetableState.getLessonsCount()];
+        this.lessonAcademicGroupIndexes = new int[timetableState.getLessonsCount()][];
+    }
+
+    /**
+     * Evaluated timetable of this index for the next evaluation to fill. The two timetables of the index alternate,
+     * so the penalty and the lesson penalties of the previous evaluation stay intact while the next one is written;
+     * those of the one before it are overwritten. Both share the live state of the index, though, so neither keeps the
+     * lessons it was evaluated with once a lesson moves: a timetable that outlives the index's next move needs an index
+     * of its own.
+     */
+    public EvaluatedTimetable nextEvaluatedTimetable() {
+        evaluatedTimetableTurn ^= 1;
+        if (evaluatedTimetables[evaluatedTimetableTurn] == null) {
+            evaluatedTimetables[evaluatedTimetableTurn] = new EvaluatedTimetable(timetableState, 0,
+                    new double[timetableState.getLessonsCount()], this);
+        }
+
+        return evaluatedTimetables[evaluatedTimetableTurn];
+    }
+
+    public int getLecturersCount() {
+        return lecturerDayStats.length / daysCount;
+    }
+
+    public int getAcademicGroupsCount() {
+        return academicGroupDayStats.length / daysCount;
+    }
+
+    public int getPlacesCount() {
+        return placeDayStats.length / daysCount;
+    }
+
+    public int getWeekCell(int dayOrdinal, int timeSlotOrdinal, int periodicityOrdinal) {
+        return (dayOrdinal * timeSlotsCount + timeSlotOrdinal) * PERIODICITIES_COUNT + periodicityOrdinal;
+    }
+
+    public int getDayOffset(int entityIndex, int dayOrdinal) {
+        return entityIndex * weekCellsCount + dayOrdinal * dayCellsCount;
+    }
+
+    public int getCell(int entityIndex, int weekCell) {
+        return entityIndex * weekCellsCount + weekCell;
+    }
+
+    public int getDay(int weekCell) {
+        return weekCell / dayCellsCount;
+    }
+
+    public int getTimeSlot(int weekCell) {
+        return weekCell % dayCellsCount / PERIODICITIES_COUNT;
+    }
+
+    public int getLessonWeekCell(int lessonIndex) {
+        return getWeekCell(timetableState.getDayOrdinals()[lessonIndex], timetableState.getTimeSlotOrdinals()[lessonIndex],
+                timetableState.getPeriodicityOrdinals()[lessonIndex]);
+    }
+
+    public int getLessonPlaceIndex(int lessonIndex) {
+        return timetableState.getPlaceIndexes()[lessonIndex];
+    }
+
+    /**
+     * Fills {@link #getCandidatePlaceIndexes()} with the places the lesson may go to at its time slot and returns
+     * their count.
+     */
+    public int collectCandidatePlaces(int lessonIndex) {
+        return placeCandidates.getCandidatePlaces(timetableState.getRequirementsIndexes()[lessonIndex],
+                timetableState.getTimeSlotOrdinals()[lessonIndex], candidatePlaceIndexes);
+    }
+
+    public boolean isCandidatePlace(int lessonIndex, int placeIndex) {
+        return placeCandidates.isCandidate(timetableState.getRequirementsIndexes()[lessonIndex],
+                timetableState.getTimeSlotOrdinals()[lessonIndex], placeIndex);
+    }
+
+    /**
+     * Offset of the occupied places bitmap of a week cell in {@link #getOccupiedPlaceBits()}.
+     */
+    public int getPlaceWordsOffset(int weekCell) {
+        return weekCell * placeWordsCount;
+    }
+
+    public int getDayStatsIndex(int entityIndex, int dayOrdinal) {
+        return entityIndex * daysCount + dayOrdinal;
+    }
+
+    public static long packDayStats(int halfConflictsCount, int timeWindowsCount) {
+        return ((long) halfConflictsCount << 32) | timeWindowsCount;
+    }
+
+    public static int getHalfConflictsCount(long dayStats) {
+        return (int) (dayStats >>> 32);
+    }
+
+    public static int getTimeWindowsCount(long dayStats) {
+        return (int) dayStats;
+    }
+
+    /**
+     * Building of one lesson in the packed form of the cell buildings, {@code 0} for an unknown building: the count of
+     * known building lessons in the low {@value #KNOWN_COUNT_BITS} bits, then {@code building + 1} and its square in
+     * {@value #BUILDINGS_SUM_BITS} bits each. Packed values of several lessons add up field by field.
+     */
+    public static long packBuilding(int buildingIndex) {
+        if (buildingIndex < 0) {
+            return 0;
+        }
+
+        long building = buildingIndex + 1;
+        return building * building << (KNOWN_COUNT_BITS + BUILDINGS_SUM_BITS) | building << KNOWN_COUNT_BITS | 1;
+    }
+
+    /**
+     * Building all lessons of a cell with a known building are in, {@link #UNKNOWN_BUILDING} if there are none, or
+     * {@link #MIXED_BUILDINGS} if they are in several. The {@code knownCount} lessons are in one building exactly when
+     * {@code knownCount * squaresSum == sum * sum}.
+     */
+    public static int getCellBuilding(long cellBuildings) {
+        long knownCount = cellBuildings & (1L << KNOWN_COUNT_BITS) - 1;
+        if (knownCount == 0) {
+            return UNKNOWN_BUILDING;
+        }
+
+        long sum = cellBuildings >>> KNOWN_COUNT_BITS & (1L << BUILDINGS_SUM_BITS) - 1;
+        long squaresSum = cellBuildings >>> (KNOWN_COUNT_BITS + BUILDINGS_SUM_BITS);
+
+        return knownCount * squaresSum == sum * sum ? (int) (sum / knownCount) - 1 : MIXED_BUILDINGS;
+    }
+
+    /**
+     * Whether a lecturer or an academic group travels between two consecutive cells with these buildings. Nobody
+     * travels from or to an unknown building.
+     */
+    public static boolean isTravel(int building1, int building2) {
+        if (building1 == UNKNOWN_BUILDING || building2 == UNKNOWN_BUILDING) {
+            return false;
+        }
+
+        return building1 != building2 || building1 == MIXED_BUILDINGS;
+    }
+
+    /**
+     * Packed building of the place of the lesson, see {@link #packBuilding(int)}.
+     */
+    public long getLessonBuilding(int lessonIndex) {
+        return placeBuildings[getLessonPlaceIndex(lessonIndex)];
+    }
+
+    public long getPlaceBuilding(int placeIndex) {
+        return placeBuildings[placeIndex];
+    }
+
+    public void addLesson(int lessonIndex, int lecturerIndex, int[] academicGroupIndexes) {
+        lessonLecturerIndexes[lessonIndex] = lecturerIndex;
+        lessonAcademicGroupIndexes[lessonIndex] = academicGroupIndexes;
+
+        int weekCell = getLessonWeekCell(lessonIndex);
+        int placeIndex = getLessonPlaceIndex(lessonIndex);
+        long building = placeBuildings[placeIndex];
+
+        int lecturerCell = getCell(lecturerIndex, weekCell);
+        ++lecturerOccupancy[lecturerCell];
+        lecturerCellBuildings[lecturerCell] += building;
+        for (int academicGroupIndex : academicGroupIndexes) {
+            int academicGroupCell = getCell(academicGroupIndex, weekCell);
+            ++academicGroupOccupancy[academicGroupCell];
+            academicGroupCellBuildings[academicGroupCell] += building;
+        }
+        addPlaceLesson(placeIndex, weekCell);
+    }
+
+    public void moveLesson(int lessonIndex, int weekCell) {
+        int prevWeekCell = getLessonWeekCell(lessonIndex);
+        if (prevWeekCell == weekCell) {
+            return;
+        }
+
+        int placeIndex = getLessonPlaceIndex(lessonIndex);
+        long building = placeBuildings[placeIndex];
+
+        int lecturerIndex = lessonLecturerIndexes[lessonIndex];
+        moveEntityLesson(lecturerOccupancy, lecturerCellBuildings, getCell(lecturerIndex, prevWeekCell),
+                getCell(lecturerIndex, weekCell), building);
+
+        for (int academicGroupIndex : lessonAcademicGroupIndexes[lessonIndex]) {
+            moveEntityLesson(academicGroupOccupancy, academicGroupCellBuildings,
+                    getCell(academicGroupIndex, prevWeekCell), getCell(academicGroupIndex, weekCell), building);
+        }
+
+        removePlaceLesson(placeIndex, prevWeekCell);
+        addPlaceLesson(placeIndex, weekCell);
+
+        timetableState.getDayOrdinals()[lessonIndex] = getDay(weekCell);
+        timetableState.getTimeSlotOrdinals()[lessonIndex] = getTimeSlot(weekCell);
+    }
+
+    public void changePlace(int lessonIndex, int placeIndex) {
+        int prevPlaceIndex = getLessonPlaceIndex(lessonIndex);
+        if (prevPlaceIndex == placeIndex) {
+            return;
+        }
+
+        int weekCell = getLessonWeekCell(lessonIndex);
+        removePlaceLesson(prevPlaceIndex, weekCell);
+        addPlaceLesson(placeIndex, weekCell);
+
+        long buildingChange = placeBuildings[placeIndex] - placeBuildings[prevPlaceIndex];
+        lecturerCellBuildings[getCell(lessonLecturerIndexes[lessonIndex], weekCell)] += buildingChange;
+        for (int academicGroupIndex : lessonAcademicGroupIndexes[lessonIndex]) {
+            academicGroupCellBuildings[getCell(academicGroupIndex, weekCell)] += buildingChange;
+        }
+
+        timetableState.getPlaceIndexes()[lessonIndex] = placeIndex;
+    }
+
+    private static void moveEntityLesson(int[] occupancy, long[] cellBuildings, int prevCell, int cell, long building) {
+        --occupancy[prevCell];
+        cellBuildings[prevCell] -= building;
+        ++occupancy[cell];
+        cellBuildings[cell] += building;
+    }
+
+    private void addPlaceLesson(int placeIndex, int weekCell) {
+        if (placeOccupancy[getCell(placeIndex, weekCell)]++ == 0) {
+            occupiedPlaceBits[getPlaceWordsOffset(weekCell) + placeIndex / Long.SIZE] |= 1L << placeIndex;
+        }
+    }
+
+    private void removePlaceLesson(int placeIndex, int weekCell) {
+        if (--placeOccupancy[getCell(placeIndex, weekCell)] == 0) {
+            occupiedPlaceBits[getPlaceWordsOffset(weekCell) + placeIndex / Long.SIZE] &= ~(1L << placeIndex);
+        }
+    }
+}
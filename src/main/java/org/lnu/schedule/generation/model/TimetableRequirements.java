@@ -1,6 +1,12 @@
 package org.lnu.schedule.generation.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.util.List;
 
@@ -10,9 +16,74 @@ public class TimetableRequirements {
     private List<LessonPlace> lessonPlaces;
     private List<LessonTimeSlot> timeSlots;
 
+    /**
+     * Number of students of every academic group by its index, optional; used to find the places a lesson fits in.
+     */
+    private List<Integer> academicGroupSizes;
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile LessonConflictGraph lessonConflictGraph;
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile LessonPlaceCandidates lessonPlaceCandidates;
+
     public TimetableRequirements(List<LessonRequirements> lessonRequirementsList, List<LessonPlace> lessonPlaces, List<LessonTimeSlot> timeSlots) {
         this.lessonRequirementsList = lessonRequirementsList;
         this.lessonPlaces = lessonPlaces;
         this.timeSlots = timeSlots;
     }
-}
\ No newline at end of file
+
+    public void setLessonRequirementsList(List<LessonRequirements> lessonRequirementsList) {
+        this.lessonRequirementsList = lessonRequirementsList;
+        this.lessonConflictGraph = null;
+        this.lessonPlaceCandidates = null;
+    }
+
+    public void setLessonPlaces(List<LessonPlace> lessonPlaces) {
+        this.lessonPlaces = lessonPlaces;
+        this.lessonPlaceCandidates = null;
+    }
+
+    public void setAcademicGroupSizes(List<Integer> academicGroupSizes) {
+        this.academicGroupSizes = academicGroupSizes;
+        this.lessonPlaceCandidates = null;
+    }
+
+    /**
+     * Conflict graph of the lessons, built on first use and kept until the lesson requirements list is replaced. The
+     * list itself is expected not to change in place.
+     */
+    @JsonIgnore
+    public LessonConflictGraph getLessonConflictGraph() {
+        LessonConflictGraph graph = lessonConflictGraph;
+        if (graph == null) {
+            graph = LessonConflictGraph.build(lessonRequirementsList);
+            lessonConflictGraph = graph;
+        }
+
+        return graph;
+    }
+
+    /**
+     * Candidate places of the lessons for the compiled time slots, built on first use and kept until the lesson
+     * requirements, places or academic group sizes are replaced or the time slots are compiled again.
+     */
+    @JsonIgnore
+    public LessonPlaceCandidates getLessonPlaceCandidates(LessonTimeSlotGrid timeSlotGrid) {
+        LessonPlaceCandidates candidates = lessonPlaceCandidates;
+        if (candidates == null || candidates.getTimeSlotGrid() != timeSlotGrid) {
+            candidates = LessonPlaceCandidates.build(this, timeSlotGrid);
+            lessonPlaceCandidates = candidates;
+        }
+
+        return candidates;
+    }
+}
@@ -0,0 +1,98 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relation between the lesson requirements of a published timetable and their new version: for every new
+ * requirement the previous requirement it continues, if any, and whether it differs from it. Previous requirements no
+ * new one continues were removed.
+ */
+@Getter
+public class TimetableRequirementsDiff {
+    public static final int ADDED = -1;
+
+    /**
+     * Index of the previous requirement every new requirement continues, {@link #ADDED} for new ones.
+     */
+    private final int[] previousRequirementsIndexes;
+
+    /**
+     * Whether the new requirement differs from the previous one it continues, e.g. its lecturer was swapped.
+     */
+    private final boolean[] changed;
+
+    public TimetableRequirementsDiff(int[] previousRequirementsIndexes, boolean[] changed) {
+        this.previousRequirementsIndexes = previousRequirementsIndexes;
+        this.changed = changed;
+    }
+
+    /**
+     * Matches every new requirement to an equal previous one first, so insertions and removals do not shift the rest,
+     * and then to the unmatched previous requirement at the same position, which makes it a changed one.
+     */
+    public static TimetableRequirementsDiff between(TimetableRequirements previousRequirements,
+                                                    TimetableRequirements requirements) {
+        List<LessonRequirements> previousList = previousRequirements.getLessonRequirementsList();
+        List<LessonRequirements> list = requirements.getLessonRequirementsList();
+
+        Map<LessonRequirements, Deque<Integer>> unmatchedPrevious = new HashMap<>();
+        for (int i = 0; i < previousList.size(); ++i) {
+            unmatchedPrevious.computeIfAbsent(previousList.get(i), lessonRequirements -> new ArrayDeque<>()).add(i);
+        }
+
+        int[] previousRequirementsIndexes = new int[list.size()];
+        boolean[] changed = new boolean[list.size()];
+        boolean[] matchedPrevious = new boolean[previousList.size()];
+
+        Arrays.fill(previousRequirementsIndexes, ADDED);
+        for (int i = 0; i < list.size(); ++i) {
+            Deque<Integer> equalPrevious = unmatchedPrevious.get(list.get(i));
+            if (equalPrevious != null && !equalPrevious.isEmpty()) {
+                int previousIndex = equalPrevious.poll();
+                previousRequirementsIndexes[i] = previousIndex;
+                matchedPrevious[previousIndex] = true;
+            }
+        }
+
+        for (int i = 0; i < list.size() && i < previousList.size(); ++i) {
+            if (previousRequirementsIndexes[i] == ADDED && !matchedPrevious[i]) {
+                previousRequirementsIndexes[i] = i;
+                changed[i] = true;
+                matchedPrevious[i] = true;
+            }
+        }
+
+        return new TimetableRequirementsDiff(previousRequirementsIndexes, changed);
+    }
+
+    public boolean isAdded(int requirementsIndex) {
+        return previousRequirementsIndexes[requirementsIndex] == ADDED;
+    }
+
+    public boolean isChanged(int requirementsIndex) {
+        return changed[requirementsIndex];
+    }
+
+    /**
+     * Previous requirements no new requirement continues.
+     */
+    public boolean[] getRemoved(int previousRequirementsCount) {
+        boolean[] removed = new boolean[previousRequirementsCount];
+        Arrays.fill(removed, true);
+
+        for (int previousIndex : previousRequirementsIndexes) {
+            if (previousIndex != ADDED) {
+                removed[previousIndex] = false;
+            }
+        }
+
+        return removed;
+    }
+}
@@ -0,0 +1,15 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Lesson assignments saved by a checkpoint, with the hash of the requirements they were generated for.
+ */
+@Getter
+@AllArgsConstructor
+public class TimetableSnapshot {
+    private final long requirementsHash;
+    private final double penalty;
+    private final TimetableState timetableState;
+}
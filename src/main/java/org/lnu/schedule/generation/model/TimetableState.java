@@ -0,0 +1,75 @@
+package org.lnu.schedule.generation.model;
+
+import lombok.Getter;
+
+/**
+ * Lesson assignments of a timetable as parallel primitive arrays indexed by lesson. Time slots are stored as
+ * {@link LessonTimeSlotGrid} ordinals, days and periodicities as enum ordinals; {@link Lesson} objects are only
+ * materialized on request.
+ */
+@Getter
+public class TimetableState {
+    private static final Day[] DAYS = Day.values();
+    private static final LessonPeriodicity[] PERIODICITIES = LessonPeriodicity.values();
+
+    private final int[] requirementsIndexes;
+    private final int[] dayOrdinals;
+    private final int[] timeSlotOrdinals;
+    private final int[] placeIndexes;
+    private final int[] periodicityOrdinals;
+
+    public TimetableState(int lessonsCount) {
+        this.requirementsIndexes = new int[lessonsCount];
+        this.dayOrdinals = new int[lessonsCount];
+        this.timeSlotOrdinals = new int[lessonsCount];
+        this.placeIndexes = new int[lessonsCount];
+        this.periodicityOrdinals = new int[lessonsCount];
+    }
+
+    public int getLessonsCount() {
+        return requirementsIndexes.length;
+    }
+
+    public void setLesson(int lessonIndex, int requirementsIndex, int dayOrdinal, int timeSlotOrdinal, int placeIndex,
+                          int periodicityOrdinal) {
+        requirementsIndexes[lessonIndex] = requirementsIndex;
+        dayOrdinals[lessonIndex] = dayOrdinal;
+        timeSlotOrdinals[lessonIndex] = timeSlotOrdinal;
+        placeIndexes[lessonIndex] = placeIndex;
+        periodicityOrdinals[lessonIndex] = periodicityOrdinal;
+    }
+
+    public TimetableState copy() {
+        TimetableState copy = new TimetableState(getLessonsCount());
+        copy.copyFrom(this);
+
+        return copy;
+    }
+
+    public void copyFrom(TimetableState other) {
+        int lessonsCount = getLessonsCount();
+
+        System.arraycopy(other.requirementsIndexes, 0, requirementsIndexes, 0, lessonsCount);
+        System.arraycopy(other.dayOrdinals, 0, dayOrdinals, 0, lessonsCount);
+        System.arraycopy(other.timeSlotOrdinals, 0, timeSlotOrdinals, 0, lessonsCount);
+        System.arraycopy(other.placeIndexes, 0, placeIndexes, 0, lessonsCount);
+        System.arraycopy(other.periodicityOrdinals, 0, periodicityOrdinals, 0, lessonsCount);
+    }
+
+    public Lesson[] toLessons(LessonTimeSlotGrid timeSlotGrid) {
+        LessonTimeSlot[] orderedTimeSlots = timeSlotGrid.getOrderedTimeSlots();
+
+        Lesson[] lessons = new Lesson[getLessonsCount()];
+        for (int i = 0; i < lessons.length; ++i) {
+            lessons[i] = Lesson.builder()
+                    .requirementsIndex(requirementsIndexes[i])
+                    .day(DAYS[dayOrdinals[i]])
+                    .timeSlot(orderedTimeSlots[timeSlotOrdinals[i]])
+                    .placeIndex(placeIndexes[i])
+                    .periodicity(PERIODICITIES[periodicityOrdinals[i]])
+                    .build();
+        }
+
+        return lessons;
+    }
+}
@@ -0,0 +1,18 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+/**
+ * Moves a lesson to its best candidate, the first one on ties.
+ */
+class DescentMoveAcceptance implements TimetableMoveAcceptance {
+    @Override
+    public void startPass(int iteration, double penalty) {
+    }
+
+    @Override
+    public int selectMove(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int[] weekCells, double[] penalties,
+                          int bestCandidate) {
+        return weekCells[bestCandidate] == occupancyIndex.getLessonWeekCell(lessonIndex) ? -1 : bestCandidate;
+    }
+}
@@ -0,0 +1,56 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+import java.util.Arrays;
+
+/**
+ * Late acceptance hill climbing: moves a lesson to its best other candidate if the timetable penalty after the move
+ * is not above the one {@code acceptance.late-acceptance.history-length} decisions ago, or not above the current one.
+ * The current penalty is tracked from the local penalty changes and resynchronized at the start of every pass.
+ */
+class LateAcceptanceMoveAcceptance implements TimetableMoveAcceptance {
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final double[] history;
+
+    private double penalty;
+    private long decisionsCount;
+
+    LateAcceptanceMoveAcceptance(TimetableEvaluationService timetableEvaluationService, int historyLength) {
+        this.timetableEvaluationService = timetableEvaluationService;
+        this.history = new double[Math.max(1, historyLength)];
+
+        Arrays.fill(history, Double.NaN);
+    }
+
+    @Override
+    public void startPass(int iteration, double penalty) {
+        this.penalty = penalty;
+
+        if (Double.isNaN(history[0])) {
+            Arrays.fill(history, penalty);
+        }
+    }
+
+    @Override
+    public int selectMove(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int[] weekCells, double[] penalties,
+                          int bestCandidate) {
+        int candidate = TimetableMoveAcceptance.findBestOtherCandidate(weekCells, penalties, bestCandidate,
+                occupancyIndex.getLessonWeekCell(lessonIndex));
+        if (candidate < 0) {
+            return -1;
+        }
+
+        int historyIndex = (int) (decisionsCount++ % history.length);
+
+        double movedPenalty = penalty + penalties[candidate]
+                - timetableEvaluationService.calcLocalPenalty(occupancyIndex, lessonIndex);
+        boolean accepted = movedPenalty <= penalty || movedPenalty <= history[historyIndex];
+        if (accepted) {
+            penalty = movedPenalty;
+        }
+        history[historyIndex] = penalty;
+
+        return accepted ? candidate : -1;
+    }
+}
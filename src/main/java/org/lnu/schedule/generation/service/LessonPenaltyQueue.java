@@ -0,0 +1,173 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.LessonConflictGraph;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+/**
+ * Order in which an optimization pass visits lessons: an indexed binary max-heap of the lessons with a positive
+ * penalty, every lesson polled at most once per pass.
+ * <p>
+ * Penalties start from the evaluated timetable and follow the moves the pass makes: after a lesson moves, the penalty
+ * of its lecturer, academic groups and place is spread over their cells again, and the lesson and its neighbours in
+ * the {@link LessonConflictGraph} (all other lessons of that lecturer and those groups) get their new penalty, so the
+ * next poll returns the lesson that is the worst right now. Other lessons of the place keep their penalty until the
+ * next evaluation. The queue is bound to an occupancy index and reused by every pass over it.
+ */
+class LessonPenaltyQueue {
+    private static final int POLLED = -2;
+    private static final int ABSENT = -1;
+
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final TimetableOccupancyIndex occupancyIndex;
+    private final LessonConflictGraph lessonConflictGraph;
+
+    private final double[] penalties;
+    private final int[] heap;
+    private final int[] positions;
+    private int size;
+
+    LessonPenaltyQueue(TimetableEvaluationService timetableEvaluationService, TimetableOccupancyIndex occupancyIndex,
+                       LessonConflictGraph lessonConflictGraph) {
+        this.timetableEvaluationService = timetableEvaluationService;
+        this.occupancyIndex = occupancyIndex;
+        this.lessonConflictGraph = lessonConflictGraph;
+
+        int lessonsCount = occupancyIndex.getTimetableState().getLessonsCount();
+        this.penalties = new double[lessonsCount];
+        this.heap = new int[lessonsCount];
+        this.positions = new int[lessonsCount];
+    }
+
+    /**
+     * Starts a pass over the timetable, which must be an evaluation of the index of the queue.
+     */
+    void reset(EvaluatedTimetable timetable) {
+        double[] lessonPenalties = timetable.getLessonPenalties();
+        System.arraycopy(lessonPenalties, 0, penalties, 0, penalties.length);
+
+        size = 0;
+        for (int lessonIndex = 0; lessonIndex < penalties.length; ++lessonIndex) {
+            if (penalties[lessonIndex] > 0) {
+                positions[lessonIndex] = size;
+                heap[size++] = lessonIndex;
+            } else {
+                positions[lessonIndex] = ABSENT;
+            }
+        }
+
+        for (int i = size / 2 - 1; i >= 0; --i) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Removes and returns the lesson with the highest penalty, or returns {@code -1} if no lesson has a positive
+     * penalty anymore.
+     */
+    int poll() {
+        if (size == 0 || penalties[heap[0]] <= 0) {
+            return -1;
+        }
+
+        int lessonIndex = heap[0];
+        positions[lessonIndex] = POLLED;
+
+        --size;
+        if (size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+
+        return lessonIndex;
+    }
+
+    /**
+     * Updates the penalties after the lesson moved; {@code prevPlaceIndex} is its place before the move.
+     */
+    void lessonMoved(int lessonIndex, int prevPlaceIndex) {
+        timetableEvaluationService.refreshCellPenalties(occupancyIndex, lessonIndex, prevPlaceIndex);
+
+        update(lessonIndex);
+
+        int[] neighbours = lessonConflictGraph.getNeighbours();
+        int[] offsets = lessonConflictGraph.getOffsets();
+        for (int i = offsets[lessonIndex]; i < offsets[lessonIndex + 1]; ++i) {
+            update(neighbours[i]);
+        }
+    }
+
+    private void update(int lessonIndex) {
+        double penalty = timetableEvaluationService.getLessonPenalty(occupancyIndex, lessonIndex);
+        double prevPenalty = penalties[lessonIndex];
+        penalties[lessonIndex] = penalty;
+
+        int position = positions[lessonIndex];
+        if (position == POLLED) {
+            return;
+        }
+
+        if (position == ABSENT) {
+            if (penalty > 0) {
+                positions[lessonIndex] = size;
+                heap[size] = lessonIndex;
+                siftUp(size++);
+            }
+            return;
+        }
+
+        if (penalty > prevPenalty) {
+            siftUp(position);
+        } else if (penalty < prevPenalty) {
+            siftDown(position);
+        }
+    }
+
+    private void siftUp(int position) {
+        int lessonIndex = heap[position];
+        double penalty = penalties[lessonIndex];
+
+        while (position > 0) {
+            int parentPosition = (position - 1) / 2;
+            int parentLessonIndex = heap[parentPosition];
+            if (penalties[parentLessonIndex] >= penalty) {
+                break;
+            }
+
+            heap[position] = parentLessonIndex;
+            positions[parentLessonIndex] = position;
+            position = parentPosition;
+        }
+
+        heap[position] = lessonIndex;
+        positions[lessonIndex] = position;
+    }
+
+    private void siftDown(int position) {
+        int lessonIndex = heap[position];
+        double penalty = penalties[lessonIndex];
+
+        while (true) {
+            int childPosition = 2 * position + 1;
+            if (childPosition >= size) {
+                break;
+            }
+            if (childPosition + 1 < size && penalties[heap[childPosition + 1]] > penalties[heap[childPosition]]) {
+                ++childPosition;
+            }
+
+            int childLessonIndex = heap[childPosition];
+            if (penalties[childLessonIndex] <= penalty) {
+                break;
+            }
+
+            heap[position] = childLessonIndex;
+            positions[childLessonIndex] = position;
+            position = childPosition;
+        }
+
+        heap[position] = lessonIndex;
+        positions[lessonIndex] = position;
+    }
+}
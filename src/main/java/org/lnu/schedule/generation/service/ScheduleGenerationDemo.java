@@ -19,7 +19,7 @@ import java.util.Set;
 @Service
 @AllArgsConstructor
 public class ScheduleGenerationDemo {
-    private static final List<LessonTimeSlot> DEFAULT_TIME_SLOTS = List.of(
+    static final List<LessonTimeSlot> DEFAULT_TIME_SLOTS = List.of(
             new LessonTimeSlot(LocalTime.of(8, 30), LocalTime.of(9, 50)),
             new LessonTimeSlot(LocalTime.of(10, 10), LocalTime.of(11, 30)),
             new LessonTimeSlot(LocalTime.of(11, 50), LocalTime.of(13, 10)),
@@ -60,6 +60,7 @@ public class ScheduleGenerationDemo {
         );
 
         TimetableRequirements timetableRequirements = new TimetableRequirements(lessonRequirementsList, places, DEFAULT_TIME_SLOTS);
+        timetableRequirements.setAcademicGroupSizes(Arrays.asList(null, 18, 24));
         EvaluatedTimetable bestTimetable = timetableGenerationService.generateTimetable(timetableRequirements);
 //        timetableGenerationService.printTimetable(timetableRequirements, bestTimetable);
     }
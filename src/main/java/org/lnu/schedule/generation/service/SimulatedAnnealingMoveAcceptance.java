@@ -0,0 +1,50 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+import java.util.SplittableRandom;
+
+/**
+ * Moves a lesson to its best other candidate if that does not increase the penalty by {@code delta}, or otherwise with
+ * the probability {@code exp(-delta / temperature)}. The temperature starts at
+ * {@code acceptance.annealing.initial-temperature} and is multiplied by {@code acceptance.annealing.cooling-rate}
+ * every iteration.
+ */
+class SimulatedAnnealingMoveAcceptance implements TimetableMoveAcceptance {
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final SplittableRandom random;
+    private final double initialTemperature;
+    private final double coolingRate;
+
+    private double temperature;
+
+    SimulatedAnnealingMoveAcceptance(TimetableEvaluationService timetableEvaluationService, SplittableRandom random,
+                                     double initialTemperature, double coolingRate) {
+        this.timetableEvaluationService = timetableEvaluationService;
+        this.random = random;
+        this.initialTemperature = initialTemperature;
+        this.coolingRate = coolingRate;
+    }
+
+    @Override
+    public void startPass(int iteration, double penalty) {
+        temperature = initialTemperature * Math.pow(coolingRate, iteration);
+    }
+
+    @Override
+    public int selectMove(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int[] weekCells, double[] penalties,
+                          int bestCandidate) {
+        int candidate = TimetableMoveAcceptance.findBestOtherCandidate(weekCells, penalties, bestCandidate,
+                occupancyIndex.getLessonWeekCell(lessonIndex));
+        if (candidate < 0) {
+            return -1;
+        }
+
+        double delta = penalties[candidate] - timetableEvaluationService.calcLocalPenalty(occupancyIndex, lessonIndex);
+        if (delta <= 0 || temperature > 0 && random.nextDouble() < Math.exp(-delta / temperature)) {
+            return candidate;
+        }
+
+        return -1;
+    }
+}
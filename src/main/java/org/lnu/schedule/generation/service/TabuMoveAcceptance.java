@@ -0,0 +1,76 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+import java.util.Arrays;
+
+/**
+ * Moves a lesson to its best other candidate, even if that is worse. The cell a lesson leaves is tabu for it for
+ * {@code acceptance.tabu.tenure} iterations, unless returning there lowers the penalty.
+ */
+class TabuMoveAcceptance implements TimetableMoveAcceptance {
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final int tenure;
+
+    private final int[] tabuWeekCells;
+    private final int[] tabuUntilIterations;
+
+    private int iteration;
+    private double previousPassPenalty = Double.MAX_VALUE;
+    private boolean worseMovesAllowed;
+
+    TabuMoveAcceptance(TimetableEvaluationService timetableEvaluationService, int lessonsCount, int tenure) {
+        this.timetableEvaluationService = timetableEvaluationService;
+        this.tenure = tenure;
+
+        this.tabuWeekCells = new int[lessonsCount];
+        this.tabuUntilIterations = new int[lessonsCount];
+        Arrays.fill(tabuWeekCells, -1);
+    }
+
+    @Override
+    public void startPass(int iteration, double penalty) {
+        this.iteration = iteration;
+
+        worseMovesAllowed = penalty >= previousPassPenalty;
+        previousPassPenalty = penalty;
+    }
+
+    @Override
+    public int selectMove(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int[] weekCells, double[] penalties,
+                          int bestCandidate) {
+        int currentWeekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+        if (penalties[bestCandidate] == 0 && weekCells[bestCandidate] == currentWeekCell) {
+            return -1;
+        }
+
+        boolean tabuActive = iteration < tabuUntilIterations[lessonIndex];
+        double currentPenalty = timetableEvaluationService.calcLocalPenalty(occupancyIndex, lessonIndex);
+
+        int candidate = -1;
+        for (int i = 0; i < weekCells.length; ++i) {
+            if (weekCells[i] == currentWeekCell || penalties[i] == Double.MAX_VALUE) {
+                continue;
+            }
+
+            if (tabuActive && weekCells[i] == tabuWeekCells[lessonIndex] && penalties[i] >= currentPenalty) {
+                continue;
+            }
+
+            if (candidate < 0 || penalties[i] < penalties[candidate]) {
+                candidate = i;
+            }
+        }
+
+        if (candidate >= 0 && !worseMovesAllowed && penalties[candidate] > currentPenalty) {
+            candidate = -1;
+        }
+
+        if (candidate >= 0) {
+            tabuWeekCells[lessonIndex] = currentWeekCell;
+            tabuUntilIterations[lessonIndex] = iteration + tenure;
+        }
+
+        return candidate;
+    }
+}
@@ -0,0 +1,130 @@
+package org.lnu.schedule.generation.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.lnu.schedule.generation.model.TimetableState;
+import org.lnu.schedule.generation.util.TimetableSnapshotCodec;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes checkpoints of a generation off the solver threads. The solver only copies the state into one of two
+ * buffers: the one the writer thread is not busy with. When the writer finishes a checkpoint it picks up the newest
+ * state filled meanwhile, if any, so offers never wait for a write and only the latest of them is saved. Only states
+ * better than the last offered one are taken.
+ */
+@Slf4j
+class TimetableCheckpointWriter implements AutoCloseable {
+    private static final int NO_BUFFER = -1;
+
+    private final TimetableSnapshotCodec timetableSnapshotCodec;
+    private final Path path;
+    private final long requirementsHash;
+
+    private final ExecutorService executorService;
+    private final TimetableState[] buffers = new TimetableState[2];
+    private int writingIndex = NO_BUFFER;
+    private int pendingIndex = NO_BUFFER;
+    private double pendingPenalty;
+
+    private double offeredPenalty = Double.MAX_VALUE;
+
+    TimetableCheckpointWriter(TimetableSnapshotCodec timetableSnapshotCodec, Path path, long requirementsHash) {
+        this.timetableSnapshotCodec = timetableSnapshotCodec;
+        this.path = path;
+        this.requirementsHash = requirementsHash;
+
+        this.executorService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "timetable-checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    synchronized void offer(TimetableState timetableState, double penalty) {
+        if (penalty >= offeredPenalty) {
+            return;
+        }
+
+        int fillIndex = writingIndex == 0 ? 1 : 0;
+        TimetableState buffer = buffers[fillIndex];
+        if (buffer == null || buffer.getLessonsCount() != timetableState.getLessonsCount()) {
+            buffer = buffers[fillIndex] = new TimetableState(timetableState.getLessonsCount());
+        }
+        buffer.copyFrom(timetableState);
+        offeredPenalty = penalty;
+
+        boolean writerIdle = writingIndex == NO_BUFFER && pendingIndex == NO_BUFFER;
+        pendingIndex = fillIndex;
+        pendingPenalty = penalty;
+
+        if (writerIdle) {
+            executorService.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Waits for the pending checkpoints and saves the final state if it is better than the last offered one. If the
+     * pending checkpoints are not written within a minute, the final state is not saved either, since the older
+     * checkpoint could still replace it.
+     */
+    void close(TimetableState timetableState, double penalty) {
+        if (!awaitPending()) {
+            log.warn("Timetable checkpoint {} is still being written, the final state is not saved", path);
+            return;
+        }
+
+        if (penalty < offeredPenalty) {
+            offeredPenalty = penalty;
+            write(timetableState, penalty);
+        }
+    }
+
+    @Override
+    public void close() {
+        awaitPending();
+    }
+
+    private boolean awaitPending() {
+        executorService.shutdown();
+        try {
+            return executorService.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the pending buffer, then the one filled while it was written, until no buffer is pending.
+     */
+    private void writePending() {
+        while (true) {
+            int bufferIndex;
+            double penalty;
+            synchronized (this) {
+                if (pendingIndex == NO_BUFFER) {
+                    writingIndex = NO_BUFFER;
+                    return;
+                }
+
+                bufferIndex = writingIndex = pendingIndex;
+                penalty = pendingPenalty;
+                pendingIndex = NO_BUFFER;
+            }
+
+            write(buffers[bufferIndex], penalty);
+        }
+    }
+
+    private void write(TimetableState timetableState, double penalty) {
+        try {
+            timetableSnapshotCodec.write(path, requirementsHash, penalty, timetableState);
+        } catch (IOException e) {
+            log.warn("Could not write the timetable checkpoint {}", path, e);
+        }
+    }
+}
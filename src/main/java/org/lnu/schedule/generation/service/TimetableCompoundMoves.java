@@ -0,0 +1,314 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.metrics.OptimizationPassStats;
+import org.lnu.schedule.generation.model.LessonConflictGraph;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+import org.lnu.schedule.generation.model.TimetableState;
+
+/**
+ * Moves that change two or more lessons at once, for timetables where no single lesson can go to a better day, time
+ * slot or place anymore:
+ * <ul>
+ *     <li>time swap: the lesson and one of its neighbours in the {@link LessonConflictGraph} exchange their days and
+ *     time slots, if both places are candidate places at the time slots their lessons go to;</li>
+ *     <li>place swap: the lesson and another lesson exchange their places, if both are candidate places of the
+ *     lessons they go to;</li>
+ *     <li>Kempe chain: the lesson moves to another day and time slot, its neighbours there move to its day and time
+ *     slot, their neighbours back and so on, i.e. the lessons of a connected part of the conflict graph swap the two
+ *     times, if every place stays a candidate place at the time slot its lesson goes to.</li>
+ * </ul>
+ * Candidates are applied to the occupancy index, scored by the penalty change of the lecturers, academic groups and
+ * places of the moved lessons and reverted; the best one is made if it lowers the penalty. Swap candidates are taken
+ * from a window that shifts with every iteration, so all of them are tried over consecutive iterations. The lessons a
+ * made move changes are reported to the {@link LessonPenaltyQueue} of the pass. One instance serves every pass over
+ * an occupancy index.
+ */
+class TimetableCompoundMoves {
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final TimetableOccupancyIndex occupancyIndex;
+    private final LessonConflictGraph lessonConflictGraph;
+    private final LessonPenaltyQueue lessonPenaltyQueue;
+
+    private final int swapCandidatesCount;
+    private final int kempeChainMaxLength;
+
+    private final TimetableState timetableState;
+    private final int[] movedLessons;
+    private final int[] bestChain;
+    private final int[] chainStamps;
+    private int chainStamp;
+
+    private TimetableRepairScope repairScope;
+    private OptimizationPassStats passStats;
+
+    TimetableCompoundMoves(TimetableEvaluationService timetableEvaluationService,
+                           TimetableOccupancyIndex occupancyIndex, LessonConflictGraph lessonConflictGraph,
+                           LessonPenaltyQueue lessonPenaltyQueue, int swapCandidatesCount, int kempeChainMaxLength) {
+        this.timetableEvaluationService = timetableEvaluationService;
+        this.occupancyIndex = occupancyIndex;
+        this.lessonConflictGraph = lessonConflictGraph;
+        this.lessonPenaltyQueue = lessonPenaltyQueue;
+
+        this.swapCandidatesCount = Math.max(1, swapCandidatesCount);
+        this.kempeChainMaxLength = Math.max(2, kempeChainMaxLength);
+
+        this.timetableState = occupancyIndex.getTimetableState();
+        this.movedLessons = new int[this.kempeChainMaxLength + 1];
+        this.bestChain = new int[this.kempeChainMaxLength];
+        this.chainStamps = new int[timetableState.getLessonsCount()];
+    }
+
+    /**
+     * Starts a pass: only lessons of the repair scope (if any) move, and the pass counters go to {@code passStats}.
+     */
+    void startPass(TimetableRepairScope repairScope, OptimizationPassStats passStats) {
+        this.repairScope = repairScope;
+        this.passStats = passStats;
+    }
+
+    void swapTime(int lessonIndex, int iteration) {
+        int degree = lessonConflictGraph.getDegree(lessonIndex);
+        if (degree == 0) {
+            return;
+        }
+
+        int[] neighbours = lessonConflictGraph.getNeighbours();
+        int offset = lessonConflictGraph.getOffsets()[lessonIndex];
+        int candidatesCount = Math.min(degree, swapCandidatesCount);
+        int firstCandidate = (int) ((long) iteration * candidatesCount % degree);
+
+        int bestNeighbourLesson = -1;
+        double bestPenaltyChange = 0;
+        for (int i = 0; i < candidatesCount; ++i) {
+            int neighbourLesson = neighbours[offset + (firstCandidate + i) % degree];
+            if (!isMovable(neighbourLesson) || isSameTime(lessonIndex, neighbourLesson)) {
+                continue;
+            }
+
+            movedLessons[0] = lessonIndex;
+            movedLessons[1] = neighbourLesson;
+            double penalty = timetableEvaluationService.calcLessonsPenalty(occupancyIndex, movedLessons, 2);
+
+            swapTimes(lessonIndex, neighbourLesson);
+            boolean candidatePlaces = areCandidatePlaces(2);
+            double penaltyChange = timetableEvaluationService.calcLessonsPenalty(occupancyIndex, movedLessons, 2)
+                    - penalty;
+            swapTimes(lessonIndex, neighbourLesson);
+            passStats.addCandidateEvaluations(1);
+
+            if (candidatePlaces && penaltyChange < bestPenaltyChange) {
+                bestNeighbourLesson = neighbourLesson;
+                bestPenaltyChange = penaltyChange;
+            }
+        }
+
+        if (bestNeighbourLesson >= 0) {
+            swapTimes(lessonIndex, bestNeighbourLesson);
+            passStats.addAcceptedMove();
+
+            lessonPenaltyQueue.lessonMoved(lessonIndex, occupancyIndex.getLessonPlaceIndex(lessonIndex));
+            lessonPenaltyQueue.lessonMoved(bestNeighbourLesson,
+                    occupancyIndex.getLessonPlaceIndex(bestNeighbourLesson));
+        }
+    }
+
+    void swapPlace(int lessonIndex, int iteration) {
+        int placeIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        if (timetableEvaluationService.calcPlacePenalty(occupancyIndex, placeIndex) == 0) {
+            return;
+        }
+
+        int lessonsCount = timetableState.getLessonsCount();
+        int candidatesCount = Math.min(lessonsCount - 1, swapCandidatesCount);
+        int firstCandidate = (int) ((lessonIndex + 1 + (long) iteration * candidatesCount) % lessonsCount);
+
+        int bestOtherLesson = -1;
+        double bestPenaltyChange = 0;
+        for (int i = 0; i < candidatesCount; ++i) {
+            int otherLesson = (firstCandidate + i) % lessonsCount;
+            int otherPlaceIndex = occupancyIndex.getLessonPlaceIndex(otherLesson);
+            if (otherLesson == lessonIndex || otherPlaceIndex == placeIndex || !isMovable(otherLesson)
+                    || !occupancyIndex.isCandidatePlace(lessonIndex, otherPlaceIndex)
+                    || !occupancyIndex.isCandidatePlace(otherLesson, placeIndex)) {
+                continue;
+            }
+
+            movedLessons[0] = lessonIndex;
+            movedLessons[1] = otherLesson;
+            double penalty = timetableEvaluationService.calcLessonsPenalty(occupancyIndex, movedLessons, 2);
+
+            swapPlaces(lessonIndex, otherLesson);
+            double penaltyChange = timetableEvaluationService.calcLessonsPenalty(occupancyIndex, movedLessons, 2)
+                    - penalty;
+            swapPlaces(lessonIndex, otherLesson);
+            passStats.addCandidateEvaluations(1);
+
+            if (penaltyChange < bestPenaltyChange) {
+                bestOtherLesson = otherLesson;
+                bestPenaltyChange = penaltyChange;
+            }
+        }
+
+        if (bestOtherLesson >= 0) {
+            swapPlaces(lessonIndex, bestOtherLesson);
+            passStats.addAcceptedMove();
+
+            lessonPenaltyQueue.lessonMoved(lessonIndex, placeIndex);
+            lessonPenaltyQueue.lessonMoved(bestOtherLesson, occupancyIndex.getLessonPlaceIndex(lessonIndex));
+        }
+    }
+
+    /**
+     * Tries the chain towards every other day and time slot. Chains of a single lesson are plain relocations and are
+     * skipped, as are chains longer than {@code moves.kempe-chain-max-length} or containing a lesson that may not move.
+     */
+    void moveKempeChain(int lessonIndex) {
+        int day = timetableState.getDayOrdinals()[lessonIndex];
+        int timeSlot = timetableState.getTimeSlotOrdinals()[lessonIndex];
+
+        int bestChainLength = 0;
+        int bestDay = -1;
+        int bestTimeSlot = -1;
+        double bestPenaltyChange = 0;
+        for (int targetDay = 0; targetDay < occupancyIndex.getDaysCount(); ++targetDay) {
+            for (int targetTimeSlot : occupancyIndex.getTimeSlotGrid().getTimeSlotOrdinals()) {
+                if (targetDay == day && targetTimeSlot == timeSlot) {
+                    continue;
+                }
+
+                int chainLength = collectKempeChain(lessonIndex, day, timeSlot, targetDay, targetTimeSlot);
+                if (chainLength < 2) {
+                    continue;
+                }
+
+                double penalty = timetableEvaluationService.calcLessonsPenalty(occupancyIndex, movedLessons,
+                        chainLength);
+
+                swapChainTimes(chainLength, day, timeSlot, targetDay, targetTimeSlot);
+                boolean candidatePlaces = areCandidatePlaces(chainLength);
+                double penaltyChange = timetableEvaluationService.calcLessonsPenalty(occupancyIndex, movedLessons,
+                        chainLength) - penalty;
+                swapChainTimes(chainLength, day, timeSlot, targetDay, targetTimeSlot);
+                passStats.addCandidateEvaluations(1);
+
+                if (candidatePlaces && penaltyChange < bestPenaltyChange) {
+                    System.arraycopy(movedLessons, 0, bestChain, 0, chainLength);
+                    bestChainLength = chainLength;
+                    bestDay = targetDay;
+                    bestTimeSlot = targetTimeSlot;
+                    bestPenaltyChange = penaltyChange;
+                }
+            }
+        }
+
+        if (bestChainLength > 0) {
+            System.arraycopy(bestChain, 0, movedLessons, 0, bestChainLength);
+            swapChainTimes(bestChainLength, day, timeSlot, bestDay, bestTimeSlot);
+            passStats.addAcceptedMove();
+
+            for (int i = 0; i < bestChainLength; ++i) {
+                lessonPenaltyQueue.lessonMoved(bestChain[i], occupancyIndex.getLessonPlaceIndex(bestChain[i]));
+            }
+        }
+    }
+
+    /**
+     * Collects the chain into {@link #movedLessons} breadth first and returns its length, or {@code 0} if it can not be
+     * moved.
+     */
+    private int collectKempeChain(int lessonIndex, int day, int timeSlot, int targetDay, int targetTimeSlot) {
+        int[] offsets = lessonConflictGraph.getOffsets();
+        int[] neighbours = lessonConflictGraph.getNeighbours();
+        int[] dayOrdinals = timetableState.getDayOrdinals();
+        int[] timeSlotOrdinals = timetableState.getTimeSlotOrdinals();
+
+        ++chainStamp;
+        chainStamps[lessonIndex] = chainStamp;
+        movedLessons[0] = lessonIndex;
+
+        int chainLength = 1;
+        for (int i = 0; i < chainLength; ++i) {
+            int chainLesson = movedLessons[i];
+
+            for (int j = offsets[chainLesson]; j < offsets[chainLesson + 1]; ++j) {
+                int neighbourLesson = neighbours[j];
+                if (chainStamps[neighbourLesson] == chainStamp) {
+                    continue;
+                }
+
+                int neighbourDay = dayOrdinals[neighbourLesson];
+                int neighbourTimeSlot = timeSlotOrdinals[neighbourLesson];
+                if ((neighbourDay != day || neighbourTimeSlot != timeSlot)
+                        && (neighbourDay != targetDay || neighbourTimeSlot != targetTimeSlot)) {
+                    continue;
+                }
+
+                if (chainLength == kempeChainMaxLength || !isMovable(neighbourLesson)) {
+                    return 0;
+                }
+
+                chainStamps[neighbourLesson] = chainStamp;
+                movedLessons[chainLength++] = neighbourLesson;
+            }
+        }
+
+        return chainLength;
+    }
+
+    /**
+     * Moves the lessons of the chain at the first day and time slot to the second one and the other way round, which
+     * is its own inverse.
+     */
+    private void swapChainTimes(int chainLength, int day, int timeSlot, int targetDay, int targetTimeSlot) {
+        for (int i = 0; i < chainLength; ++i) {
+            int chainLesson = movedLessons[i];
+            boolean atFirstTime = timetableState.getDayOrdinals()[chainLesson] == day
+                    && timetableState.getTimeSlotOrdinals()[chainLesson] == timeSlot;
+
+            timetableEvaluationService.moveLesson(occupancyIndex, chainLesson, occupancyIndex.getWeekCell(
+                    atFirstTime ? targetDay : day, atFirstTime ? targetTimeSlot : timeSlot,
+                    timetableState.getPeriodicityOrdinals()[chainLesson]));
+        }
+    }
+
+    private void swapTimes(int lessonIndex1, int lessonIndex2) {
+        int day1 = timetableState.getDayOrdinals()[lessonIndex1];
+        int timeSlot1 = timetableState.getTimeSlotOrdinals()[lessonIndex1];
+
+        timetableEvaluationService.moveLesson(occupancyIndex, lessonIndex1, occupancyIndex.getWeekCell(
+                timetableState.getDayOrdinals()[lessonIndex2], timetableState.getTimeSlotOrdinals()[lessonIndex2],
+                timetableState.getPeriodicityOrdinals()[lessonIndex1]));
+        timetableEvaluationService.moveLesson(occupancyIndex, lessonIndex2, occupancyIndex.getWeekCell(day1, timeSlot1,
+                timetableState.getPeriodicityOrdinals()[lessonIndex2]));
+    }
+
+    private void swapPlaces(int lessonIndex1, int lessonIndex2) {
+        int placeIndex1 = occupancyIndex.getLessonPlaceIndex(lessonIndex1);
+
+        timetableEvaluationService.changePlace(occupancyIndex, lessonIndex1,
+                occupancyIndex.getLessonPlaceIndex(lessonIndex2));
+        timetableEvaluationService.changePlace(occupancyIndex, lessonIndex2, placeIndex1);
+    }
+
+    /**
+     * Whether the first {@code lessonsCount} moved lessons may all use their places at their current time slots.
+     */
+    private boolean areCandidatePlaces(int lessonsCount) {
+        for (int i = 0; i < lessonsCount; ++i) {
+            if (!occupancyIndex.isCandidatePlace(movedLessons[i], occupancyIndex.getLessonPlaceIndex(movedLessons[i]))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isSameTime(int lessonIndex1, int lessonIndex2) {
+        return timetableState.getDayOrdinals()[lessonIndex1] == timetableState.getDayOrdinals()[lessonIndex2]
+                && timetableState.getTimeSlotOrdinals()[lessonIndex1] == timetableState.getTimeSlotOrdinals()[lessonIndex2];
+    }
+
+    private boolean isMovable(int lessonIndex) {
+        return repairScope == null || repairScope.isMovable(lessonIndex);
+    }
+}
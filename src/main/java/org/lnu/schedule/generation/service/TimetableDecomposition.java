@@ -0,0 +1,211 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.LessonRequirements;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits lesson requirements into components that share no lecturer and no academic group. Lessons of different
+ * components can only conflict through places, so every component can be solved on its own and the timetables merged.
+ */
+class TimetableDecomposition {
+    private final TimetableRequirements timetableRequirements;
+    private final int lecturersCount;
+    private final int academicGroupsCount;
+    private final List<int[]> components;
+
+    private TimetableDecomposition(TimetableRequirements timetableRequirements, int lecturersCount,
+                                   int academicGroupsCount, List<int[]> components) {
+        this.timetableRequirements = timetableRequirements;
+        this.lecturersCount = lecturersCount;
+        this.academicGroupsCount = academicGroupsCount;
+        this.components = components;
+    }
+
+    /**
+     * Finds the components with union-find over lecturers and academic groups, every lesson requirements joining its
+     * lecturer with its groups. Components keep the order of their first requirements, and requirements keep their
+     * order within a component.
+     */
+    static TimetableDecomposition of(TimetableRequirements timetableRequirements) {
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+
+        int lecturersCount = 0;
+        int academicGroupsCount = 0;
+        for (LessonRequirements lessonRequirements : lessonRequirementsList) {
+            lecturersCount = Math.max(lecturersCount, lessonRequirements.getLecturerIndex() + 1);
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                academicGroupsCount = Math.max(academicGroupsCount, academicGroupIndex + 1);
+            }
+        }
+
+        int[] parents = new int[lecturersCount + academicGroupsCount];
+        for (int i = 0; i < parents.length; ++i) {
+            parents[i] = i;
+        }
+
+        for (LessonRequirements lessonRequirements : lessonRequirementsList) {
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                union(parents, lessonRequirements.getLecturerIndex(), lecturersCount + academicGroupIndex);
+            }
+        }
+
+        int[] rootComponents = new int[parents.length];
+        Arrays.fill(rootComponents, -1);
+        int[] requirementsComponents = new int[lessonRequirementsList.size()];
+        int[] componentSizes = new int[lessonRequirementsList.size()];
+        int componentsCount = 0;
+        for (int r = 0; r < requirementsComponents.length; ++r) {
+            int root = find(parents, lessonRequirementsList.get(r).getLecturerIndex());
+            if (rootComponents[root] < 0) {
+                rootComponents[root] = componentsCount++;
+            }
+
+            requirementsComponents[r] = rootComponents[root];
+            ++componentSizes[rootComponents[root]];
+        }
+
+        List<int[]> components = new ArrayList<>(componentsCount);
+        for (int c = 0; c < componentsCount; ++c) {
+            components.add(new int[componentSizes[c]]);
+            componentSizes[c] = 0;
+        }
+        for (int r = 0; r < requirementsComponents.length; ++r) {
+            int c = requirementsComponents[r];
+            components.get(c)[componentSizes[c]++] = r;
+        }
+
+        return new TimetableDecomposition(timetableRequirements, lecturersCount, academicGroupsCount, components);
+    }
+
+    int getComponentsCount() {
+        return components.size();
+    }
+
+    /**
+     * Lessons count of the component, the way {@link TimetableState} counts them.
+     */
+    int getLessonsCount(int componentIndex) {
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+
+        int lessonsCount = 0;
+        for (int requirementsIndex : components.get(componentIndex)) {
+            lessonsCount += (int) Math.ceil(lessonRequirementsList.get(requirementsIndex).getLessonsCountPerWeek());
+        }
+
+        return lessonsCount;
+    }
+
+    /**
+     * Requirements of the component alone, with all places and time slots. Lecturers and academic groups (with their
+     * sizes) are renumbered densely, so that the occupancy index and the evaluation of the component only cover its
+     * own ones.
+     */
+    TimetableRequirements getComponentRequirements(int componentIndex) {
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+        int[] component = components.get(componentIndex);
+
+        int[] lecturerIndexes = new int[lecturersCount];
+        int[] academicGroupIndexes = new int[academicGroupsCount];
+        Arrays.fill(lecturerIndexes, -1);
+        Arrays.fill(academicGroupIndexes, -1);
+        int componentLecturersCount = 0;
+        int componentAcademicGroupsCount = 0;
+
+        List<LessonRequirements> componentRequirementsList = new ArrayList<>(component.length);
+        for (int requirementsIndex : component) {
+            LessonRequirements lessonRequirements = lessonRequirementsList.get(requirementsIndex);
+
+            int lecturerIndex = lessonRequirements.getLecturerIndex();
+            if (lecturerIndexes[lecturerIndex] < 0) {
+                lecturerIndexes[lecturerIndex] = componentLecturersCount++;
+            }
+
+            Set<Integer> componentAcademicGroupIndexes = new HashSet<>();
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                if (academicGroupIndexes[academicGroupIndex] < 0) {
+                    academicGroupIndexes[academicGroupIndex] = componentAcademicGroupsCount++;
+                }
+                componentAcademicGroupIndexes.add(academicGroupIndexes[academicGroupIndex]);
+            }
+
+            componentRequirementsList.add(new LessonRequirements(lecturerIndexes[lecturerIndex],
+                    componentAcademicGroupIndexes, lessonRequirements.getLessonsCountPerWeek()));
+        }
+
+        TimetableRequirements componentRequirements = new TimetableRequirements(componentRequirementsList,
+                timetableRequirements.getLessonPlaces(), timetableRequirements.getTimeSlots());
+
+        List<Integer> academicGroupSizes = timetableRequirements.getAcademicGroupSizes();
+        if (academicGroupSizes != null) {
+            Integer[] componentAcademicGroupSizes = new Integer[componentAcademicGroupsCount];
+            for (int academicGroupIndex = 0; academicGroupIndex < academicGroupsCount; ++academicGroupIndex) {
+                if (academicGroupIndexes[academicGroupIndex] >= 0 && academicGroupIndex < academicGroupSizes.size()) {
+                    componentAcademicGroupSizes[academicGroupIndexes[academicGroupIndex]] =
+                            academicGroupSizes.get(academicGroupIndex);
+                }
+            }
+            componentRequirements.setAcademicGroupSizes(Arrays.asList(componentAcademicGroupSizes));
+        }
+
+        return componentRequirements;
+    }
+
+    /**
+     * Puts the lessons of the component timetables back in the order of the whole requirements. Places are copied as
+     * they are, so lessons of different components may share a place at the same time.
+     */
+    TimetableState merge(List<TimetableState> componentStates) {
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+
+        int[] requirementsOffsets = new int[lessonRequirementsList.size() + 1];
+        for (int r = 0; r < lessonRequirementsList.size(); ++r) {
+            requirementsOffsets[r + 1] = requirementsOffsets[r]
+                    + (int) Math.ceil(lessonRequirementsList.get(r).getLessonsCountPerWeek());
+        }
+
+        TimetableState timetableState = new TimetableState(requirementsOffsets[lessonRequirementsList.size()]);
+        for (int c = 0; c < components.size(); ++c) {
+            int[] component = components.get(c);
+            TimetableState componentState = componentStates.get(c);
+
+            for (int componentLessonIndex = 0; componentLessonIndex < componentState.getLessonsCount();
+                 ++componentLessonIndex) {
+                int componentRequirementsIndex = componentState.getRequirementsIndexes()[componentLessonIndex];
+                int requirementsIndex = component[componentRequirementsIndex];
+                int lessonIndex = requirementsOffsets[requirementsIndex]++;
+
+                timetableState.setLesson(lessonIndex, requirementsIndex,
+                        componentState.getDayOrdinals()[componentLessonIndex],
+                        componentState.getTimeSlotOrdinals()[componentLessonIndex],
+                        componentState.getPlaceIndexes()[componentLessonIndex],
+                        componentState.getPeriodicityOrdinals()[componentLessonIndex]);
+            }
+        }
+
+        return timetableState;
+    }
+
+    private static int find(int[] parents, int node) {
+        while (parents[node] != node) {
+            parents[node] = parents[parents[node]];
+            node = parents[node];
+        }
+
+        return node;
+    }
+
+    private static void union(int[] parents, int node1, int node2) {
+        int root1 = find(parents, node1);
+        int root2 = find(parents, node2);
+        if (root1 != root2) {
+            parents[Math.max(root1, root2)] = Math.min(root1, root2);
+        }
+    }
+}
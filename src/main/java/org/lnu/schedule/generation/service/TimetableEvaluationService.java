@@ -0,0 +1,1151 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.Day;
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.LessonPeriodicity;
+import org.lnu.schedule.generation.model.LessonPlaceCandidates;
+import org.lnu.schedule.generation.model.LessonRequirements;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableState;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.PERIODICITIES_COUNT;
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.UNKNOWN_BUILDING;
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.getCellBuilding;
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.getHalfConflictsCount;
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.getTimeWindowsCount;
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.isTravel;
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.packDayStats;
+
+@Service
+public class TimetableEvaluationService {
+    private static final int DAYS_COUNT = Day.values().length;
+
+    /**
+     * Conflict weight (in halves) of two clashing lessons indexed by their {@link LessonPeriodicity} ordinals:
+     * two weekly lessons clash every week, a weekly and a biweekly one or two lessons of the same biweekly
+     * periodicity clash every other week, numerator and denominator lessons never meet.
+     */
+    private static final int[][] CONFLICT_HALVES = {
+            {2, 1, 1},
+            {1, 1, 0},
+            {1, 0, 1}
+    };
+
+    private static final int MIN_ENTITIES_SHARD_SIZE = 16;
+    private static final int MIN_LESSONS_SHARD_SIZE = 1024;
+    private static final int MIN_CANDIDATES_SHARD_SIZE = 8;
+
+    private final int evaluationParallelism;
+    private final ForkJoinPool evaluationPool;
+
+    private final PenaltyWeights lecturerPenaltyWeights;
+    private final PenaltyWeights academicGroupPenaltyWeights;
+    private final PenaltyWeights placePenaltyWeights;
+
+    public TimetableEvaluationService(
+            @Value("${evaluation.parallelism}") int evaluationParallelism,
+
+            @Value("${penalty.lecturer.conflict_time_slot}") double lecturerConflictTimeSlotPenalty,
+            @Value("${penalty.lecturer.conflict_time_slot.power}") double lecturerConflictTimeSlotPenaltyPower,
+            @Value("${penalty.lecturer.time_window}") double lecturerTimeWindowPenalty,
+            @Value("${penalty.lecturer.time_window.power}") double lecturerTimeWindowPenaltyPower,
+            @Value("${penalty.lecturer.time_window.power.day}") double lecturerTimeWindowPenaltyDayPower,
+
+            @Value("${penalty.academic_group.conflict_time_slot}") double academicGroupConflictTimeSlotPenalty,
+            @Value("${penalty.academic_group.conflict_time_slot.power}") double academicGroupConflictTimeSlotPenaltyPower,
+            @Value("${penalty.academic_group.time_window}") double academicGroupTimeWindowPenalty,
+            @Value("${penalty.academic_group.time_window.power}") double academicGroupTimeWindowPenaltyPower,
+            @Value("${penalty.academic_group.time_window.power.day}") double academicGroupTimeWindowPenaltyDayPower,
+
+            @Value("${penalty.place.conflict_time_slot}") double placeConflictTimeSlotPenalty,
+            @Value("${penalty.place.conflict_time_slot.power}") double placeConflictTimeSlotPenaltyPower
+    ) {
+        this.evaluationParallelism = Math.max(1, evaluationParallelism);
+        this.evaluationPool = evaluationParallelism > 1 ? new ForkJoinPool(evaluationParallelism) : null;
+
+        this.lecturerPenaltyWeights = new PenaltyWeights(lecturerConflictTimeSlotPenalty, lecturerConflictTimeSlotPenaltyPower,
+                lecturerTimeWindowPenalty, lecturerTimeWindowPenaltyPower, lecturerTimeWindowPenaltyDayPower, true);
+
+        this.academicGroupPenaltyWeights = new PenaltyWeights(academicGroupConflictTimeSlotPenalty,
+                academicGroupConflictTimeSlotPenaltyPower, academicGroupTimeWindowPenalty, academicGroupTimeWindowPenaltyPower,
+                academicGroupTimeWindowPenaltyDayPower, true);
+
+        this.placePenaltyWeights = new PenaltyWeights(placeConflictTimeSlotPenalty, placeConflictTimeSlotPenaltyPower,
+                0, 0, 0, false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (evaluationPool != null) {
+            evaluationPool.shutdown();
+        }
+    }
+
+    public EvaluatedTimetable evaluateTimetable(TimetableRequirements timetableRequirements, LessonTimeSlotGrid timeSlotGrid,
+                                                TimetableState timetableState) {
+        TimetableOccupancyIndex occupancyIndex = createOccupancyIndex(timetableRequirements, timeSlotGrid, timetableState);
+
+        return evaluateTimetable(occupancyIndex);
+    }
+
+    public TimetableOccupancyIndex createOccupancyIndex(TimetableRequirements timetableRequirements,
+                                                        LessonTimeSlotGrid timeSlotGrid, TimetableState timetableState) {
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+        int[][] academicGroupIndexesList = getAcademicGroupIndexesList(lessonRequirementsList);
+
+        TimetableOccupancyIndex occupancyIndex = createEmptyOccupancyIndex(timetableRequirements, timeSlotGrid,
+                timetableState);
+
+        int[] requirementsIndexes = timetableState.getRequirementsIndexes();
+        for (int i = 0; i < requirementsIndexes.length; ++i) {
+            int requirementsIndex = requirementsIndexes[i];
+
+            occupancyIndex.addLesson(i, lessonRequirementsList.get(requirementsIndex).getLecturerIndex(),
+                    academicGroupIndexesList[requirementsIndex]);
+        }
+
+        return occupancyIndex;
+    }
+
+    /**
+     * Occupancy index sized for the requirements that does not contain any lesson yet, see
+     * {@link #insertLesson(TimetableOccupancyIndex, int, int, int[])}.
+     */
+    public TimetableOccupancyIndex createEmptyOccupancyIndex(TimetableRequirements timetableRequirements,
+                                                             LessonTimeSlotGrid timeSlotGrid,
+                                                             TimetableState timetableState) {
+        int lecturersCount = 0;
+        int academicGroupsCount = 0;
+        for (LessonRequirements lessonRequirements : timetableRequirements.getLessonRequirementsList()) {
+            lecturersCount = Math.max(lecturersCount, lessonRequirements.getLecturerIndex() + 1);
+            for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+                academicGroupsCount = Math.max(academicGroupsCount, academicGroupIndex + 1);
+            }
+        }
+
+        return new TimetableOccupancyIndex(DAYS_COUNT, timeSlotGrid, lecturersCount, academicGroupsCount,
+                timetableRequirements.getLessonPlaces().size(), timetableRequirements.getLessonPlaceCandidates(timeSlotGrid),
+                timetableState);
+    }
+
+    /**
+     * Sorted academic group indexes of every lesson requirements, as the occupancy index keeps them.
+     */
+    public int[][] getAcademicGroupIndexesList(List<LessonRequirements> lessonRequirementsList) {
+        int[][] academicGroupIndexesList = new int[lessonRequirementsList.size()][];
+        for (int i = 0; i < lessonRequirementsList.size(); ++i) {
+            academicGroupIndexesList[i] = lessonRequirementsList.get(i).getAcademicGroupIndexes().stream()
+                    .mapToInt(Integer::intValue)
+                    .sorted()
+                    .toArray();
+        }
+
+        return academicGroupIndexesList;
+    }
+
+    /**
+     * Evaluates the whole timetable from the occupancy counters and refreshes the per-day statistics of the index.
+     * The result is one of the two evaluated timetables of the index: its penalties stay valid until the index is
+     * evaluated twice more, its state only until the next move (see
+     * {@link TimetableOccupancyIndex#nextEvaluatedTimetable()}).
+     */
+    public EvaluatedTimetable evaluateTimetable(TimetableOccupancyIndex occupancyIndex) {
+        double penalty = 0;
+        penalty = evaluateEntities(penalty, occupancyIndex, occupancyIndex.getLecturerOccupancy(),
+                occupancyIndex.getLecturerCellBuildings(), occupancyIndex.getLecturerDayStats(), lecturerPenaltyWeights,
+                occupancyIndex.getLecturerCellPenalties());
+        penalty = evaluateEntities(penalty, occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                academicGroupPenaltyWeights, occupancyIndex.getAcademicGroupCellPenalties());
+        penalty = evaluateEntities(penalty, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                occupancyIndex.getPlaceDayStats(), placePenaltyWeights, occupancyIndex.getPlaceCellPenalties());
+
+        EvaluatedTimetable timetable = occupancyIndex.nextEvaluatedTimetable();
+        double[] lessonPenalties = timetable.getLessonPenalties();
+        if (isSharded(lessonPenalties.length, MIN_LESSONS_SHARD_SIZE)) {
+            forEachShard(lessonPenalties.length, MIN_LESSONS_SHARD_SIZE, (fromLessonIndex, toLessonIndex) ->
+                    fillLessonPenalties(fromLessonIndex, toLessonIndex, occupancyIndex, lessonPenalties));
+        } else {
+            fillLessonPenalties(0, lessonPenalties.length, occupancyIndex, lessonPenalties);
+        }
+
+        timetable.setPenalty(penalty);
+
+        return timetable;
+    }
+
+    private void fillLessonPenalties(int fromLessonIndex, int toLessonIndex, TimetableOccupancyIndex occupancyIndex,
+                                     double[] lessonPenalties) {
+        for (int i = fromLessonIndex; i < toLessonIndex; ++i) {
+            lessonPenalties[i] = getLessonPenalty(occupancyIndex, i);
+        }
+    }
+
+    /**
+     * Share of the penalty of its lecturer, academic groups and place the lesson is blamed for, as spread over the
+     * cells by the last {@link #evaluateTimetable(TimetableOccupancyIndex)} or
+     * {@link #refreshCellPenalties(TimetableOccupancyIndex, int, int)} of those entities.
+     */
+    public double getLessonPenalty(TimetableOccupancyIndex occupancyIndex, int lessonIndex) {
+        int weekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+
+        double lessonPenalty = occupancyIndex.getLecturerCellPenalties()[occupancyIndex.getCell(
+                occupancyIndex.getLessonLecturerIndexes()[lessonIndex], weekCell)];
+        for (int academicGroupIndex : occupancyIndex.getLessonAcademicGroupIndexes()[lessonIndex]) {
+            lessonPenalty += occupancyIndex.getAcademicGroupCellPenalties()[occupancyIndex.getCell(academicGroupIndex,
+                    weekCell)];
+        }
+        lessonPenalty += occupancyIndex.getPlaceCellPenalties()[occupancyIndex.getCell(
+                occupancyIndex.getLessonPlaceIndex(lessonIndex), weekCell)];
+
+        return lessonPenalty;
+    }
+
+    /**
+     * Spreads the penalty of the lecturer, the academic groups and the place of a lesson that has just moved over
+     * their cells again, and that of {@code prevPlaceIndex} if the lesson left it, so that
+     * {@link #getLessonPenalty(TimetableOccupancyIndex, int)} is up to date for every lesson of those entities.
+     */
+    public void refreshCellPenalties(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int prevPlaceIndex) {
+        int[] conflictLessonCounts = occupancyIndex.getConflictLessonCounts();
+        boolean[] timeWindowDays = occupancyIndex.getTimeWindowDays();
+
+        evaluateEntity(occupancyIndex.getLessonLecturerIndexes()[lessonIndex], occupancyIndex,
+                occupancyIndex.getLecturerOccupancy(), occupancyIndex.getLecturerCellBuildings(),
+                occupancyIndex.getLecturerDayStats(), lecturerPenaltyWeights, occupancyIndex.getLecturerCellPenalties(),
+                null, conflictLessonCounts, timeWindowDays);
+
+        for (int academicGroupIndex : occupancyIndex.getLessonAcademicGroupIndexes()[lessonIndex]) {
+            evaluateEntity(academicGroupIndex, occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                    occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                    academicGroupPenaltyWeights, occupancyIndex.getAcademicGroupCellPenalties(), null,
+                    conflictLessonCounts, timeWindowDays);
+        }
+
+        int placeIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        evaluateEntity(placeIndex, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                occupancyIndex.getPlaceDayStats(), placePenaltyWeights, occupancyIndex.getPlaceCellPenalties(), null,
+                conflictLessonCounts, timeWindowDays);
+        if (prevPlaceIndex != placeIndex) {
+            evaluateEntity(prevPlaceIndex, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                    occupancyIndex.getPlaceDayStats(), placePenaltyWeights, occupancyIndex.getPlaceCellPenalties(), null,
+                    conflictLessonCounts, timeWindowDays);
+        }
+    }
+
+    /**
+     * Penalty of the lecturer, the academic groups and the place of the lesson in the current state.
+     */
+    public double calcLocalPenalty(TimetableOccupancyIndex occupancyIndex, int lessonIndex) {
+        return calcMovePenalty(occupancyIndex, lessonIndex, occupancyIndex.getLessonWeekCell(lessonIndex));
+    }
+
+    /**
+     * Local penalty the lesson would have in {@code weekCell}, computed without touching the index: only the days the
+     * lesson leaves and enters are rescanned, all other days come from the cached per-day statistics.
+     */
+    public double calcMovePenalty(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int weekCell) {
+        int prevWeekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+        long building = occupancyIndex.getLessonBuilding(lessonIndex);
+
+        double penalty = 0;
+
+        penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getLecturerOccupancy(),
+                occupancyIndex.getLecturerCellBuildings(), occupancyIndex.getLecturerDayStats(),
+                occupancyIndex.getLessonLecturerIndexes()[lessonIndex], prevWeekCell, building, weekCell, building,
+                lecturerPenaltyWeights);
+
+        for (int academicGroupIndex : occupancyIndex.getLessonAcademicGroupIndexes()[lessonIndex]) {
+            penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                    occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                    academicGroupIndex, prevWeekCell, building, weekCell, building, academicGroupPenaltyWeights);
+        }
+
+        penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                occupancyIndex.getPlaceDayStats(), occupancyIndex.getLessonPlaceIndex(lessonIndex),
+                prevWeekCell, 0, weekCell, 0, placePenaltyWeights);
+
+        return penalty;
+    }
+
+    /**
+     * Index of the week cell among {@code weekCells} with the lowest move penalty for the lesson, the first one on ties.
+     * Candidates are scored against the unchanged index into {@code penalties}, in parallel shards when evaluation is
+     * parallel; as soon as a candidate with zero penalty is found, the candidates after it are skipped. Candidates whose
+     * time slot the building of the lesson's place does not offer are then rescored one by one with the relocation the
+     * move forces (see {@link #calcRelocatedMovePenalty(TimetableOccupancyIndex, int, int)}), so every penalty is the
+     * one applying the move gives.
+     */
+    public int findBestMove(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int[] weekCells, double[] penalties) {
+        Arrays.fill(penalties, 0, weekCells.length, Double.MAX_VALUE);
+
+        if (isSharded(weekCells.length, MIN_CANDIDATES_SHARD_SIZE)) {
+            AtomicInteger zeroPenaltyCandidate = new AtomicInteger(weekCells.length);
+            forEachShard(weekCells.length, MIN_CANDIDATES_SHARD_SIZE, (fromIndex, toIndex) -> {
+                for (int i = fromIndex; i < toIndex && i < zeroPenaltyCandidate.get(); ++i) {
+                    penalties[i] = calcMovePenalty(occupancyIndex, lessonIndex, weekCells[i]);
+
+                    if (penalties[i] == 0) {
+                        zeroPenaltyCandidate.accumulateAndGet(i, Math::min);
+                        break;
+                    }
+                }
+            });
+        } else {
+            for (int i = 0; i < weekCells.length; ++i) {
+                penalties[i] = calcMovePenalty(occupancyIndex, lessonIndex, weekCells[i]);
+
+                if (penalties[i] == 0) {
+                    break;
+                }
+            }
+        }
+
+        rescoreRelocatedMoves(occupancyIndex, lessonIndex, weekCells, penalties);
+
+        int bestCandidate = 0;
+        for (int i = 1; i < weekCells.length && penalties[bestCandidate] > 0; ++i) {
+            if (penalties[i] < penalties[bestCandidate]) {
+                bestCandidate = i;
+            }
+        }
+
+        return bestCandidate;
+    }
+
+    private void rescoreRelocatedMoves(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int[] weekCells,
+                                       double[] penalties) {
+        LessonPlaceCandidates placeCandidates = occupancyIndex.getPlaceCandidates();
+        int requirementsIndex = occupancyIndex.getTimetableState().getRequirementsIndexes()[lessonIndex];
+        int placeIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        int currentWeekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+
+        for (int i = 0; i < weekCells.length; ++i) {
+            if (penalties[i] != Double.MAX_VALUE && weekCells[i] != currentWeekCell && !placeCandidates.isCandidate(
+                    requirementsIndex, occupancyIndex.getTimeSlot(weekCells[i]), placeIndex)) {
+                penalties[i] = calcRelocatedMovePenalty(occupancyIndex, lessonIndex, weekCells[i]);
+            }
+        }
+    }
+
+    /**
+     * Local penalty of a move of the lesson to {@code weekCell} followed by the relocation
+     * {@link #keepCandidatePlace(TimetableOccupancyIndex, int)} makes there, in the terms of
+     * {@link #calcMovePenalty(TimetableOccupancyIndex, int, int)}: the penalty of the lecturer, the academic groups and
+     * the current place after both, plus the penalty increase of the place the lesson is relocated to. The move is
+     * applied to the index for scoring and then undone, so this must not run concurrently with other index reads.
+     */
+    public double calcRelocatedMovePenalty(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int weekCell) {
+        int prevWeekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+
+        moveLesson(occupancyIndex, lessonIndex, weekCell);
+        int prevPlaceIndex = keepCandidatePlace(occupancyIndex, lessonIndex);
+        int placeIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+
+        double penalty = calcLecturerAndAcademicGroupsPenalty(occupancyIndex, lessonIndex, placeIndex)
+                + calcPlacePenalty(occupancyIndex, prevPlaceIndex);
+        if (placeIndex != prevPlaceIndex) {
+            penalty += calcPlacePenalty(occupancyIndex, placeIndex);
+        }
+
+        changePlace(occupancyIndex, lessonIndex, prevPlaceIndex);
+        moveLesson(occupancyIndex, lessonIndex, prevWeekCell);
+
+        if (placeIndex != prevPlaceIndex) {
+            penalty -= calcPlacePenalty(occupancyIndex, placeIndex);
+        }
+
+        return penalty;
+    }
+
+    /**
+     * Penalty of the lecturer and the academic groups of the lesson if it were in {@code placeIndex}, without touching
+     * the index. A place change affects it only through travel, so it is the same for all places of one building.
+     */
+    public double calcLecturerAndAcademicGroupsPenalty(TimetableOccupancyIndex occupancyIndex, int lessonIndex,
+                                                       int placeIndex) {
+        int weekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+        long prevBuilding = occupancyIndex.getLessonBuilding(lessonIndex);
+        long building = occupancyIndex.getPlaceBuilding(placeIndex);
+
+        double penalty = 0;
+
+        penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getLecturerOccupancy(),
+                occupancyIndex.getLecturerCellBuildings(), occupancyIndex.getLecturerDayStats(),
+                occupancyIndex.getLessonLecturerIndexes()[lessonIndex], weekCell, prevBuilding, weekCell, building,
+                lecturerPenaltyWeights);
+
+        for (int academicGroupIndex : occupancyIndex.getLessonAcademicGroupIndexes()[lessonIndex]) {
+            penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                    occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                    academicGroupIndex, weekCell, prevBuilding, weekCell, building, academicGroupPenaltyWeights);
+        }
+
+        return penalty;
+    }
+
+    /**
+     * Adds the penalty {@code placeIndex} would have if the lesson were moved there, without touching the index.
+     */
+    public double addPlacePenalty(double penalty, TimetableOccupancyIndex occupancyIndex, int lessonIndex, int placeIndex) {
+        int addedWeekCell = placeIndex == occupancyIndex.getLessonPlaceIndex(lessonIndex)
+                ? -1
+                : occupancyIndex.getLessonWeekCell(lessonIndex);
+
+        return addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                occupancyIndex.getPlaceDayStats(), placeIndex, -1, 0, addedWeekCell, 0, placePenaltyWeights);
+    }
+
+    /**
+     * Penalty of a place in the current state.
+     */
+    public double calcPlacePenalty(TimetableOccupancyIndex occupancyIndex, int placeIndex) {
+        return addEntityPenalty(0, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                occupancyIndex.getPlaceDayStats(), placeIndex, -1, 0, -1, 0, placePenaltyWeights);
+    }
+
+    /**
+     * Whether the lesson shares its place with no lesson it would clash with, i.e. moving it to another place can not
+     * lower the conflicts of its place.
+     */
+    public boolean isLessonPlaceClashFree(TimetableOccupancyIndex occupancyIndex, int lessonIndex) {
+        int weekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+        int placeIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        int[] placeOccupancy = occupancyIndex.getPlaceOccupancy();
+
+        if (placeOccupancy[occupancyIndex.getCell(placeIndex, weekCell)] > 1) {
+            return false;
+        }
+
+        int dayWeekCell = occupancyIndex.getWeekCell(occupancyIndex.getDay(weekCell), 0, 0);
+        int timeSlot = occupancyIndex.getTimeSlot(weekCell);
+        int periodicity = weekCell % PERIODICITIES_COUNT;
+        LessonTimeSlotGrid timeSlotGrid = occupancyIndex.getTimeSlotGrid();
+
+        for (int clashingTimeSlot = 0; clashingTimeSlot < occupancyIndex.getTimeSlotsCount(); ++clashingTimeSlot) {
+            if (!timeSlotGrid.isConflict(timeSlot, clashingTimeSlot)) {
+                continue;
+            }
+
+            for (int clashingPeriodicity = 0; clashingPeriodicity < PERIODICITIES_COUNT; ++clashingPeriodicity) {
+                int clashingWeekCell = dayWeekCell + clashingTimeSlot * PERIODICITIES_COUNT + clashingPeriodicity;
+                if (clashingWeekCell != weekCell && CONFLICT_HALVES[periodicity][clashingPeriodicity] > 0
+                        && placeOccupancy[occupancyIndex.getCell(placeIndex, clashingWeekCell)] > 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the first candidate place of the lesson, other than its current one, that holds no lesson it would clash
+     * with, preferring the building of the current place, where the lecturer and the academic groups do not travel
+     * any differently; returns {@code -1} if there is none. The places taken in any clashing week cell are found by
+     * or-ing their occupied places bitmaps, so every candidate costs a single bit test.
+     */
+    public int findClashFreePlace(TimetableOccupancyIndex occupancyIndex, int lessonIndex) {
+        int weekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+        int currentPlaceIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        long[] occupiedPlaceBits = occupancyIndex.getOccupiedPlaceBits();
+        long[] clashingPlaceBits = occupancyIndex.getClashingPlaceBits();
+
+        int dayWeekCell = occupancyIndex.getWeekCell(occupancyIndex.getDay(weekCell), 0, 0);
+        int timeSlot = occupancyIndex.getTimeSlot(weekCell);
+        int periodicity = weekCell % PERIODICITIES_COUNT;
+        LessonTimeSlotGrid timeSlotGrid = occupancyIndex.getTimeSlotGrid();
+
+        Arrays.fill(clashingPlaceBits, 0);
+        for (int clashingTimeSlot = 0; clashingTimeSlot < occupancyIndex.getTimeSlotsCount(); ++clashingTimeSlot) {
+            if (!timeSlotGrid.isConflict(timeSlot, clashingTimeSlot)) {
+                continue;
+            }
+
+            for (int clashingPeriodicity = 0; clashingPeriodicity < PERIODICITIES_COUNT; ++clashingPeriodicity) {
+                if (CONFLICT_HALVES[periodicity][clashingPeriodicity] == 0) {
+                    continue;
+                }
+
+                int wordsOffset = occupancyIndex.getPlaceWordsOffset(
+                        dayWeekCell + clashingTimeSlot * PERIODICITIES_COUNT + clashingPeriodicity);
+                for (int word = 0; word < clashingPlaceBits.length; ++word) {
+                    clashingPlaceBits[word] |= occupiedPlaceBits[wordsOffset + word];
+                }
+            }
+        }
+
+        long currentBuilding = occupancyIndex.getPlaceBuilding(currentPlaceIndex);
+        int clashFreePlaceIndex = -1;
+
+        int[] candidatePlaceIndexes = occupancyIndex.getCandidatePlaceIndexes();
+        int candidatesCount = occupancyIndex.collectCandidatePlaces(lessonIndex);
+        for (int i = 0; i < candidatesCount; ++i) {
+            int placeIndex = candidatePlaceIndexes[i];
+            if (placeIndex != currentPlaceIndex
+                    && (clashingPlaceBits[placeIndex / Long.SIZE] & (1L << placeIndex)) == 0) {
+                if (occupancyIndex.getPlaceBuilding(placeIndex) == currentBuilding) {
+                    return placeIndex;
+                }
+                if (clashFreePlaceIndex < 0) {
+                    clashFreePlaceIndex = placeIndex;
+                }
+            }
+        }
+
+        return clashFreePlaceIndex;
+    }
+
+    /**
+     * Moves a lesson whose day and time slot have just changed to a candidate place, if the building of its place does
+     * not offer the new time slot (see {@link LessonPlaceCandidates}): to the first clash-free candidate, or else to
+     * the candidate with the lowest penalty of the lecturer, academic groups and place. Returns the place the lesson
+     * was in.
+     */
+    public int keepCandidatePlace(TimetableOccupancyIndex occupancyIndex, int lessonIndex) {
+        int prevPlaceIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        if (occupancyIndex.isCandidatePlace(lessonIndex, prevPlaceIndex)) {
+            return prevPlaceIndex;
+        }
+
+        int placeIndex = findClashFreePlace(occupancyIndex, lessonIndex);
+        if (placeIndex < 0) {
+            double minPenalty = Double.MAX_VALUE;
+            long scoredBuilding = -1;
+            double lecturerAndAcademicGroupsPenalty = 0;
+
+            int[] candidatePlaceIndexes = occupancyIndex.getCandidatePlaceIndexes();
+            int candidatesCount = occupancyIndex.collectCandidatePlaces(lessonIndex);
+            for (int i = 0; i < candidatesCount; ++i) {
+                int candidatePlaceIndex = candidatePlaceIndexes[i];
+                if (occupancyIndex.getPlaceBuilding(candidatePlaceIndex) != scoredBuilding) {
+                    scoredBuilding = occupancyIndex.getPlaceBuilding(candidatePlaceIndex);
+                    lecturerAndAcademicGroupsPenalty = calcLecturerAndAcademicGroupsPenalty(occupancyIndex,
+                            lessonIndex, candidatePlaceIndex);
+                }
+
+                double penalty = addPlacePenalty(lecturerAndAcademicGroupsPenalty, occupancyIndex, lessonIndex,
+                        candidatePlaceIndex);
+                if (penalty < minPenalty) {
+                    placeIndex = candidatePlaceIndex;
+                    minPenalty = penalty;
+                }
+            }
+        }
+
+        if (placeIndex >= 0) {
+            changePlace(occupancyIndex, lessonIndex, placeIndex);
+        }
+
+        return prevPlaceIndex;
+    }
+
+    /**
+     * Penalty of the lecturers, academic groups and places of the first {@code lessonsCount} lessons in the current
+     * state, every entity counted once. A move of only these lessons changes the penalty of the timetable exactly as
+     * much as it changes this value.
+     */
+    public double calcLessonsPenalty(TimetableOccupancyIndex occupancyIndex, int[] lessonIndexes, int lessonsCount) {
+        int[] lessonLecturerIndexes = occupancyIndex.getLessonLecturerIndexes();
+        int[][] lessonAcademicGroupIndexes = occupancyIndex.getLessonAcademicGroupIndexes();
+        int[] lessonPlaceIndexes = occupancyIndex.getTimetableState().getPlaceIndexes();
+
+        double penalty = 0;
+        for (int i = 0; i < lessonsCount; ++i) {
+            int lessonIndex = lessonIndexes[i];
+
+            int lecturerIndex = lessonLecturerIndexes[lessonIndex];
+            if (indexOf(lessonLecturerIndexes, lessonIndexes, i, lecturerIndex) == i) {
+                penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getLecturerOccupancy(),
+                        occupancyIndex.getLecturerCellBuildings(), occupancyIndex.getLecturerDayStats(), lecturerIndex,
+                        -1, 0, -1, 0, lecturerPenaltyWeights);
+            }
+
+            for (int academicGroupIndex : lessonAcademicGroupIndexes[lessonIndex]) {
+                if (indexOfAcademicGroup(lessonAcademicGroupIndexes, lessonIndexes, i, academicGroupIndex) == i) {
+                    penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                            occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                            academicGroupIndex, -1, 0, -1, 0, academicGroupPenaltyWeights);
+                }
+            }
+
+            int placeIndex = lessonPlaceIndexes[lessonIndex];
+            if (indexOf(lessonPlaceIndexes, lessonIndexes, i, placeIndex) == i) {
+                penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                        occupancyIndex.getPlaceDayStats(), placeIndex, -1, 0, -1, 0, placePenaltyWeights);
+            }
+        }
+
+        return penalty;
+    }
+
+    /**
+     * Penalty increase of a lecturer and academic groups if a lesson that is not in the index yet were added in
+     * {@code weekCell}, as if in a place without a known building, since its place is chosen afterwards.
+     */
+    public double calcLecturerAndAcademicGroupsInsertPenalty(TimetableOccupancyIndex occupancyIndex, int lecturerIndex,
+                                                             int[] academicGroupIndexes, int weekCell) {
+        double penalty = addEntityPenalty(0, occupancyIndex, occupancyIndex.getLecturerOccupancy(),
+                occupancyIndex.getLecturerCellBuildings(), occupancyIndex.getLecturerDayStats(), lecturerIndex, -1, 0,
+                weekCell, 0, lecturerPenaltyWeights);
+        penalty -= addEntityPenalty(0, occupancyIndex, occupancyIndex.getLecturerOccupancy(),
+                occupancyIndex.getLecturerCellBuildings(), occupancyIndex.getLecturerDayStats(), lecturerIndex, -1, 0,
+                -1, 0, lecturerPenaltyWeights);
+
+        for (int academicGroupIndex : academicGroupIndexes) {
+            penalty = addEntityPenalty(penalty, occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                    occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                    academicGroupIndex, -1, 0, weekCell, 0, academicGroupPenaltyWeights);
+            penalty -= addEntityPenalty(0, occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                    occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                    academicGroupIndex, -1, 0, -1, 0, academicGroupPenaltyWeights);
+        }
+
+        return penalty;
+    }
+
+    /**
+     * Penalty increase of a place if a lesson that is not in the index yet were added there in {@code weekCell}.
+     */
+    public double calcPlaceInsertPenalty(TimetableOccupancyIndex occupancyIndex, int placeIndex, int weekCell) {
+        return addEntityPenalty(0, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                occupancyIndex.getPlaceDayStats(), placeIndex, -1, 0, weekCell, 0, placePenaltyWeights)
+                - addEntityPenalty(0, occupancyIndex, occupancyIndex.getPlaceOccupancy(), null,
+                occupancyIndex.getPlaceDayStats(), placeIndex, -1, 0, -1, 0, placePenaltyWeights);
+    }
+
+    /**
+     * Adds a lesson, already positioned in the timetable state, to an index that does not contain it yet and refreshes
+     * the day statistics of its lecturer, academic groups and place.
+     */
+    public void insertLesson(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int lecturerIndex,
+                             int[] academicGroupIndexes) {
+        occupancyIndex.addLesson(lessonIndex, lecturerIndex, academicGroupIndexes);
+
+        int day = occupancyIndex.getDay(occupancyIndex.getLessonWeekCell(lessonIndex));
+
+        refreshLecturerAndAcademicGroupsDayStats(occupancyIndex, lecturerIndex, academicGroupIndexes, day, day);
+        refreshDayStats(occupancyIndex, occupancyIndex.getPlaceOccupancy(), null, occupancyIndex.getPlaceDayStats(),
+                occupancyIndex.getLessonPlaceIndex(lessonIndex), day, day, placePenaltyWeights);
+    }
+
+    public void moveLesson(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int weekCell) {
+        int prevWeekCell = occupancyIndex.getLessonWeekCell(lessonIndex);
+        if (prevWeekCell == weekCell) {
+            return;
+        }
+
+        occupancyIndex.moveLesson(lessonIndex, weekCell);
+
+        int prevDay = occupancyIndex.getDay(prevWeekCell);
+        int day = occupancyIndex.getDay(weekCell);
+
+        refreshLecturerAndAcademicGroupsDayStats(occupancyIndex, occupancyIndex.getLessonLecturerIndexes()[lessonIndex],
+                occupancyIndex.getLessonAcademicGroupIndexes()[lessonIndex], prevDay, day);
+        refreshDayStats(occupancyIndex, occupancyIndex.getPlaceOccupancy(), null, occupancyIndex.getPlaceDayStats(),
+                occupancyIndex.getLessonPlaceIndex(lessonIndex), prevDay, day, placePenaltyWeights);
+    }
+
+    public void changePlace(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int placeIndex) {
+        int prevPlaceIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        if (prevPlaceIndex == placeIndex) {
+            return;
+        }
+
+        occupancyIndex.changePlace(lessonIndex, placeIndex);
+
+        int day = occupancyIndex.getDay(occupancyIndex.getLessonWeekCell(lessonIndex));
+
+        if (occupancyIndex.getPlaceBuilding(placeIndex) != occupancyIndex.getPlaceBuilding(prevPlaceIndex)) {
+            refreshLecturerAndAcademicGroupsDayStats(occupancyIndex,
+                    occupancyIndex.getLessonLecturerIndexes()[lessonIndex],
+                    occupancyIndex.getLessonAcademicGroupIndexes()[lessonIndex], day, day);
+        }
+
+        refreshDayStats(occupancyIndex, occupancyIndex.getPlaceOccupancy(), null, occupancyIndex.getPlaceDayStats(),
+                prevPlaceIndex, day, day, placePenaltyWeights);
+        refreshDayStats(occupancyIndex, occupancyIndex.getPlaceOccupancy(), null, occupancyIndex.getPlaceDayStats(),
+                placeIndex, day, day, placePenaltyWeights);
+    }
+
+    /**
+     * Position of the first of the first {@code count + 1} lessons whose entity (lecturer or place) is
+     * {@code entityIndex}.
+     */
+    private static int indexOf(int[] lessonEntityIndexes, int[] lessonIndexes, int count, int entityIndex) {
+        int i = 0;
+        while (i < count && lessonEntityIndexes[lessonIndexes[i]] != entityIndex) {
+            ++i;
+        }
+
+        return i;
+    }
+
+    private static int indexOfAcademicGroup(int[][] lessonAcademicGroupIndexes, int[] lessonIndexes, int count,
+                                            int academicGroupIndex) {
+        for (int i = 0; i < count; ++i) {
+            for (int lessonAcademicGroupIndex : lessonAcademicGroupIndexes[lessonIndexes[i]]) {
+                if (lessonAcademicGroupIndex == academicGroupIndex) {
+                    return i;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private void refreshLecturerAndAcademicGroupsDayStats(TimetableOccupancyIndex occupancyIndex, int lecturerIndex,
+                                                          int[] academicGroupIndexes, int prevDay, int day) {
+        refreshDayStats(occupancyIndex, occupancyIndex.getLecturerOccupancy(), occupancyIndex.getLecturerCellBuildings(),
+                occupancyIndex.getLecturerDayStats(), lecturerIndex, prevDay, day, lecturerPenaltyWeights);
+
+        for (int academicGroupIndex : academicGroupIndexes) {
+            refreshDayStats(occupancyIndex, occupancyIndex.getAcademicGroupOccupancy(),
+                    occupancyIndex.getAcademicGroupCellBuildings(), occupancyIndex.getAcademicGroupDayStats(),
+                    academicGroupIndex, prevDay, day, academicGroupPenaltyWeights);
+        }
+    }
+
+    private void refreshDayStats(TimetableOccupancyIndex occupancyIndex, int[] occupancy, long[] cellBuildings,
+                                 long[] dayStats, int entityIndex, int prevDay, int day, PenaltyWeights penaltyWeights) {
+
+        dayStats[occupancyIndex.getDayStatsIndex(entityIndex, prevDay)] = scanDay(occupancyIndex, occupancy,
+                cellBuildings, occupancyIndex.getDayOffset(entityIndex, prevDay), -1, 0, -1, 0,
+                penaltyWeights.timeWindowsTracked());
+
+        if (day != prevDay) {
+            dayStats[occupancyIndex.getDayStatsIndex(entityIndex, day)] = scanDay(occupancyIndex, occupancy,
+                    cellBuildings, occupancyIndex.getDayOffset(entityIndex, day), -1, 0, -1, 0,
+                    penaltyWeights.timeWindowsTracked());
+        }
+    }
+
+    /**
+     * Adds the penalty of every entity of one kind (lecturers, academic groups or places) to {@code penalty}. Entities
+     * are evaluated in shards, possibly in parallel, each writing only its own slots of {@code entityPenalties}, day
+     * statistics and cell penalties; the sum is then taken in entity order, so the result does not depend on the
+     * parallelism. Serial evaluation uses the scratch buffers of the index, parallel shards allocate their own.
+     * {@code cellBuildings} is {@code null} for places, which never travel.
+     */
+    private double evaluateEntities(double penalty, TimetableOccupancyIndex occupancyIndex, int[] occupancy,
+                                    long[] cellBuildings, long[] dayStats, PenaltyWeights penaltyWeights,
+                                    double[] cellPenalties) {
+
+        int entitiesCount = occupancy.length / occupancyIndex.getWeekCellsCount();
+        double[] entityPenalties = occupancyIndex.getEntityPenalties();
+        Arrays.fill(entityPenalties, 0, entitiesCount * 2, 0);
+
+        if (isSharded(entitiesCount, MIN_ENTITIES_SHARD_SIZE)) {
+            forEachShard(entitiesCount, MIN_ENTITIES_SHARD_SIZE, (fromEntityIndex, toEntityIndex) ->
+                    evaluateEntities(fromEntityIndex, toEntityIndex, occupancyIndex, occupancy, cellBuildings,
+                            dayStats, penaltyWeights, cellPenalties, entityPenalties,
+                            new int[occupancyIndex.getWeekCellsCount()], new boolean[occupancyIndex.getDaysCount()]));
+        } else {
+            evaluateEntities(0, entitiesCount, occupancyIndex, occupancy, cellBuildings, dayStats, penaltyWeights,
+                    cellPenalties, entityPenalties, occupancyIndex.getConflictLessonCounts(),
+                    occupancyIndex.getTimeWindowDays());
+        }
+
+        for (int i = 0; i < entitiesCount * 2; ++i) {
+            penalty += entityPenalties[i];
+        }
+
+        return penalty;
+    }
+
+    private void evaluateEntities(int fromEntityIndex, int toEntityIndex, TimetableOccupancyIndex occupancyIndex,
+                                  int[] occupancy, long[] cellBuildings, long[] dayStats, PenaltyWeights penaltyWeights,
+                                  double[] cellPenalties, double[] entityPenalties, int[] conflictLessonCounts,
+                                  boolean[] timeWindowDays) {
+        for (int entityIndex = fromEntityIndex; entityIndex < toEntityIndex; ++entityIndex) {
+            evaluateEntity(entityIndex, occupancyIndex, occupancy, cellBuildings, dayStats, penaltyWeights,
+                    cellPenalties, entityPenalties, conflictLessonCounts, timeWindowDays);
+        }
+    }
+
+    /**
+     * Evaluates one entity: stores its conflict and time window penalties in {@code entityPenalties} (if given), stores
+     * the per-day statistics and spreads the penalty over the occupied cells: the conflict penalty over the lessons
+     * that clash with their predecessor, the time window penalty over all lessons of the days that contain a window.
+     * Two consecutive lessons are related by the travel variant of the time slot grid if they are in different
+     * buildings; where merged bell schedules overlap non-adjacently, a lesson also clashes with the lessons before its
+     * predecessor (see {@link #countEarlierHalfConflicts}). {@code conflictLessonCounts} and {@code timeWindowDays} are
+     * scratch buffers of a week and of its days.
+     */
+    private void evaluateEntity(int entityIndex, TimetableOccupancyIndex occupancyIndex, int[] occupancy,
+                                long[] cellBuildings, long[] dayStats, PenaltyWeights penaltyWeights,
+                                double[] cellPenalties, double[] entityPenalties, int[] conflictLessonCounts,
+                                boolean[] timeWindowDays) {
+
+        LessonTimeSlotGrid timeSlotGrid = occupancyIndex.getTimeSlotGrid();
+        int timeSlotsCount = occupancyIndex.getTimeSlotsCount();
+        int daysCount = occupancyIndex.getDaysCount();
+        int dayCellsCount = occupancyIndex.getDayCellsCount();
+        int weekCellsCount = occupancyIndex.getWeekCellsCount();
+
+        int entityOffset = entityIndex * weekCellsCount;
+        Arrays.fill(cellPenalties, entityOffset, entityOffset + weekCellsCount, 0);
+
+        int halfConflictsCount = 0;
+        int conflictLessonsCount = 0;
+        double timeWindowCount = 0;
+        int timeWindowLessonsCount = 0;
+
+        for (int day = 0; day < daysCount; ++day) {
+            int dayWeekCell = day * dayCellsCount;
+
+            int prevTimeSlot = -1;
+            int prevPeriodicity = -1;
+            int prevBuilding = UNKNOWN_BUILDING;
+            int halfConflictsDayCount = 0;
+            int timeWindowDayCount = 0;
+            int dayLessonsCount = 0;
+
+            for (int timeSlot = 0; timeSlot < timeSlotsCount; ++timeSlot) {
+                for (int periodicity = 0; periodicity < PERIODICITIES_COUNT; ++periodicity) {
+                    int weekCell = dayWeekCell + timeSlot * PERIODICITIES_COUNT + periodicity;
+                    int lessonsCount = occupancy[entityOffset + weekCell];
+                    if (lessonsCount == 0) {
+                        continue;
+                    }
+
+                    int building = cellBuildings == null
+                            ? UNKNOWN_BUILDING
+                            : getCellBuilding(cellBuildings[entityOffset + weekCell]);
+
+                    int cellConflictLessonsCount = lessonsCount - 1;
+                    halfConflictsDayCount += cellConflictLessonsCount * CONFLICT_HALVES[periodicity][periodicity];
+
+                    if (prevTimeSlot >= 0) {
+                        boolean travel = isTravel(prevBuilding, building);
+                        int earlierHalfConflictsCount = timeSlotGrid.isConflict(prevTimeSlot, timeSlot, travel)
+                                ? CONFLICT_HALVES[prevPeriodicity][periodicity]
+                                : 0;
+                        if (timeSlotGrid.getEarliestConflictOrdinal(timeSlot) < prevTimeSlot) {
+                            earlierHalfConflictsCount += countEarlierHalfConflicts(timeSlotGrid, occupancy,
+                                    cellBuildings, entityOffset + dayWeekCell, prevTimeSlot, timeSlot, periodicity,
+                                    building, -1, 0, -1, 0);
+                        }
+                        if (earlierHalfConflictsCount > 0) {
+                            halfConflictsDayCount += earlierHalfConflictsCount;
+                            ++cellConflictLessonsCount;
+                        }
+
+                        if (penaltyWeights.timeWindowsTracked()
+                                && timeSlotGrid.isWindow(prevTimeSlot, timeSlot, travel)) {
+                            ++timeWindowDayCount;
+                        }
+                    }
+
+                    conflictLessonCounts[weekCell] = cellConflictLessonsCount;
+                    conflictLessonsCount += cellConflictLessonsCount;
+                    dayLessonsCount += lessonsCount;
+
+                    prevTimeSlot = timeSlot;
+                    prevPeriodicity = periodicity;
+                    prevBuilding = building;
+                }
+            }
+
+            dayStats[occupancyIndex.getDayStatsIndex(entityIndex, day)] = packDayStats(halfConflictsDayCount,
+                    timeWindowDayCount);
+            halfConflictsCount += halfConflictsDayCount;
+
+            timeWindowDays[day] = timeWindowDayCount > 0;
+            if (timeWindowDayCount > 0) {
+                timeWindowCount += Math.pow(timeWindowDayCount, penaltyWeights.timeWindowPenaltyDayPower());
+                timeWindowLessonsCount += dayLessonsCount;
+            }
+        }
+
+        double conflictTimeSlotPenaltyPerLesson = 0;
+        double conflictTimeSlotsCount = halfConflictsCount / 2.0;
+        if (conflictTimeSlotsCount > 0) {
+            conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, penaltyWeights.conflictTimeSlotPenaltyPower());
+
+            double conflictTimeSlotPenalty = conflictTimeSlotsCount * penaltyWeights.conflictTimeSlotPenalty();
+            if (entityPenalties != null) {
+                entityPenalties[2 * entityIndex] = conflictTimeSlotPenalty;
+            }
+
+            conflictTimeSlotPenaltyPerLesson = conflictTimeSlotPenalty / conflictLessonsCount;
+        }
+
+        double timeWindowPenaltyPerLesson = 0;
+        if (timeWindowCount > 0) {
+            timeWindowCount = Math.pow(timeWindowCount, penaltyWeights.timeWindowPenaltyPower());
+
+            double timeWindowPenalty = timeWindowCount * penaltyWeights.timeWindowPenalty();
+            if (entityPenalties != null) {
+                entityPenalties[2 * entityIndex + 1] = timeWindowPenalty;
+            }
+
+            timeWindowPenaltyPerLesson = timeWindowPenalty / timeWindowLessonsCount;
+        }
+
+        if (conflictTimeSlotPenaltyPerLesson == 0 && timeWindowPenaltyPerLesson == 0) {
+            return;
+        }
+
+        for (int weekCell = 0; weekCell < weekCellsCount; ++weekCell) {
+            int lessonsCount = occupancy[entityOffset + weekCell];
+            if (lessonsCount == 0) {
+                continue;
+            }
+
+            double cellPenalty = conflictTimeSlotPenaltyPerLesson * conflictLessonCounts[weekCell] / lessonsCount;
+            if (timeWindowDays[weekCell / dayCellsCount]) {
+                cellPenalty += timeWindowPenaltyPerLesson;
+            }
+
+            cellPenalties[entityOffset + weekCell] = cellPenalty;
+        }
+    }
+
+    /**
+     * Adds the penalty of one entity to {@code penalty} as if one lesson in {@code removedBuilding} left
+     * {@code removedWeekCell} and one in {@code addedBuilding} entered {@code addedWeekCell} (either cell may be
+     * {@code -1}, buildings packed by {@link TimetableOccupancyIndex#packBuilding(int)}). Only the affected days are
+     * rescanned.
+     */
+    private double addEntityPenalty(double penalty, TimetableOccupancyIndex occupancyIndex, int[] occupancy,
+                                    long[] cellBuildings, long[] dayStats, int entityIndex, int removedWeekCell,
+                                    long removedBuilding, int addedWeekCell, long addedBuilding,
+                                    PenaltyWeights penaltyWeights) {
+
+        boolean unchanged = removedWeekCell == addedWeekCell && removedBuilding == addedBuilding;
+
+        int removedDay = -1;
+        int removedCell = -1;
+        if (removedWeekCell >= 0 && !unchanged) {
+            removedDay = occupancyIndex.getDay(removedWeekCell);
+            removedCell = occupancyIndex.getCell(entityIndex, removedWeekCell);
+        }
+
+        int addedDay = -1;
+        int addedCell = -1;
+        if (addedWeekCell >= 0 && !unchanged) {
+            addedDay = occupancyIndex.getDay(addedWeekCell);
+            addedCell = occupancyIndex.getCell(entityIndex, addedWeekCell);
+        }
+
+        long removedDayStats = 0;
+        if (removedDay >= 0) {
+            removedDayStats = scanDay(occupancyIndex, occupancy, cellBuildings,
+                    occupancyIndex.getDayOffset(entityIndex, removedDay), removedCell, removedBuilding,
+                    addedDay == removedDay ? addedCell : -1, addedBuilding, penaltyWeights.timeWindowsTracked());
+        }
+
+        long addedDayStats = removedDayStats;
+        if (addedDay >= 0 && addedDay != removedDay) {
+            addedDayStats = scanDay(occupancyIndex, occupancy, cellBuildings,
+                    occupancyIndex.getDayOffset(entityIndex, addedDay), -1, 0, addedCell, addedBuilding,
+                    penaltyWeights.timeWindowsTracked());
+        }
+
+        int halfConflictsCount = 0;
+        double timeWindowCount = 0;
+
+        int dayStatsIndex = occupancyIndex.getDayStatsIndex(entityIndex, 0);
+        for (int day = 0; day < occupancyIndex.getDaysCount(); ++day, ++dayStatsIndex) {
+            long currentDayStats;
+            if (day == removedDay) {
+                currentDayStats = removedDayStats;
+            } else if (day == addedDay) {
+                currentDayStats = addedDayStats;
+            } else {
+                currentDayStats = dayStats[dayStatsIndex];
+            }
+
+            halfConflictsCount += getHalfConflictsCount(currentDayStats);
+
+            int timeWindowDayCount = getTimeWindowsCount(currentDayStats);
+            if (timeWindowDayCount > 0) {
+                timeWindowCount += Math.pow(timeWindowDayCount, penaltyWeights.timeWindowPenaltyDayPower());
+            }
+        }
+
+        double conflictTimeSlotsCount = halfConflictsCount / 2.0;
+        if (conflictTimeSlotsCount > 0) {
+            conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, penaltyWeights.conflictTimeSlotPenaltyPower());
+
+            penalty += conflictTimeSlotsCount * penaltyWeights.conflictTimeSlotPenalty();
+        }
+
+        if (timeWindowCount > 0) {
+            timeWindowCount = Math.pow(timeWindowCount, penaltyWeights.timeWindowPenaltyPower());
+
+            penalty += timeWindowCount * penaltyWeights.timeWindowPenalty();
+        }
+
+        return penalty;
+    }
+
+    /**
+     * Scans one day block of an entity in time order, treating {@code removedCell} as holding one lesson in
+     * {@code removedBuilding} less and {@code addedCell} one lesson in {@code addedBuilding} more (either cell may be
+     * {@code -1}), and returns the number of conflicting lesson pairs (in halves, since a weekly lesson clashes only
+     * half of the time with a numerator or denominator one) and the number of time windows, packed by
+     * {@link TimetableOccupancyIndex#packDayStats(int, int)}. Without {@code cellBuildings} nobody travels.
+     */
+    private long scanDay(TimetableOccupancyIndex occupancyIndex, int[] occupancy, long[] cellBuildings, int dayOffset,
+                         int removedCell, long removedBuilding, int addedCell, long addedBuilding,
+                         boolean timeWindowsTracked) {
+
+        LessonTimeSlotGrid timeSlotGrid = occupancyIndex.getTimeSlotGrid();
+        int timeSlotsCount = occupancyIndex.getTimeSlotsCount();
+
+        int halfConflictsCount = 0;
+        int timeWindowsCount = 0;
+
+        int prevTimeSlot = -1;
+        int prevPeriodicity = -1;
+        int prevBuilding = UNKNOWN_BUILDING;
+        int cell = dayOffset;
+        for (int timeSlot = 0; timeSlot < timeSlotsCount; ++timeSlot) {
+            for (int periodicity = 0; periodicity < PERIODICITIES_COUNT; ++periodicity, ++cell) {
+                int lessonsCount = occupancy[cell];
+                long buildings = cellBuildings == null ? 0 : cellBuildings[cell];
+                if (cell == removedCell) {
+                    --lessonsCount;
+                    buildings -= removedBuilding;
+                }
+                if (cell == addedCell) {
+                    ++lessonsCount;
+                    buildings += addedBuilding;
+                }
+                if (lessonsCount == 0) {
+                    continue;
+                }
+
+                int building = getCellBuilding(buildings);
+
+                halfConflictsCount += (lessonsCount - 1) * CONFLICT_HALVES[periodicity][periodicity];
+
+                if (prevTimeSlot >= 0) {
+                    boolean travel = isTravel(prevBuilding, building);
+                    if (timeSlotGrid.isConflict(prevTimeSlot, timeSlot, travel)) {
+                        halfConflictsCount += CONFLICT_HALVES[prevPeriodicity][periodicity];
+                    }
+                    if (timeSlotGrid.getEarliestConflictOrdinal(timeSlot) < prevTimeSlot) {
+                        halfConflictsCount += countEarlierHalfConflicts(timeSlotGrid, occupancy, cellBuildings,
+                                dayOffset, prevTimeSlot, timeSlot, periodicity, building, removedCell,
+                                removedBuilding, addedCell, addedBuilding);
+                    }
+
+                    if (timeWindowsTracked && timeSlotGrid.isWindow(prevTimeSlot, timeSlot, travel)) {
+                        ++timeWindowsCount;
+                    }
+                }
+
+                prevTimeSlot = timeSlot;
+                prevPeriodicity = periodicity;
+                prevBuilding = building;
+            }
+        }
+
+        return packDayStats(halfConflictsCount, timeWindowsCount);
+    }
+
+    /**
+     * Half conflicts of the lessons of one cell of a day block with those of the cells in the time slots before
+     * {@code prevTimeSlot}, the slot of the cell's predecessor, back to the earliest time slot that overlaps the cell's
+     * non-adjacently (see {@link LessonTimeSlotGrid#getEarliestConflictOrdinal(int)}). The predecessor itself is
+     * compared by the caller, so every pair of clashing cells counts once. Cells are adjusted by {@code removedCell}
+     * and {@code addedCell} as in
+     * {@link #scanDay(TimetableOccupancyIndex, int[], long[], int, int, long, int, long, boolean)}.
+     */
+    private static int countEarlierHalfConflicts(LessonTimeSlotGrid timeSlotGrid, int[] occupancy, long[] cellBuildings,
+                                                 int dayOffset, int prevTimeSlot, int timeSlot, int periodicity,
+                                                 int building, int removedCell, long removedBuilding, int addedCell,
+                                                 long addedBuilding) {
+        int halfConflictsCount = 0;
+
+        int endCell = dayOffset + prevTimeSlot * PERIODICITIES_COUNT;
+        int earlierCell = dayOffset + timeSlotGrid.getEarliestConflictOrdinal(timeSlot) * PERIODICITIES_COUNT;
+        for (; earlierCell < endCell; ++earlierCell) {
+            int conflictHalves = CONFLICT_HALVES[(earlierCell - dayOffset) % PERIODICITIES_COUNT][periodicity];
+            if (conflictHalves == 0) {
+                continue;
+            }
+
+            int lessonsCount = occupancy[earlierCell];
+            long buildings = cellBuildings == null ? 0 : cellBuildings[earlierCell];
+            if (earlierCell == removedCell) {
+                --lessonsCount;
+                buildings -= removedBuilding;
+            }
+            if (earlierCell == addedCell) {
+                ++lessonsCount;
+                buildings += addedBuilding;
+            }
+            if (lessonsCount == 0) {
+                continue;
+            }
+
+            int earlierTimeSlot = (earlierCell - dayOffset) / PERIODICITIES_COUNT;
+            if (timeSlotGrid.isConflict(earlierTimeSlot, timeSlot, isTravel(getCellBuilding(buildings), building))) {
+                halfConflictsCount += conflictHalves;
+            }
+        }
+
+        return halfConflictsCount;
+    }
+
+    private record PenaltyWeights(double conflictTimeSlotPenalty, double conflictTimeSlotPenaltyPower,
+                                  double timeWindowPenalty, double timeWindowPenaltyPower,
+                                  double timeWindowPenaltyDayPower, boolean timeWindowsTracked) {
+    }
+
+    /**
+     * Whether {@link #forEachShard(int, int, ShardTask)} would run more than one shard; callers run the task directly
+     * otherwise, which saves capturing it.
+     */
+    private boolean isSharded(int count, int minShardSize) {
+        return evaluationPool != null && getShardsCount(count, getShardSize(count, minShardSize)) > 1;
+    }
+
+    /**
+     * Splits {@code [0, count)} into shards of at least {@code minShardSize} elements and runs them on the evaluation
+     * pool, or runs the whole range on the calling thread when evaluation is sequential. Running on the pool allocates
+     * the shard tasks (and the caller's task and its state), so only sequential evaluation is free of allocations.
+     */
+    private void forEachShard(int count, int minShardSize, ShardTask shardTask) {
+        int shardSize = getShardSize(count, minShardSize);
+        int shardsCount = getShardsCount(count, shardSize);
+
+        if (evaluationPool == null || shardsCount < 2) {
+            shardTask.run(0, count);
+            return;
+        }
+
+        evaluationPool.submit(() -> IntStream.range(0, shardsCount)
+                        .parallel()
+                        .forEach(shard -> shardTask.run(shard * shardSize, Math.min(count, (shard + 1) * shardSize))))
+                .join();
+    }
+
+    private int getShardSize(int count, int minShardSize) {
+        return Math.max(minShardSize, (count + 4 * evaluationParallelism - 1) / (4 * evaluationParallelism));
+    }
+
+    private static int getShardsCount(int count, int shardSize) {
+        return (count + shardSize - 1) / shardSize;
+    }
+
+    @FunctionalInterface
+    private interface ShardTask {
+        void run(int fromIndex, int toIndex);
+    }
+}
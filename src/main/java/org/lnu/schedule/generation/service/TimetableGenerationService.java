@@ -1,854 +1,1101 @@
 package org.lnu.schedule.generation.service;
 
+import jdk.jfr.EventType;
+import lombok.extern.slf4j.Slf4j;
+import org.lnu.schedule.generation.metrics.OptimizationPassEvent;
+import org.lnu.schedule.generation.metrics.OptimizationPassListener;
+import org.lnu.schedule.generation.metrics.OptimizationPassStats;
+import org.lnu.schedule.generation.metrics.OptimizationPhase;
+import org.lnu.schedule.generation.metrics.SolverMetrics;
+import org.lnu.schedule.generation.metrics.TimetableEvaluationEvent;
 import org.lnu.schedule.generation.model.Day;
 import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.InitialTimetableMode;
 import org.lnu.schedule.generation.model.Lesson;
+import org.lnu.schedule.generation.model.LessonConflictGraph;
 import org.lnu.schedule.generation.model.LessonPeriodicity;
 import org.lnu.schedule.generation.model.LessonPlace;
+import org.lnu.schedule.generation.model.LessonPlaceCandidates;
 import org.lnu.schedule.generation.model.LessonRequirements;
 import org.lnu.schedule.generation.model.LessonTimeSlot;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.MoveAcceptanceMode;
+import org.lnu.schedule.generation.model.SolverControl;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
 import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableRequirementsDiff;
+import org.lnu.schedule.generation.model.TimetableSnapshot;
+import org.lnu.schedule.generation.model.TimetableState;
 import org.lnu.schedule.generation.util.LessonTimeSlotUtil;
+import org.lnu.schedule.generation.util.TimetableSnapshotCodec;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.Comparator.comparing;
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.PERIODICITIES_COUNT;
 
+@Slf4j
 @Service
 public class TimetableGenerationService {
-    private static final Random random = new Random();
     private static final Day[] days = Day.values();
 
-    private static final Comparator<Lesson> LESSON_COMPARATOR = comparing(Lesson::getDay)
-            .thenComparing(Lesson::getTimeSlot)
-            .thenComparing(Lesson::getPeriodicity);
-
     private static final Comparator<EvaluatedTimetable> TIMETABLE_COMPARATOR = comparing(EvaluatedTimetable::getPenalty);
 
+    // Events are only created while a recording enables them, so that passes do not allocate otherwise
+    private static final EventType PASS_EVENT_TYPE = EventType.getEventType(OptimizationPassEvent.class);
+    private static final EventType EVALUATION_EVENT_TYPE = EventType.getEventType(TimetableEvaluationEvent.class);
+
     private final LessonTimeSlotUtil lessonTimeSlotUtil;
 
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final SolverMetrics solverMetrics;
+    private final TimetableSnapshotCodec timetableSnapshotCodec;
+
     private final int iterationsMaxCount;
 
-    private final double lecturerConflictTimeSlotPenalty;
-    private final double lecturerConflictTimeSlotPenaltyPower;
-    private final double lecturerTimeWindowPenalty;
-    private final double lecturerTimeWindowPenaltyPower;
-    private final double lecturerTimeWindowPenaltyDayPower;
+    private final OptimizationPhase[] optimizationPhases;
+    private final int swapCandidatesCount;
+    private final int kempeChainMaxLength;
+
+    private final InitialTimetableMode initialTimetableMode;
+
+    private final MoveAcceptanceMode moveAcceptanceMode;
+    private final double annealingInitialTemperature;
+    private final double annealingCoolingRate;
+    private final int tabuTenure;
+    private final int lateAcceptanceHistoryLength;
+
+    private final int portfolioStartsCount;
+    private final int portfolioSyncIterations;
+    private final double portfolioCancelPenaltyRatio;
+
+    private final SolverControl defaultSolverControl;
+
+    private final int checkpointIterations;
 
-    private final double academicGroupConflictTimeSlotPenalty;
-    private final double academicGroupConflictTimeSlotPenaltyPower;
-    private final double academicGroupTimeWindowPenalty;
-    private final double academicGroupTimeWindowPenaltyPower;
-    private final double academicGroupTimeWindowPenaltyDayPower;
+    private final int reoptimizationScopeWidenings;
 
-    private final double placeConflictTimeSlotPenalty;
-    private final double placeConflictTimeSlotPenaltyPower;
+    private final boolean decompositionEnabled;
+    private final int decompositionParallelism;
 
     public TimetableGenerationService(
             LessonTimeSlotUtil lessonTimeSlotUtil,
+            TimetableEvaluationService timetableEvaluationService,
+            SolverMetrics solverMetrics,
+            TimetableSnapshotCodec timetableSnapshotCodec,
 
             @Value("${iterations.max-count}") int iterationsMaxCount,
 
-            @Value("${penalty.lecturer.conflict_time_slot}") double lecturerConflictTimeSlotPenalty,
-            @Value("${penalty.lecturer.conflict_time_slot.power}") double lecturerConflictTimeSlotPenaltyPower,
-            @Value("${penalty.lecturer.time_window}") double lecturerTimeWindowPenalty,
-            @Value("${penalty.lecturer.time_window.power}") double lecturerTimeWindowPenaltyPower,
-            @Value("${penalty.lecturer.time_window.power.day}") double lecturerTimeWindowPenaltyDayPower,
+            @Value("${optimization.phases}") OptimizationPhase[] optimizationPhases,
+            @Value("${moves.swap-candidates}") int swapCandidatesCount,
+            @Value("${moves.kempe-chain-max-length}") int kempeChainMaxLength,
 
-            @Value("${penalty.academic_group.conflict_time_slot}") double academicGroupConflictTimeSlotPenalty,
-            @Value("${penalty.academic_group.conflict_time_slot.power}") double academicGroupConflictTimeSlotPenaltyPower,
-            @Value("${penalty.academic_group.time_window}") double academicGroupTimeWindowPenalty,
-            @Value("${penalty.academic_group.time_window.power}") double academicGroupTimeWindowPenaltyPower,
-            @Value("${penalty.academic_group.time_window.power.day}") double academicGroupTimeWindowPenaltyDayPower,
+            @Value("${initial-timetable.mode}") InitialTimetableMode initialTimetableMode,
 
-            @Value("${penalty.place.conflict_time_slot}") double placeConflictTimeSlotPenalty,
-            @Value("${penalty.place.conflict_time_slot.power}") double placeConflictTimeSlotPenaltyPower
-    ) {
-        this.lessonTimeSlotUtil = lessonTimeSlotUtil;
+            @Value("${acceptance.mode}") MoveAcceptanceMode moveAcceptanceMode,
+            @Value("${acceptance.annealing.initial-temperature}") double annealingInitialTemperature,
+            @Value("${acceptance.annealing.cooling-rate}") double annealingCoolingRate,
+            @Value("${acceptance.tabu.tenure}") int tabuTenure,
+            @Value("${acceptance.late-acceptance.history-length}") int lateAcceptanceHistoryLength,
 
-        this.iterationsMaxCount = iterationsMaxCount;
+            @Value("${portfolio.starts-count}") int portfolioStartsCount,
+            @Value("${portfolio.sync-iterations}") int portfolioSyncIterations,
+            @Value("${portfolio.cancel-penalty-ratio}") double portfolioCancelPenaltyRatio,
 
-        this.lecturerConflictTimeSlotPenalty = lecturerConflictTimeSlotPenalty;
-        this.lecturerConflictTimeSlotPenaltyPower = lecturerConflictTimeSlotPenaltyPower;
-        this.lecturerTimeWindowPenalty = lecturerTimeWindowPenalty;
-        this.lecturerTimeWindowPenaltyPower = lecturerTimeWindowPenaltyPower;
-        this.lecturerTimeWindowPenaltyDayPower = lecturerTimeWindowPenaltyDayPower;
+            @Value("${solver.time-budget-ms}") long solverTimeBudgetMs,
+            @Value("${solver.stall-iterations}") int solverStallIterations,
+            @Value("${solver.target-penalty}") double solverTargetPenalty,
 
-        this.academicGroupConflictTimeSlotPenalty = academicGroupConflictTimeSlotPenalty;
-        this.academicGroupConflictTimeSlotPenaltyPower = academicGroupConflictTimeSlotPenaltyPower;
-        this.academicGroupTimeWindowPenalty = academicGroupTimeWindowPenalty;
-        this.academicGroupTimeWindowPenaltyPower = academicGroupTimeWindowPenaltyPower;
-        this.academicGroupTimeWindowPenaltyDayPower = academicGroupTimeWindowPenaltyDayPower;
+            @Value("${checkpoint.iterations}") int checkpointIterations,
 
-        this.placeConflictTimeSlotPenalty = placeConflictTimeSlotPenalty;
-        this.placeConflictTimeSlotPenaltyPower = placeConflictTimeSlotPenaltyPower;
-    }
+            @Value("${reoptimization.scope-widenings}") int reoptimizationScopeWidenings,
 
-    public EvaluatedTimetable generateTimetable(TimetableRequirements timetableRequirements) {
-        Lesson[] lessons = generateInitialTimetable(timetableRequirements);
-        EvaluatedTimetable timetable = evaluateTimetable(timetableRequirements, lessons);
+            @Value("${decomposition.enabled}") boolean decompositionEnabled,
+            @Value("${decomposition.parallelism}") int decompositionParallelism
+    ) {
+        this.lessonTimeSlotUtil = lessonTimeSlotUtil;
+        this.timetableEvaluationService = timetableEvaluationService;
+        this.solverMetrics = solverMetrics;
+        this.timetableSnapshotCodec = timetableSnapshotCodec;
 
-        timetable = optimizeSchedule(timetableRequirements, timetable);
+        this.iterationsMaxCount = iterationsMaxCount;
 
-        return timetable;
-    }
+        this.optimizationPhases = optimizationPhases;
+        this.swapCandidatesCount = swapCandidatesCount;
+        this.kempeChainMaxLength = kempeChainMaxLength;
 
-    private Lesson[] generateInitialTimetable(TimetableRequirements timetableRequirements) {
-        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
-        List<LessonTimeSlot> timeSlots = timetableRequirements.getTimeSlots();
-        List<LessonPlace> lessonPlaces = timetableRequirements.getLessonPlaces();
+        this.initialTimetableMode = initialTimetableMode;
 
-        List<Lesson> lessons = new ArrayList<>();
-        for (int i = 0; i < lessonRequirementsList.size(); ++i) {
-            LessonRequirements lessonRequirements = lessonRequirementsList.get(i);
-            double numberOfClassesPerWeek = lessonRequirements.getLessonsCountPerWeek();
+        this.moveAcceptanceMode = moveAcceptanceMode;
+        this.annealingInitialTemperature = annealingInitialTemperature;
+        this.annealingCoolingRate = annealingCoolingRate;
+        this.tabuTenure = tabuTenure;
+        this.lateAcceptanceHistoryLength = lateAcceptanceHistoryLength;
 
-            while (numberOfClassesPerWeek > 0) {
-                Day day = getRandomDay();
-                LessonTimeSlot timeSlot = getRandomTimeSlot(timeSlots);
-                int lessonPlaceIndex = getRandomPlace(lessonPlaces);
-
-                LessonPeriodicity lessonPeriodicity = getRandomLessonPeriodicity(numberOfClassesPerWeek);
-
-                Lesson lesson = Lesson.builder()
-                        .requirementsIndex(i)
-                        .day(day)
-                        .timeSlot(timeSlot)
-                        .placeIndex(lessonPlaceIndex)
-                        .periodicity(lessonPeriodicity)
-                        .build();
+        this.portfolioStartsCount = portfolioStartsCount;
+        this.portfolioSyncIterations = portfolioSyncIterations;
+        this.portfolioCancelPenaltyRatio = portfolioCancelPenaltyRatio;
 
-                lessons.add(lesson);
+        this.defaultSolverControl = SolverControl.builder()
+                .timeBudget(solverTimeBudgetMs > 0 ? Duration.ofMillis(solverTimeBudgetMs) : null)
+                .stallIterations(solverStallIterations)
+                .targetPenalty(solverTargetPenalty)
+                .build();
 
-                --numberOfClassesPerWeek;
-            }
-        }
+        this.checkpointIterations = checkpointIterations;
+
+        this.reoptimizationScopeWidenings = reoptimizationScopeWidenings;
 
-        return lessons.toArray(Lesson[]::new);
+        this.decompositionEnabled = decompositionEnabled;
+        this.decompositionParallelism = decompositionParallelism > 0
+                ? decompositionParallelism
+                : Runtime.getRuntime().availableProcessors();
     }
 
-    private EvaluatedTimetable evaluateTimetable(TimetableRequirements timetableRequirements, Lesson[] lessons) {
-        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+    /**
+     * Solver control configured by the {@code solver.*} properties, a base for {@link SolverControl#toBuilder()}.
+     */
+    public SolverControl getDefaultSolverControl() {
+        return defaultSolverControl;
+    }
 
-        Map<Integer, Set<Integer>> lecturerLessonsMap = new HashMap<>();
-        Map<Integer, Set<Integer>> academicGroupLessonsMap = new HashMap<>();
-        Map<Integer, Set<Integer>> placeLessonsMap = new HashMap<>();
+    public EvaluatedTimetable generateTimetable(TimetableRequirements timetableRequirements) {
+        return generateTimetable(timetableRequirements, defaultSolverControl);
+    }
 
-        Comparator<Integer> lessonIndexcomparator = (index1, index2) -> {
-            int comparisonResult = LESSON_COMPARATOR.compare(lessons[index1], lessons[index2]);
-            return comparisonResult == 0 ? index1 - index2 : comparisonResult;
-        };
+    public EvaluatedTimetable generateTimetable(TimetableRequirements timetableRequirements, SolverControl solverControl) {
+        SplittableRandom seedsRandom = new SplittableRandom();
 
-        for (int i = 0; i < lessons.length; ++i) {
-            Lesson lesson = lessons[i];
+        long[] seeds = new long[Math.max(1, portfolioStartsCount)];
+        for (int i = 0; i < seeds.length; ++i) {
+            seeds[i] = seedsRandom.nextLong();
+        }
 
-            LessonRequirements lessonRequirements = lessonRequirementsList.get(lesson.getRequirementsIndex());
-            int lecturerIndex = lessonRequirements.getLecturerIndex();
-            int placeIndex = lesson.getPlaceIndex();
-            Set<Integer> academicGroupIndexes = lessonRequirements.getAcademicGroupIndexes();
+        return generateTimetable(timetableRequirements, solverControl, seeds);
+    }
 
+    public EvaluatedTimetable generateTimetable(TimetableRequirements timetableRequirements, long... seeds) {
+        return generateTimetable(timetableRequirements, defaultSolverControl, seeds);
+    }
 
-            Set<Integer> lecturerLessonIndexes = lecturerLessonsMap.get(lecturerIndex);
-            if (lecturerLessonIndexes == null) {
-                lecturerLessonIndexes = new TreeSet<>(lessonIndexcomparator);
-                lecturerLessonsMap.put(lecturerIndex, lecturerLessonIndexes);
+    /**
+     * Runs one independent start per seed, concurrently when there are several, and returns the best timetable (the
+     * first one in seed order on ties). Without a time budget or cancellation the same seeds always give the same
+     * result. The timetable has an occupancy index of its own, detached from the buffers of the runs, so it can be
+     * kept and later passed to {@link #reoptimizeTimetable(TimetableRequirements, EvaluatedTimetable,
+     * TimetableRequirements)}.
+     * <p>
+     * With a {@link SolverControl#getCheckpointPath() checkpoint path} the first start resumes from the snapshot saved
+     * there for the same requirements, if any, and the best timetable is saved there periodically and at the end.
+     * Otherwise requirements that fall apart into groups sharing no lecturer and no academic group are solved group by
+     * group when {@code decomposition.enabled} is set.
+     */
+    public EvaluatedTimetable generateTimetable(TimetableRequirements timetableRequirements, SolverControl solverControl,
+                                                long... seeds) {
+        if (decompositionEnabled && solverControl.getCheckpointPath() == null) {
+            TimetableDecomposition decomposition = TimetableDecomposition.of(timetableRequirements);
+            if (decomposition.getComponentsCount() > 1) {
+                return generateDecomposedTimetable(timetableRequirements, decomposition, solverControl, seeds);
             }
-            lecturerLessonIndexes.add(i);
+        }
 
-            for (int academicGroupIndex : academicGroupIndexes) {
-                Set<Integer> academicGroupLessonIndexes = academicGroupLessonsMap.get(academicGroupIndex);
-                if (academicGroupLessonIndexes == null) {
-                    academicGroupLessonIndexes = new TreeSet<>(lessonIndexcomparator);
-                    academicGroupLessonsMap.put(academicGroupIndex, academicGroupLessonIndexes);
-                }
-                academicGroupLessonIndexes.add(i);
-            }
+        LessonTimeSlotGrid timeSlotGrid = lessonTimeSlotUtil.compileTimeSlots(timetableRequirements);
 
+        Path checkpointPath = solverControl.getCheckpointPath();
+        TimetableState resumedState = null;
+        TimetableCheckpointWriter checkpointWriter = null;
+        if (checkpointPath != null) {
+            long requirementsHash = timetableSnapshotCodec.hashRequirements(timetableRequirements);
 
-            Set<Integer> placeLessonIndexes = placeLessonsMap.get(placeIndex);
-            if (placeLessonIndexes == null) {
-                placeLessonIndexes = new TreeSet<>(lessonIndexcomparator);
-                placeLessonsMap.put(placeIndex, placeLessonIndexes);
-            }
-            placeLessonIndexes.add(i);
+            resumedState = readCheckpoint(checkpointPath, requirementsHash);
+            checkpointWriter = new TimetableCheckpointWriter(timetableSnapshotCodec, checkpointPath, requirementsHash);
         }
 
-        double penalty = 0;
-        double[] lessonPenalties = new double[lessons.length];
-
-        for (Entry<Integer, Set<Integer>> lecturerLessonsEntry : lecturerLessonsMap.entrySet()) {
-            int lecturerIndex = lecturerLessonsEntry.getKey();
-            Set<Integer> lessonIndexes = lecturerLessonsEntry.getValue();
+        TimetableSolverProgress solverProgress = new TimetableSolverProgress(solverControl, seeds.length,
+                checkpointWriter, checkpointIterations, timetableState ->
+                timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid, timetableState));
+
+        EvaluatedTimetable timetable = null;
+        try {
+            timetable = seeds.length == 1
+                    ? generateTimetable(timetableRequirements, timeSlotGrid, resumedState, new SplittableRandom(seeds[0]),
+                            solverProgress, null, 0)
+                    : generatePortfolioTimetable(timetableRequirements, timeSlotGrid, resumedState, solverProgress, seeds);
+
+            return timetable;
+        } finally {
+            if (checkpointWriter != null) {
+                if (timetable != null) {
+                    checkpointWriter.close(timetable.getTimetableState(), timetable.getPenalty());
+                } else {
+                    checkpointWriter.close();
+                }
+            }
+        }
+    }
 
-            double conflictTimeSlotsCount = 0;
-            double timeWindowCount = 0;
+    public EvaluatedTimetable reoptimizeTimetable(TimetableRequirements previousRequirements,
+                                                  EvaluatedTimetable previousTimetable,
+                                                  TimetableRequirements timetableRequirements) {
+        return reoptimizeTimetable(previousRequirements, previousTimetable, timetableRequirements,
+                TimetableRequirementsDiff.between(previousRequirements, timetableRequirements), defaultSolverControl,
+                new SplittableRandom().nextLong());
+    }
 
-            Iterator<Integer> lessonIndexIterator = lessonIndexes.iterator();
-            Lesson prevLesson = null;
-            int firstLessonIndex = 0;
-            List<Integer> conflictTimeSlotLessonIndexes = new ArrayList<>();
-            List<Integer> timeWindowLessonIndexes = new ArrayList<>();
-            while (lessonIndexIterator.hasNext()) {
-                double timeWindowDayCount = 0;
+    public EvaluatedTimetable reoptimizeTimetable(TimetableRequirements previousRequirements,
+                                                  EvaluatedTimetable previousTimetable,
+                                                  TimetableRequirements timetableRequirements, long seed) {
+        return reoptimizeTimetable(previousRequirements, previousTimetable, timetableRequirements,
+                TimetableRequirementsDiff.between(previousRequirements, timetableRequirements), defaultSolverControl,
+                seed);
+    }
 
-                List<Integer> dayLessonIndexes = new ArrayList<>();
-                if (firstLessonIndex != 0) {
-                    dayLessonIndexes.add(firstLessonIndex);
-                }
+    /**
+     * Re-optimizes a published timetable after a small change of its requirements instead of generating a new one.
+     * <p>
+     * Lessons of unchanged requirements keep their day, time slot and place, lessons of changed requirements keep them
+     * as far as the new lessons count allows, and only the remaining lessons are placed randomly. Optimization then
+     * moves only the lessons of the lecturers, academic groups and places the change touched, widening to their
+     * neighbours up to {@code reoptimization.scope-widenings} times whenever an iteration stops improving, and accepts
+     * only moves that lower the penalty, so the result differs from the previous timetable as little as possible.
+     * The seed drives the random placements, so without a time budget or cancellation the same change and seed always
+     * give the same result. Checkpoints are not written.
+     */
+    public EvaluatedTimetable reoptimizeTimetable(TimetableRequirements previousRequirements,
+                                                  EvaluatedTimetable previousTimetable,
+                                                  TimetableRequirements timetableRequirements,
+                                                  TimetableRequirementsDiff requirementsDiff, SolverControl solverControl,
+                                                  long seed) {
+        LessonTimeSlotGrid timeSlotGrid = lessonTimeSlotUtil.compileTimeSlots(timetableRequirements);
+
+        boolean[] seededLessons = new boolean[countLessons(timetableRequirements.getLessonRequirementsList())];
+        boolean[] keptPreviousLessons = new boolean[previousTimetable.getTimetableState().getLessonsCount()];
+
+        TimetableState timetableState = generateWarmStartTimetable(previousRequirements, previousTimetable,
+                timetableRequirements, timeSlotGrid, requirementsDiff, new SplittableRandom(seed), seededLessons,
+                keptPreviousLessons);
+        EvaluatedTimetable timetable = timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid,
+                timetableState);
+
+        boolean[] movableLessons = getChangedLessons(previousRequirements, previousTimetable, timetableRequirements,
+                requirementsDiff, timetable.getOccupancyIndex(), seededLessons, keptPreviousLessons);
+        TimetableRepairScope repairScope = new TimetableRepairScope(movableLessons, reoptimizationScopeWidenings);
+
+        TimetableSolverProgress solverProgress = new TimetableSolverProgress(solverControl, 1, null,
+                checkpointIterations, state ->
+                timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid, state));
+
+        return optimizeSchedule(timetableRequirements, timetable, solverProgress, null, 0, repairScope,
+                new DescentMoveAcceptance());
+    }
 
-                while (lessonIndexIterator.hasNext()) {
-                    int lessonIndex = lessonIndexIterator.next();
-                    Lesson lesson = lessons[lessonIndex];
-                    LessonTimeSlot lessonTimeSlot = lesson.getTimeSlot();
-                    LessonPeriodicity lessonPeriodicity = lesson.getPeriodicity();
-
-                    boolean isNewDay = false;
-                    if (prevLesson != null) {
-                        if (lesson.getDay() == prevLesson.getDay()) {
-                            dayLessonIndexes.add(lessonIndex);
-
-                            LessonTimeSlot prevLessonTimeSlot = prevLesson.getTimeSlot();
-                            LessonPeriodicity prevLessonPeriodicity = prevLesson.getPeriodicity();
-
-                            if (lessonTimeSlotUtil.isConflict(prevLessonTimeSlot, lessonTimeSlot)) {
-                                if (lessonPeriodicity == prevLessonPeriodicity) {
-                                    if (lessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                        ++conflictTimeSlotsCount;
-                                        conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                    } else {
-                                        conflictTimeSlotsCount += 0.5;
-                                        conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                    }
-                                } else if (lessonPeriodicity == LessonPeriodicity.WEEKLY || prevLessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                    conflictTimeSlotsCount += 0.5;
-                                    conflictTimeSlotLessonIndexes.add(lessonIndex);
+    /**
+     * Solves the components concurrently, the largest ones first, on up to {@code decomposition.parallelism} threads,
+     * merges their timetables and then runs place passes over the whole timetable until they stop improving, which
+     * moves lessons of different components out of the places they share at the same time.
+     * <p>
+     * Components share the deadline and the cancellation token. Every one of them stops at its share of the target
+     * penalty, in proportion to its lessons count, so that their penalties add up to at most the target; the target
+     * itself applies to the merged timetable only, which also pays for the place clashes between components. The pass
+     * listener receives the sum of the latest penalties of the components, the improvement listener only the merged
+     * timetables.
+     */
+    private EvaluatedTimetable generateDecomposedTimetable(TimetableRequirements timetableRequirements,
+                                                           TimetableDecomposition decomposition,
+                                                           SolverControl solverControl, long[] seeds) {
+        int componentsCount = decomposition.getComponentsCount();
+        log.debug("Solving {} components separately", componentsCount);
+
+        Duration timeBudget = solverControl.getTimeBudget();
+        long deadlineNanos = timeBudget == null ? 0 : System.nanoTime() + timeBudget.toNanos();
+
+        OptimizationPassListener passListener = solverControl.getPassListener();
+        double[] componentPenalties = new double[componentsCount];
+        double[] componentPenaltiesSum = new double[1];
+
+        Integer[] componentIndexes = new Integer[componentsCount];
+        int[] componentLessonsCounts = new int[componentsCount];
+        int lessonsCount = 0;
+        for (int i = 0; i < componentsCount; ++i) {
+            componentIndexes[i] = i;
+            componentLessonsCounts[i] = decomposition.getLessonsCount(i);
+            lessonsCount += componentLessonsCounts[i];
+        }
+        int totalLessonsCount = Math.max(1, lessonsCount);
+        Arrays.sort(componentIndexes, (componentIndex1, componentIndex2) ->
+                Integer.compare(componentLessonsCounts[componentIndex2], componentLessonsCounts[componentIndex1]));
+
+        List<TimetableState> componentStates = new ArrayList<>(componentsCount);
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(componentsCount,
+                decompositionParallelism));
+        try {
+            List<Future<EvaluatedTimetable>> futures = new ArrayList<>(Collections.nCopies(componentsCount, null));
+            for (int componentIndex : componentIndexes) {
+                futures.set(componentIndex, executorService.submit(() -> {
+                    SolverControl.SolverControlBuilder componentSolverControl = solverControl.toBuilder()
+                            .targetPenalty(solverControl.getTargetPenalty() * componentLessonsCounts[componentIndex]
+                                    / totalLessonsCount)
+                            .improvementListener(null)
+                            .passListener(passListener == null ? null : (runIndex, iteration, phase, penalty, passStats) -> {
+                                // A running sum, so that a pass of a component does not allocate
+                                synchronized (componentPenalties) {
+                                    componentPenaltiesSum[0] += penalty - componentPenalties[componentIndex];
+                                    componentPenalties[componentIndex] = penalty;
+                                    passListener.onPass(runIndex, iteration, phase, componentPenaltiesSum[0],
+                                            passStats);
                                 }
-                            }
-
-                            if (lessonTimeSlotUtil.isWindow(prevLessonTimeSlot, lessonTimeSlot)) {
-                                ++timeWindowDayCount;
-                            }
-                        } else {
-                            isNewDay = true;
-                            firstLessonIndex = lessonIndex;
-                        }
+                            });
+                    if (timeBudget != null) {
+                        componentSolverControl.timeBudget(Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime())));
                     }
 
-                    prevLesson = lesson;
-                    if (isNewDay) {
-                        break;
-                    }
-                }
-
-                if (timeWindowDayCount > 0) {
-                    timeWindowDayCount = Math.pow(timeWindowDayCount, lecturerTimeWindowPenaltyDayPower);
-
-                    timeWindowCount += timeWindowDayCount;
-
-                    timeWindowLessonIndexes.addAll(dayLessonIndexes);
-                }
+                    return generateTimetable(decomposition.getComponentRequirements(componentIndex),
+                            componentSolverControl.build(), seeds);
+                }));
             }
 
-            if (conflictTimeSlotsCount > 0) {
-                conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, lecturerConflictTimeSlotPenaltyPower);
+            for (Future<EvaluatedTimetable> future : futures) {
+                componentStates.add(future.get().getTimetableState());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
 
-                double conflictTimeSlotPenalty = conflictTimeSlotsCount * lecturerConflictTimeSlotPenalty;
-                penalty += conflictTimeSlotPenalty;
+        LessonTimeSlotGrid timeSlotGrid = lessonTimeSlotUtil.compileTimeSlots(timetableRequirements);
 
-                double conflictTimeSlotPenaltyPerLesson = conflictTimeSlotPenalty / conflictTimeSlotLessonIndexes.size();
-                for (int lessonIndex : conflictTimeSlotLessonIndexes) {
-                    lessonPenalties[lessonIndex] += conflictTimeSlotPenaltyPerLesson;
-                }
+        SolverControl repairSolverControl = timeBudget == null
+                ? solverControl
+                : solverControl.toBuilder()
+                        .timeBudget(Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime())))
+                        .build();
+        TimetableSolverProgress solverProgress = new TimetableSolverProgress(repairSolverControl, 1, null,
+                checkpointIterations, timetableState ->
+                timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid, timetableState));
+
+        EvaluatedTimetable timetable = timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid,
+                decomposition.merge(componentStates));
+        log.debug("Merged penalty: {}", timetable.getPenalty());
+        solverProgress.offer(0, timetable);
+
+        TimetableSolverScratch solverScratch = createSolverScratch(timetableRequirements,
+                timetable.getOccupancyIndex());
+
+        // At least one pass runs even past the deadline, the merged timetable may have many place conflicts
+        for (int iteration = 0; iteration < iterationsMaxCount; ++iteration) {
+            if (timetable.getPenalty() <= solverProgress.getTargetPenalty()
+                    || iteration > 0 && solverProgress.isStopped()) {
+                break;
             }
 
-            if (timeWindowCount > 0) {
-                timeWindowCount = Math.pow(timeWindowCount, lecturerTimeWindowPenaltyPower);
+            double penalty = timetable.getPenalty();
+            timetable = runPass(OptimizationPhase.PLACE, timetable, solverScratch, solverProgress, 0, iteration, null,
+                    new DescentMoveAcceptance());
+            solverProgress.offer(0, timetable);
 
-                double timeWindowPenalty = timeWindowCount * lecturerTimeWindowPenalty;
-                penalty += timeWindowPenalty;
-
-                double timeWindowPenaltyPerLesson = timeWindowPenalty / timeWindowLessonIndexes.size();
-                for (int lessonIndex : timeWindowLessonIndexes) {
-                    lessonPenalties[lessonIndex] += timeWindowPenaltyPerLesson;
-                }
+            if (timetable.getPenalty() >= penalty) {
+                break;
             }
         }
 
-        for (Entry<Integer, Set<Integer>> academicGroupLessonsEntry : academicGroupLessonsMap.entrySet()) {
-            int academicGroupIndex = academicGroupLessonsEntry.getKey();
-            Set<Integer> lessonIndexes = academicGroupLessonsEntry.getValue();
+        return solverProgress.getBestTimetable(0, timetable);
+    }
 
-            double conflictTimeSlotsCount = 0;
-            double timeWindowCount = 0;
+    private EvaluatedTimetable generatePortfolioTimetable(TimetableRequirements timetableRequirements,
+                                                          LessonTimeSlotGrid timeSlotGrid, TimetableState resumedState,
+                                                          TimetableSolverProgress solverProgress, long[] seeds) {
+
+        TimetablePortfolioRace portfolioRace = new TimetablePortfolioRace(seeds.length, portfolioSyncIterations,
+                portfolioCancelPenaltyRatio);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(seeds.length);
+        try {
+            List<Future<EvaluatedTimetable>> futures = new ArrayList<>(seeds.length);
+            for (int i = 0; i < seeds.length; ++i) {
+                int runIndex = i;
+                TimetableState runResumedState = i == 0 ? resumedState : null;
+                SplittableRandom random = new SplittableRandom(seeds[i]);
+
+                futures.add(executorService.submit(() -> {
+                    EvaluatedTimetable timetable = null;
+                    try {
+                        timetable = generateTimetable(timetableRequirements, timeSlotGrid, runResumedState, random,
+                                solverProgress, portfolioRace, runIndex);
+                        return timetable;
+                    } finally {
+                        portfolioRace.finish(runIndex, timetable == null ? Double.MAX_VALUE : timetable.getPenalty());
+                    }
+                }));
+            }
 
-            Iterator<Integer> lessonIndexIterator = lessonIndexes.iterator();
-            Lesson prevLesson = null;
-            int firstLessonIndex = 0;
-            List<Integer> conflictTimeSlotLessonIndexes = new ArrayList<>();
-            List<Integer> timeWindowLessonIndexes = new ArrayList<>();
-            while (lessonIndexIterator.hasNext()) {
-                double timeWindowDayCount = 0;
+            List<EvaluatedTimetable> timetables = new ArrayList<>(seeds.length);
+            for (Future<EvaluatedTimetable> future : futures) {
+                timetables.add(future.get());
+            }
 
-                List<Integer> dayLessonIndexes = new ArrayList<>();
-                if (firstLessonIndex != 0) {
-                    dayLessonIndexes.add(firstLessonIndex);
-                }
+            return timetables.stream()
+                    .min(TIMETABLE_COMPARATOR)
+                    .orElseThrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 
-                while (lessonIndexIterator.hasNext()) {
-                    int lessonIndex = lessonIndexIterator.next();
-                    Lesson lesson = lessons[lessonIndex];
-                    LessonTimeSlot lessonTimeSlot = lesson.getTimeSlot();
-                    LessonPeriodicity lessonPeriodicity = lesson.getPeriodicity();
-
-                    boolean isNewDay = false;
-                    if (prevLesson != null) {
-                        if (lesson.getDay() == prevLesson.getDay()) {
-                            dayLessonIndexes.add(lessonIndex);
-
-                            LessonTimeSlot prevLessonTimeSlot = prevLesson.getTimeSlot();
-                            LessonPeriodicity prevLessonPeriodicity = prevLesson.getPeriodicity();
-
-                            if (lessonTimeSlotUtil.isConflict(prevLessonTimeSlot, lessonTimeSlot)) {
-                                if (lessonPeriodicity == prevLessonPeriodicity) {
-                                    if (lessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                        ++conflictTimeSlotsCount;
-                                        conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                    } else {
-                                        conflictTimeSlotsCount += 0.5;
-                                        conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                    }
-                                } else if (lessonPeriodicity == LessonPeriodicity.WEEKLY || prevLessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                    conflictTimeSlotsCount += 0.5;
-                                    conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                }
-                            }
-
-                            if (lessonTimeSlotUtil.isWindow(prevLessonTimeSlot, lessonTimeSlot)) {
-                                ++timeWindowDayCount;
-                            }
-                        } else {
-                            isNewDay = true;
-                            firstLessonIndex = lessonIndex;
-                        }
-                    }
+    private EvaluatedTimetable generateTimetable(TimetableRequirements timetableRequirements, LessonTimeSlotGrid timeSlotGrid,
+                                                 TimetableState resumedState, SplittableRandom random,
+                                                 TimetableSolverProgress solverProgress,
+                                                 TimetablePortfolioRace portfolioRace, int runIndex) {
 
-                    prevLesson = lesson;
-                    if (isNewDay) {
-                        break;
-                    }
-                }
+        TimetableState timetableState = resumedState != null
+                ? resumedState
+                : generateInitialTimetable(timetableRequirements, timeSlotGrid, random);
+        EvaluatedTimetable timetable = timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid,
+                timetableState);
 
-                if (timeWindowDayCount > 0) {
-                    timeWindowDayCount = Math.pow(timeWindowDayCount, academicGroupTimeWindowPenaltyDayPower);
+        timetable = optimizeSchedule(timetableRequirements, timetable, solverProgress, portfolioRace, runIndex, null,
+                createMoveAcceptance(timetableState.getLessonsCount(), random));
 
-                    timeWindowCount += timeWindowDayCount;
+        return timetable;
+    }
 
-                    timeWindowLessonIndexes.addAll(dayLessonIndexes);
-                }
+    /**
+     * Lesson assignments of the snapshot at {@code checkpointPath}, or {@code null} if there is none or it was saved
+     * for different requirements.
+     */
+    private TimetableState readCheckpoint(Path checkpointPath, long requirementsHash) {
+        if (!Files.exists(checkpointPath)) {
+            return null;
+        }
+
+        try {
+            TimetableSnapshot snapshot = timetableSnapshotCodec.read(checkpointPath);
+            if (snapshot.getRequirementsHash() != requirementsHash) {
+                log.warn("Checkpoint {} was saved for different requirements, starting from scratch", checkpointPath);
+                return null;
             }
 
-            if (conflictTimeSlotsCount > 0) {
-                conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, academicGroupConflictTimeSlotPenaltyPower);
+            log.info("Resuming from checkpoint {} with penalty {}", checkpointPath, snapshot.getPenalty());
+            return snapshot.getTimetableState();
+        } catch (IOException e) {
+            log.warn("Could not read checkpoint {}, starting from scratch", checkpointPath, e);
+            return null;
+        }
+    }
 
-                double conflictTimeSlotPenalty = conflictTimeSlotsCount * academicGroupConflictTimeSlotPenalty;
-                penalty += conflictTimeSlotPenalty;
+    TimetableMoveAcceptance createMoveAcceptance(int lessonsCount, SplittableRandom random) {
+        return switch (moveAcceptanceMode) {
+            case DESCENT -> new DescentMoveAcceptance();
+            case SIMULATED_ANNEALING -> new SimulatedAnnealingMoveAcceptance(timetableEvaluationService, random,
+                    annealingInitialTemperature, annealingCoolingRate);
+            case TABU -> new TabuMoveAcceptance(timetableEvaluationService, lessonsCount, tabuTenure);
+            case LATE_ACCEPTANCE -> new LateAcceptanceMoveAcceptance(timetableEvaluationService,
+                    lateAcceptanceHistoryLength);
+        };
+    }
 
-                double conflictTimeSlotPenaltyPerLesson = conflictTimeSlotPenalty / conflictTimeSlotLessonIndexes.size();
-                for (int lessonIndex : conflictTimeSlotLessonIndexes) {
-                    lessonPenalties[lessonIndex] += conflictTimeSlotPenaltyPerLesson;
-                }
-            }
+    TimetableState generateInitialTimetable(TimetableRequirements timetableRequirements, LessonTimeSlotGrid timeSlotGrid,
+                                            SplittableRandom random) {
+        TimetableState timetableState = generateRandomInitialTimetable(timetableRequirements, timeSlotGrid, random);
 
-            if (timeWindowCount > 0) {
-                timeWindowCount = Math.pow(timeWindowCount, academicGroupTimeWindowPenaltyPower);
+        return switch (initialTimetableMode) {
+            case RANDOM -> timetableState;
+            case GREEDY -> new TimetableGreedyConstruction(timetableEvaluationService, timetableRequirements,
+                    timeSlotGrid, timetableState, random).construct();
+        };
+    }
 
-                double timeWindowPenalty = timeWindowCount * academicGroupTimeWindowPenalty;
-                penalty += timeWindowPenalty;
+    private TimetableState generateRandomInitialTimetable(TimetableRequirements timetableRequirements,
+                                                          LessonTimeSlotGrid timeSlotGrid, SplittableRandom random) {
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+        LessonPlaceCandidates placeCandidates = timetableRequirements.getLessonPlaceCandidates(timeSlotGrid);
+        int[] candidatePlaceIndexes = new int[timetableRequirements.getLessonPlaces().size()];
+        int[] timeSlotOrdinals = timeSlotGrid.getTimeSlotOrdinals();
 
-                double timeWindowPenaltyPerLesson = timeWindowPenalty / timeWindowLessonIndexes.size();
-                for (int lessonIndex : timeWindowLessonIndexes) {
-                    lessonPenalties[lessonIndex] += timeWindowPenaltyPerLesson;
-                }
-            }
-        }
+        TimetableState timetableState = new TimetableState(countLessons(lessonRequirementsList));
 
-        for (Entry<Integer, Set<Integer>> placeLessonsEntry : placeLessonsMap.entrySet()) {
-            int placeIndex = placeLessonsEntry.getKey();
-            Set<Integer> lessonIndexes = placeLessonsEntry.getValue();
-
-            double conflictTimeSlotsCount = 0;
-
-            Iterator<Integer> lessonIndexIterator = lessonIndexes.iterator();
-            Lesson prevLesson = null;
-            List<Integer> conflictTimeSlotLessonIndexes = new ArrayList<>();
-            while (lessonIndexIterator.hasNext()) {
-                while (lessonIndexIterator.hasNext()) {
-                    int lessonIndex = lessonIndexIterator.next();
-                    Lesson lesson = lessons[lessonIndex];
-                    LessonTimeSlot lessonTimeSlot = lesson.getTimeSlot();
-                    LessonPeriodicity lessonPeriodicity = lesson.getPeriodicity();
-
-                    boolean isNewDay = false;
-                    if (prevLesson != null) {
-                        LessonTimeSlot prevLessonTimeSlot = prevLesson.getTimeSlot();
-
-                        if (lesson.getDay() == prevLesson.getDay()) {
-                            LessonPeriodicity prevLessonPeriodicity = prevLesson.getPeriodicity();
-
-                            if (lessonTimeSlotUtil.isConflict(prevLessonTimeSlot, lessonTimeSlot)) {
-                                if (lessonPeriodicity == prevLessonPeriodicity) {
-                                    if (lessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                        ++conflictTimeSlotsCount;
-                                        conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                    } else {
-                                        conflictTimeSlotsCount += 0.5;
-                                        conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                    }
-                                } else if (lessonPeriodicity == LessonPeriodicity.WEEKLY || prevLessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                    conflictTimeSlotsCount += 0.5;
-                                    conflictTimeSlotLessonIndexes.add(lessonIndex);
-                                }
-                            }
-                        } else {
-                            isNewDay = true;
-                        }
-                    }
+        int lessonIndex = 0;
+        for (int i = 0; i < lessonRequirementsList.size(); ++i) {
+            LessonRequirements lessonRequirements = lessonRequirementsList.get(i);
+            double numberOfClassesPerWeek = lessonRequirements.getLessonsCountPerWeek();
 
-                    prevLesson = lesson;
-                    if (isNewDay) {
-                        break;
-                    }
-                }
-            }
+            while (numberOfClassesPerWeek > 0) {
+                Day day = getRandomDay(random);
+                int timeSlotOrdinal = getRandomTimeSlot(random, timeSlotOrdinals);
+                int lessonPlaceIndex = getRandomPlace(random, placeCandidates, candidatePlaceIndexes, i,
+                        timeSlotOrdinal);
 
-            if (conflictTimeSlotsCount > 0) {
-                conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, placeConflictTimeSlotPenaltyPower);
+                LessonPeriodicity lessonPeriodicity = getRandomLessonPeriodicity(random, numberOfClassesPerWeek);
 
-                double conflictTimeSlotPenalty = conflictTimeSlotsCount * placeConflictTimeSlotPenalty;
-                penalty += conflictTimeSlotPenalty;
+                timetableState.setLesson(lessonIndex, i, day.ordinal(), timeSlotOrdinal, lessonPlaceIndex,
+                        lessonPeriodicity.ordinal());
 
-                double conflictTimeSlotPenaltyPerLesson = conflictTimeSlotPenalty / conflictTimeSlotLessonIndexes.size();
-                for (int lessonIndex : conflictTimeSlotLessonIndexes) {
-                    lessonPenalties[lessonIndex] += conflictTimeSlotPenaltyPerLesson;
-                }
+                ++lessonIndex;
+                --numberOfClassesPerWeek;
             }
         }
 
-        return new EvaluatedTimetable(lessons, penalty, lessonPenalties, lecturerLessonsMap, academicGroupLessonsMap, placeLessonsMap, lessonIndexcomparator);
-//        return new EvaluatedTimetable(lessons, penalty, lessonPenalties);
+        return timetableState;
     }
 
+    /**
+     * Places the lessons of the new requirements where the previous lessons of the requirements they continue were.
+     * Lessons without such a position (added ones, extra ones of changed requirements and those whose time slot or
+     * place no longer exists) are placed randomly and marked in {@code seededLessons}, as well as the ones whose
+     * periodicity had to change and the ones that keep their time but may no longer use their place, which get a random
+     * candidate place. The previous lessons that were reused are marked in {@code keptPreviousLessons}.
+     */
+    private TimetableState generateWarmStartTimetable(TimetableRequirements previousRequirements,
+                                                      EvaluatedTimetable previousTimetable,
+                                                      TimetableRequirements timetableRequirements,
+                                                      LessonTimeSlotGrid timeSlotGrid,
+                                                      TimetableRequirementsDiff requirementsDiff, SplittableRandom random,
+                                                      boolean[] seededLessons, boolean[] keptPreviousLessons) {
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+        List<LessonPlace> lessonPlaces = timetableRequirements.getLessonPlaces();
+        LessonPlaceCandidates placeCandidates = timetableRequirements.getLessonPlaceCandidates(timeSlotGrid);
+        int[] candidatePlaceIndexes = new int[lessonPlaces.size()];
+        int[] timeSlotOrdinals = timeSlotGrid.getTimeSlotOrdinals();
+
+        TimetableState previousState = previousTimetable.getTimetableState();
+        LessonTimeSlot[] previousTimeSlots = previousTimetable.getOccupancyIndex().getTimeSlotGrid().getOrderedTimeSlots();
 
-    private EvaluatedTimetable optimizeSchedule(TimetableRequirements timetableRequirements, EvaluatedTimetable schedule) {
-        System.out.println("Initial penalty: " + schedule.getPenalty());
+        List<List<Integer>> previousLessons = new ArrayList<>();
+        for (int i = 0; i < previousRequirements.getLessonRequirementsList().size(); ++i) {
+            previousLessons.add(new ArrayList<>());
+        }
+        for (int i = 0; i < previousState.getLessonsCount(); ++i) {
+            previousLessons.get(previousState.getRequirementsIndexes()[i]).add(i);
+        }
 
-        EvaluatedTimetable optimizedSchedule = schedule;
-        int iterNum = 0;
-        while (optimizedSchedule.getPenalty() > 0 && iterNum < iterationsMaxCount) {
-            System.out.println("Iteration: " + iterNum);
+        TimetableState timetableState = new TimetableState(seededLessons.length);
 
-            optimizedSchedule = optimizeScheduleByDayAndTimeSlot(timetableRequirements, optimizedSchedule);
-            System.out.println(optimizedSchedule.getPenalty());
-            if (optimizedSchedule.getPenalty() == 0) {
-                break;
-            }
+        int lessonIndex = 0;
+        for (int i = 0; i < lessonRequirementsList.size(); ++i) {
+            int previousRequirementsIndex = requirementsDiff.getPreviousRequirementsIndexes()[i];
+            List<Integer> requirementsPreviousLessons = requirementsDiff.isAdded(i)
+                    ? List.of()
+                    : previousLessons.get(previousRequirementsIndex);
+
+            double numberOfClassesPerWeek = lessonRequirementsList.get(i).getLessonsCountPerWeek();
+
+            for (int j = 0; numberOfClassesPerWeek > 0; ++j, ++lessonIndex, --numberOfClassesPerWeek) {
+                int previousLessonIndex = j < requirementsPreviousLessons.size() ? requirementsPreviousLessons.get(j) : -1;
+                int timeSlotOrdinal = previousLessonIndex < 0 ? -1 : timeSlotGrid.getTimeSlotOrdinal(
+                        previousTimeSlots[previousState.getTimeSlotOrdinals()[previousLessonIndex]]);
+
+                if (timeSlotOrdinal < 0 || previousState.getPlaceIndexes()[previousLessonIndex] >= lessonPlaces.size()) {
+                    Day day = getRandomDay(random);
+                    int randomTimeSlotOrdinal = getRandomTimeSlot(random, timeSlotOrdinals);
+                    int lessonPlaceIndex = getRandomPlace(random, placeCandidates, candidatePlaceIndexes, i,
+                            randomTimeSlotOrdinal);
+
+                    LessonPeriodicity lessonPeriodicity = getRandomLessonPeriodicity(random, numberOfClassesPerWeek);
+
+                    timetableState.setLesson(lessonIndex, i, day.ordinal(), randomTimeSlotOrdinal,
+                            lessonPlaceIndex, lessonPeriodicity.ordinal());
+                    seededLessons[lessonIndex] = true;
+                    continue;
+                }
 
-            optimizedSchedule = optimizeScheduleByPlace(timetableRequirements, optimizedSchedule);
-            System.out.println(optimizedSchedule.getPenalty());
+                int previousPeriodicityOrdinal = previousState.getPeriodicityOrdinals()[previousLessonIndex];
+                int periodicityOrdinal = numberOfClassesPerWeek < 1
+                        && previousPeriodicityOrdinal != LessonPeriodicity.WEEKLY.ordinal()
+                        ? previousPeriodicityOrdinal
+                        : getRandomLessonPeriodicity(random, numberOfClassesPerWeek).ordinal();
 
-            ++iterNum;
+                int lessonPlaceIndex = previousState.getPlaceIndexes()[previousLessonIndex];
+                boolean candidatePlace = placeCandidates.isCandidate(i, timeSlotOrdinal, lessonPlaceIndex);
+                if (!candidatePlace) {
+                    lessonPlaceIndex = getRandomPlace(random, placeCandidates, candidatePlaceIndexes, i, timeSlotOrdinal);
+                }
+
+                timetableState.setLesson(lessonIndex, i, previousState.getDayOrdinals()[previousLessonIndex],
+                        timeSlotOrdinal, lessonPlaceIndex, periodicityOrdinal);
+                seededLessons[lessonIndex] = periodicityOrdinal != previousPeriodicityOrdinal || !candidatePlace;
+                keptPreviousLessons[previousLessonIndex] = true;
+            }
         }
-        ;
 
-        return optimizedSchedule;
+        return timetableState;
     }
 
-    private EvaluatedTimetable optimizeScheduleByDayAndTimeSlot(TimetableRequirements timetableRequirements, EvaluatedTimetable timetable) {
+    /**
+     * Lessons a re-optimization starts from: the seeded ones and all lessons of the lecturers and academic groups of
+     * added, changed and removed requirements and of the places that lost a lesson.
+     */
+    private boolean[] getChangedLessons(TimetableRequirements previousRequirements, EvaluatedTimetable previousTimetable,
+                                        TimetableRequirements timetableRequirements,
+                                        TimetableRequirementsDiff requirementsDiff,
+                                        TimetableOccupancyIndex occupancyIndex, boolean[] seededLessons,
+                                        boolean[] keptPreviousLessons) {
+        List<LessonRequirements> previousRequirementsList = previousRequirements.getLessonRequirementsList();
         List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
 
-        Lesson[] lessons = timetable.getLessons();
-        double[] lessonPenalties = timetable.getLessonPenalties();
-        Map<Integer, Set<Integer>> lecturerLessonsMap = timetable.getLecturerLessonsMap();
-        Map<Integer, Set<Integer>> academicGroupLessonsMap = timetable.getAcademicGroupLessonsMap();
-        Map<Integer, Set<Integer>> placeLessonsMap = timetable.getPlaceLessonsMap();
-
-        Comparator<Integer> lessonPenaltiesComparator = (lessonIndex1, lessonIndex2) ->
-                Double.compare(lessonPenalties[lessonIndex2], lessonPenalties[lessonIndex1]);
+        boolean[] lecturers = new boolean[occupancyIndex.getLecturersCount()];
+        boolean[] academicGroups = new boolean[occupancyIndex.getAcademicGroupsCount()];
+        boolean[] places = new boolean[occupancyIndex.getPlacesCount()];
 
-        int lessonsCount = lessons.length;
+        for (int i = 0; i < lessonRequirementsList.size(); ++i) {
+            if (requirementsDiff.isAdded(i) || requirementsDiff.isChanged(i)) {
+                markEntities(lessonRequirementsList.get(i), lecturers, academicGroups);
+            }
+            if (requirementsDiff.isChanged(i)) {
+                markEntities(previousRequirementsList.get(requirementsDiff.getPreviousRequirementsIndexes()[i]),
+                        lecturers, academicGroups);
+            }
+        }
 
-        Integer[] lessonIndexes = new Integer[lessonsCount];
-        for (int i = 0; i < lessonIndexes.length; ++i) {
-            lessonIndexes[i] = i;
+        boolean[] removedRequirements = requirementsDiff.getRemoved(previousRequirementsList.size());
+        for (int i = 0; i < removedRequirements.length; ++i) {
+            if (removedRequirements[i]) {
+                markEntities(previousRequirementsList.get(i), lecturers, academicGroups);
+            }
         }
-        Arrays.sort(lessonIndexes, lessonPenaltiesComparator);
 
-        for (int lessonIndex : lessonIndexes) {
-            if (lessonPenalties[lessonIndex] == 0) {
-                break;
+        int[] previousPlaceIndexes = previousTimetable.getTimetableState().getPlaceIndexes();
+        for (int i = 0; i < keptPreviousLessons.length; ++i) {
+            if (!keptPreviousLessons[i] && previousPlaceIndexes[i] < places.length) {
+                places[previousPlaceIndexes[i]] = true;
             }
+        }
 
-            Lesson lesson = lessons[lessonIndex];
-            LessonRequirements lessonRequirements = lessonRequirementsList.get(lesson.getRequirementsIndex());
+        boolean[] changedLessons = TimetableRepairScope.getTouchingLessons(occupancyIndex, lecturers, academicGroups,
+                places);
+        for (int i = 0; i < changedLessons.length; ++i) {
+            changedLessons[i] |= seededLessons[i];
+        }
 
-            int lecturerIndex = lessonRequirements.getLecturerIndex();
-            Set<Integer> academicGroupIndexes = lessonRequirements.getAcademicGroupIndexes();
-            int placeIndex = lesson.getPlaceIndex();
+        return changedLessons;
+    }
 
-            Set<Integer> lecturerLessonIndexes = lecturerLessonsMap.get(lecturerIndex);
-            List<Set<Integer>> academicGroupLessonIndexesList = academicGroupIndexes.stream()
-                    .map(academicGroupIndex -> academicGroupLessonsMap.get(academicGroupIndex))
-                    .collect(Collectors.toList());
-            Set<Integer> placeLessonIndexes = placeLessonsMap.get(placeIndex);
+    private void markEntities(LessonRequirements lessonRequirements, boolean[] lecturers, boolean[] academicGroups) {
+        if (lessonRequirements.getLecturerIndex() < lecturers.length) {
+            lecturers[lessonRequirements.getLecturerIndex()] = true;
+        }
 
-            optimizeLessonDayAndTimeSlot(timetableRequirements, lessons, lessonIndex, lecturerLessonIndexes, academicGroupLessonIndexesList,
-                    placeLessonIndexes);
+        for (int academicGroupIndex : lessonRequirements.getAcademicGroupIndexes()) {
+            if (academicGroupIndex < academicGroups.length) {
+                academicGroups[academicGroupIndex] = true;
+            }
         }
+    }
 
-        EvaluatedTimetable repairedTimetable = evaluateTimetable(timetableRequirements, lessons);
+    private int countLessons(List<LessonRequirements> lessonRequirementsList) {
+        int lessonsCount = 0;
+        for (LessonRequirements lessonRequirements : lessonRequirementsList) {
+            lessonsCount += (int) Math.ceil(lessonRequirements.getLessonsCountPerWeek());
+        }
 
-        return repairedTimetable;
+        return lessonsCount;
     }
 
-    private EvaluatedTimetable optimizeScheduleByPlace(TimetableRequirements timetableRequirements, EvaluatedTimetable timetable) {
-        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+    private EvaluatedTimetable optimizeSchedule(TimetableRequirements timetableRequirements, EvaluatedTimetable schedule,
+                                                TimetableSolverProgress solverProgress, TimetablePortfolioRace portfolioRace,
+                                                int runIndex, TimetableRepairScope repairScope,
+                                                TimetableMoveAcceptance moveAcceptance) {
+        log.debug("Run {}, initial penalty: {}", runIndex, schedule.getPenalty());
 
-        Lesson[] lessons = timetable.getLessons();
-        double[] lessonPenalties = timetable.getLessonPenalties();
-        Map<Integer, Set<Integer>> lecturerLessonsMap = timetable.getLecturerLessonsMap();
-        Map<Integer, Set<Integer>> academicGroupLessonsMap = timetable.getAcademicGroupLessonsMap();
+        double targetPenalty = solverProgress.getTargetPenalty();
 
-        Comparator<Integer> lessonPenaltiesComparator = (lessonIndex1, lessonIndex2) ->
-                Double.compare(lessonPenalties[lessonIndex2], lessonPenalties[lessonIndex1]);
+        EvaluatedTimetable optimizedSchedule = schedule;
+        solverProgress.offer(runIndex, optimizedSchedule);
 
-        int lessonsCount = lessons.length;
+        TimetableSolverScratch solverScratch = createSolverScratch(timetableRequirements,
+                schedule.getOccupancyIndex());
 
-        Integer[] lessonIndexes = new Integer[lessonsCount];
-        for (int i = 0; i < lessonIndexes.length; ++i) {
-            lessonIndexes[i] = i;
-        }
-        Arrays.sort(lessonIndexes, lessonPenaltiesComparator);
+        int iterNum = 0;
+        while (optimizedSchedule.getPenalty() > targetPenalty && iterNum < iterationsMaxCount
+                && !solverProgress.isStopped()) {
+            double iterationStartPenalty = optimizedSchedule.getPenalty();
 
-        for (int lessonIndex : lessonIndexes) {
-            if (lessonPenalties[lessonIndex] == 0) {
-                break;
-            }
+            optimizedSchedule = runIteration(optimizedSchedule, solverScratch, solverProgress, runIndex, iterNum,
+                    repairScope, moveAcceptance);
 
-            Lesson lesson = lessons[lessonIndex];
-            LessonRequirements lessonRequirements = lessonRequirementsList.get(lesson.getRequirementsIndex());
+            ++iterNum;
 
-            int lecturerIndex = lessonRequirements.getLecturerIndex();
-            Set<Integer> academicGroupIndexes = lessonRequirements.getAcademicGroupIndexes();
+            if (!solverProgress.onIteration(runIndex, iterNum)) {
+                break;
+            }
 
-            Set<Integer> lecturerLessonIndexes = lecturerLessonsMap.get(lecturerIndex);
-            List<Set<Integer>> academicGroupLessonIndexesList = academicGroupIndexes.stream()
-                    .map(academicGroupIndex -> academicGroupLessonsMap.get(academicGroupIndex))
-                    .collect(Collectors.toList());
+            if (portfolioRace != null && !portfolioRace.onIteration(runIndex, iterNum, optimizedSchedule.getPenalty())) {
+                break;
+            }
 
-            optimizeLessonPlace(timetableRequirements, timetable, lessonIndex, lecturerLessonIndexes, academicGroupLessonIndexesList);
+            // Only improving moves are made within a repair scope, so an iteration without improvement is final
+            if (repairScope != null && optimizedSchedule.getPenalty() >= iterationStartPenalty
+                    && !repairScope.widen(optimizedSchedule.getOccupancyIndex())) {
+                break;
+            }
+        }
 
-//            System.out.println("lessonIndex: " + lessonIndex);
-//            ++count;
-//            if (count % 100 == 0) {
-//                System.out.println(count);
-//            }
+        return solverProgress.getBestTimetable(runIndex, optimizedSchedule);
+    }
 
+    /**
+     * Runs every optimization phase once, until the target penalty is reached or the solver is stopped (cancelled or
+     * out of time), offering every pass result to the solver progress. Once the buffers of the scratch and the index
+     * are allocated, an iteration does not allocate as long as evaluation is sequential ({@code evaluation.parallelism}
+     * of 1); parallel evaluation allocates the tasks of its shards on every call.
+     */
+    EvaluatedTimetable runIteration(EvaluatedTimetable timetable, TimetableSolverScratch solverScratch,
+                                    TimetableSolverProgress solverProgress, int runIndex, int iteration,
+                                    TimetableRepairScope repairScope, TimetableMoveAcceptance moveAcceptance) {
+        double targetPenalty = solverProgress.getTargetPenalty();
+
+        for (int i = 0; i < optimizationPhases.length && timetable.getPenalty() > targetPenalty
+                && !solverProgress.isStopped(); ++i) {
+            timetable = runPass(optimizationPhases[i], timetable, solverScratch, solverProgress, runIndex, iteration,
+                    repairScope, moveAcceptance);
+            solverProgress.offer(runIndex, timetable);
         }
-//        System.out.println("Work");
 
-        return evaluateTimetable(timetableRequirements, lessons);
+        return timetable;
     }
 
-    private void optimizeLessonDayAndTimeSlot(TimetableRequirements timetableRequirements, Lesson[] lessons, int lessonIndex,
-                                              Set<Integer> lecturerLessonIndexes, List<Set<Integer>> academicGroupLessonIndexesList,
-                                              Set<Integer> placeLessonIndexes) {
+    /**
+     * Runs one optimization pass, publishing its metrics and, when JFR records it, an {@link OptimizationPassEvent}.
+     */
+    private EvaluatedTimetable runPass(OptimizationPhase phase, EvaluatedTimetable timetable,
+                                       TimetableSolverScratch solverScratch, TimetableSolverProgress solverProgress,
+                                       int runIndex, int iteration, TimetableRepairScope repairScope,
+                                       TimetableMoveAcceptance moveAcceptance) {
+        OptimizationPassEvent passEvent = PASS_EVENT_TYPE.isEnabled() ? new OptimizationPassEvent() : null;
+        if (passEvent != null) {
+            passEvent.begin();
+        }
+        long startNanos = solverMetrics.start();
+
+        OptimizationPassStats passStats = solverScratch.startPass();
+        EvaluatedTimetable optimizedTimetable = switch (phase) {
+            case DAY_AND_TIME_SLOT -> optimizeScheduleByDayAndTimeSlot(solverScratch, timetable, passStats, iteration,
+                    repairScope, moveAcceptance);
+            case PLACE -> optimizeScheduleByPlace(solverScratch, timetable, passStats, repairScope);
+            case TIME_SWAP, PLACE_SWAP, KEMPE_CHAIN -> optimizeScheduleByCompoundMoves(phase, solverScratch, timetable,
+                    passStats, iteration, repairScope);
+        };
 
-        Lesson lesson = lessons[lessonIndex];
+        solverMetrics.recordPass(phase, startNanos, optimizedTimetable.getPenalty(), passStats);
+        solverProgress.onPass(runIndex, iteration, phase, optimizedTimetable.getPenalty(), passStats);
 
-        List<LessonTimeSlot> timeSlots = timetableRequirements.getTimeSlots();
+        if (passEvent != null) {
+            passEvent.end();
+        }
+        if (passEvent != null && passEvent.shouldCommit()) {
+            passEvent.runIndex = runIndex;
+            passEvent.iteration = iteration;
+            passEvent.phase = phase.getTag();
+            passEvent.penaltyBefore = timetable.getPenalty();
+            passEvent.penaltyAfter = optimizedTimetable.getPenalty();
+            passEvent.candidateEvaluations = passStats.getCandidateEvaluations();
+            passEvent.acceptedMoves = passStats.getAcceptedMoves();
+            passEvent.commit();
+        }
 
-        double minPenalty = Double.MAX_VALUE;
-        Day minDay = Day.MONDAY;
-        LessonTimeSlot minTimeSlot = timeSlots.get(0);
+        // The varargs array and the boxed arguments would be allocated on every pass otherwise
+        if (log.isDebugEnabled()) {
+            log.debug("Run {}, iteration {}, {} pass: penalty {}", runIndex, iteration, phase.getTag(),
+                    optimizedTimetable.getPenalty());
+        }
 
-        dayLoop:
-        for (Day day : days) {
-            for (LessonTimeSlot timeSlot : timeSlots) {
-                changeTime(lecturerLessonIndexes, academicGroupLessonIndexesList, placeLessonIndexes, lesson,
-                        lessonIndex, day, timeSlot);
+        return optimizedTimetable;
+    }
 
-                double penalty = calcLocalPenalty(lecturerLessonIndexes, academicGroupLessonIndexesList,
-                        placeLessonIndexes, lessons);
+    private EvaluatedTimetable evaluateTimetable(TimetableOccupancyIndex occupancyIndex) {
+        TimetableEvaluationEvent evaluationEvent = EVALUATION_EVENT_TYPE.isEnabled()
+                ? new TimetableEvaluationEvent()
+                : null;
+        if (evaluationEvent != null) {
+            evaluationEvent.begin();
+        }
+        long startNanos = solverMetrics.start();
 
-                if (penalty < minPenalty) {
-                    minDay = day;
-                    minTimeSlot = timeSlot;
+        EvaluatedTimetable timetable = timetableEvaluationService.evaluateTimetable(occupancyIndex);
 
-                    minPenalty = penalty;
-                }
+        solverMetrics.recordEvaluation(startNanos);
 
-                if (penalty == 0) {
-                    break dayLoop;
-                }
-            }
+        if (evaluationEvent != null) {
+            evaluationEvent.end();
+        }
+        if (evaluationEvent != null && evaluationEvent.shouldCommit()) {
+            evaluationEvent.lessonsCount = timetable.getLessonPenalties().length;
+            evaluationEvent.penalty = timetable.getPenalty();
+            evaluationEvent.commit();
         }
 
-        changeTime(lecturerLessonIndexes, academicGroupLessonIndexesList, placeLessonIndexes, lesson,
-                lessonIndex, minDay, minTimeSlot);
+        return timetable;
     }
 
-    private void optimizeLessonPlace(TimetableRequirements timetableRequirements, EvaluatedTimetable timetable, int lessonIndex,
-                                     Set<Integer> lecturerLessonIndexes, List<Set<Integer>> academicGroupLessonIndexesList) {
-
-        Lesson[] lessons = timetable.getLessons();
-        Map<Integer, Set<Integer>> placeLessonsMap = timetable.getPlaceLessonsMap();
-        Comparator<Integer> lessonIndexcomparator = timetable.getLessonIndexcomparator();
-
-        Lesson lesson = lessons[lessonIndex];
-
-        int placesCount = timetableRequirements.getLessonPlaces().size();
-
+    /**
+     * Buffers for the passes of a solver run over the occupancy index.
+     */
+    TimetableSolverScratch createSolverScratch(TimetableRequirements timetableRequirements,
+                                               TimetableOccupancyIndex occupancyIndex) {
+        LessonConflictGraph lessonConflictGraph = timetableRequirements.getLessonConflictGraph();
+        LessonPenaltyQueue lessonPenaltyQueue = new LessonPenaltyQueue(timetableEvaluationService, occupancyIndex,
+                lessonConflictGraph);
+
+        return new TimetableSolverScratch(occupancyIndex, lessonPenaltyQueue, getCandidateWeekCells(occupancyIndex),
+                new TimetableCompoundMoves(timetableEvaluationService, occupancyIndex, lessonConflictGraph,
+                        lessonPenaltyQueue, swapCandidatesCount, kempeChainMaxLength));
+    }
 
-        int minPlaceIndex = lesson.getPlaceIndex();
-        Set<Integer> placeLessonIndexes = placeLessonsMap.get(minPlaceIndex);
-        double minPenalty = calcLocalPenalty(lecturerLessonIndexes, academicGroupLessonIndexesList,
-                placeLessonIndexes, lessons);
-        int prevPlaceIndex = minPlaceIndex;
+    EvaluatedTimetable optimizeScheduleByDayAndTimeSlot(TimetableSolverScratch solverScratch,
+                                                        EvaluatedTimetable timetable, OptimizationPassStats passStats) {
+        return optimizeScheduleByDayAndTimeSlot(solverScratch, timetable, passStats, 0, null,
+                new DescentMoveAcceptance());
+    }
 
-        for (int placeIndex = 0; placeIndex < placesCount; ++placeIndex) {
-            if (placeIndex == minPlaceIndex) {
+    /**
+     * Moves lessons to the day and time slot the move acceptance selects, always the lesson with the highest current
+     * penalty next (see {@link LessonPenaltyQueue}). A lesson whose building does not offer the new time slot goes to
+     * a candidate place along with the move, and the move acceptance sees the penalty of both. Within a repair scope
+     * only its movable lessons are considered and a lesson only moves if that lowers its penalty.
+     */
+    private EvaluatedTimetable optimizeScheduleByDayAndTimeSlot(TimetableSolverScratch solverScratch,
+                                                                EvaluatedTimetable timetable,
+                                                                OptimizationPassStats passStats, int iteration,
+                                                                TimetableRepairScope repairScope,
+                                                                TimetableMoveAcceptance moveAcceptance) {
+        moveAcceptance.startPass(iteration, timetable.getPenalty());
+
+        TimetableOccupancyIndex occupancyIndex = solverScratch.getOccupancyIndex();
+        LessonPenaltyQueue lessonPenaltyQueue = solverScratch.getLessonPenaltyQueue();
+        lessonPenaltyQueue.reset(timetable);
+
+        int[][] candidateWeekCells = solverScratch.getCandidateWeekCells();
+        double[] candidatePenalties = solverScratch.getCandidatePenalties();
+
+        int lessonIndex;
+        while ((lessonIndex = lessonPenaltyQueue.poll()) >= 0) {
+            if (repairScope != null && !repairScope.isMovable(lessonIndex)) {
                 continue;
             }
 
-            placeLessonIndexes = changePlace(placeLessonsMap, lesson, lessonIndex, prevPlaceIndex, placeIndex, lessonIndexcomparator);
+            optimizeLessonDayAndTimeSlot(occupancyIndex, candidateWeekCells, candidatePenalties, lessonIndex,
+                    repairScope != null, moveAcceptance, lessonPenaltyQueue, passStats);
+        }
 
-            double penalty = calcLocalPenalty(lecturerLessonIndexes, academicGroupLessonIndexesList,
-                    placeLessonIndexes, lessons);
+        EvaluatedTimetable repairedTimetable = evaluateTimetable(occupancyIndex);
 
-            if (penalty < minPenalty) {
-                minPlaceIndex = placeIndex;
-                minPenalty = penalty;
-            }
+        return repairedTimetable;
+    }
 
-            prevPlaceIndex = placeIndex;
+    EvaluatedTimetable optimizeScheduleByPlace(TimetableSolverScratch solverScratch, EvaluatedTimetable timetable,
+                                               OptimizationPassStats passStats) {
+        return optimizeScheduleByPlace(solverScratch, timetable, passStats, null);
+    }
 
-            if (penalty == 0) {
-                break;
+    private EvaluatedTimetable optimizeScheduleByPlace(TimetableSolverScratch solverScratch,
+                                                       EvaluatedTimetable timetable, OptimizationPassStats passStats,
+                                                       TimetableRepairScope repairScope) {
+        TimetableOccupancyIndex occupancyIndex = solverScratch.getOccupancyIndex();
+        LessonPenaltyQueue lessonPenaltyQueue = solverScratch.getLessonPenaltyQueue();
+        lessonPenaltyQueue.reset(timetable);
+
+        int lessonIndex;
+        while ((lessonIndex = lessonPenaltyQueue.poll()) >= 0) {
+            if (repairScope != null && !repairScope.isMovable(lessonIndex)) {
+                continue;
             }
-        }
 
-        if (minPlaceIndex != prevPlaceIndex) {
-            changePlace(placeLessonsMap, lesson, lessonIndex, prevPlaceIndex, minPlaceIndex, lessonIndexcomparator);
+            optimizeLessonPlace(occupancyIndex, lessonIndex, lessonPenaltyQueue, passStats);
         }
-    }
 
+        for (lessonIndex = 0; lessonIndex < timetable.getLessonPenalties().length; ++lessonIndex) {
+            if (occupancyIndex.isCandidatePlace(lessonIndex, occupancyIndex.getLessonPlaceIndex(lessonIndex))
+                    || repairScope != null && !repairScope.isMovable(lessonIndex)) {
+                continue;
+            }
 
-    private double calcLocalPenalty(Set<Integer> lecturerLessonIndexes, List<Set<Integer>> academicGroupLessonIndexesList,
-                                    Set<Integer> placeLessonIndexes, Lesson[] lessons) {
-        double penalty = 0;
-
-        {
-            double conflictTimeSlotsCount = 0;
-            double timeWindowCount = 0;
+            optimizeLessonPlace(occupancyIndex, lessonIndex, lessonPenaltyQueue, passStats);
+        }
 
-            Iterator<Integer> lessonIndexIterator = lecturerLessonIndexes.iterator();
-            Lesson prevLesson = null;
-            while (lessonIndexIterator.hasNext()) {
-                double timeWindowDayCount = 0;
+        return evaluateTimetable(occupancyIndex);
+    }
 
-                while (lessonIndexIterator.hasNext()) {
-                    int lessonIndex = lessonIndexIterator.next();
-                    Lesson lesson = lessons[lessonIndex];
-                    LessonTimeSlot lessonTimeSlot = lesson.getTimeSlot();
-                    LessonPeriodicity lessonPeriodicity = lesson.getPeriodicity();
+    EvaluatedTimetable optimizeScheduleByCompoundMoves(OptimizationPhase phase, TimetableSolverScratch solverScratch,
+                                                       EvaluatedTimetable timetable, OptimizationPassStats passStats) {
+        return optimizeScheduleByCompoundMoves(phase, solverScratch, timetable, passStats, 0, null);
+    }
 
-                    boolean isNewDay = false;
-                    if (prevLesson != null) {
-                        if (lesson.getDay() == prevLesson.getDay()) {
-                            LessonTimeSlot prevLessonTimeSlot = prevLesson.getTimeSlot();
-                            LessonPeriodicity prevLessonPeriodicity = prevLesson.getPeriodicity();
+    /**
+     * Makes the best improving compound move of the phase for every lesson, always the lesson with the highest current
+     * penalty next.
+     * Within a repair scope only its movable lessons are moved.
+     */
+    private EvaluatedTimetable optimizeScheduleByCompoundMoves(OptimizationPhase phase,
+                                                               TimetableSolverScratch solverScratch,
+                                                               EvaluatedTimetable timetable,
+                                                               OptimizationPassStats passStats, int iteration,
+                                                               TimetableRepairScope repairScope) {
+        TimetableOccupancyIndex occupancyIndex = solverScratch.getOccupancyIndex();
+        LessonPenaltyQueue lessonPenaltyQueue = solverScratch.getLessonPenaltyQueue();
+        lessonPenaltyQueue.reset(timetable);
+
+        TimetableCompoundMoves compoundMoves = solverScratch.getCompoundMoves();
+        compoundMoves.startPass(repairScope, passStats);
+
+        int lessonIndex;
+        while ((lessonIndex = lessonPenaltyQueue.poll()) >= 0) {
+            if (repairScope != null && !repairScope.isMovable(lessonIndex)) {
+                continue;
+            }
 
-                            if (lessonTimeSlotUtil.isConflict(prevLessonTimeSlot, lessonTimeSlot)) {
-                                if (lessonPeriodicity == prevLessonPeriodicity) {
-                                    if (lessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                        ++conflictTimeSlotsCount;
-                                    } else {
-                                        conflictTimeSlotsCount += 0.5;
-                                    }
-                                } else if (lessonPeriodicity == LessonPeriodicity.WEEKLY || prevLessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                    conflictTimeSlotsCount += 0.5;
-                                }
-                            }
-
-                            if (lessonTimeSlotUtil.isWindow(prevLessonTimeSlot, lessonTimeSlot)) {
-                                ++timeWindowDayCount;
-                            }
-                        } else {
-                            isNewDay = true;
-                        }
-                    }
+            switch (phase) {
+                case TIME_SWAP -> compoundMoves.swapTime(lessonIndex, iteration);
+                case PLACE_SWAP -> compoundMoves.swapPlace(lessonIndex, iteration);
+                case KEMPE_CHAIN -> compoundMoves.moveKempeChain(lessonIndex);
+                default -> throw new IllegalArgumentException("Not a compound move phase: " + phase);
+            }
+        }
 
-                    prevLesson = lesson;
-                    if (isNewDay) {
-                        break;
-                    }
-                }
+        return evaluateTimetable(occupancyIndex);
+    }
 
-                if (timeWindowDayCount > 0) {
-                    timeWindowDayCount = Math.pow(timeWindowDayCount, lecturerTimeWindowPenaltyDayPower);
+    private void optimizeLessonDayAndTimeSlot(TimetableOccupancyIndex occupancyIndex, int[][] candidateWeekCells,
+                                              double[] candidatePenalties, int lessonIndex, boolean improvingOnly,
+                                              TimetableMoveAcceptance moveAcceptance,
+                                              LessonPenaltyQueue lessonPenaltyQueue, OptimizationPassStats passStats) {
 
-                    timeWindowCount += timeWindowDayCount;
-                }
-            }
+        int periodicityOrdinal = occupancyIndex.getTimetableState().getPeriodicityOrdinals()[lessonIndex];
+        int[] weekCells = candidateWeekCells[periodicityOrdinal];
 
-            if (conflictTimeSlotsCount > 0) {
-                conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, lecturerConflictTimeSlotPenaltyPower);
+        int bestCandidate = timetableEvaluationService.findBestMove(occupancyIndex, lessonIndex, weekCells,
+                candidatePenalties);
 
-                double conflictTimeSlotPenalty = conflictTimeSlotsCount * lecturerConflictTimeSlotPenalty;
-                penalty += conflictTimeSlotPenalty;
-            }
+        passStats.addCandidateEvaluations(candidatePenalties[bestCandidate] == 0 ? bestCandidate + 1 : weekCells.length);
 
-            if (timeWindowCount > 0) {
-                timeWindowCount = Math.pow(timeWindowCount, lecturerTimeWindowPenaltyPower);
+        int candidate = moveAcceptance.selectMove(occupancyIndex, lessonIndex, weekCells, candidatePenalties,
+                bestCandidate);
+        if (candidate < 0) {
+            return;
+        }
 
-                double timeWindowPenalty = timeWindowCount * lecturerTimeWindowPenalty;
-                penalty += timeWindowPenalty;
-            }
+        if (improvingOnly && candidatePenalties[candidate]
+                >= timetableEvaluationService.calcLocalPenalty(occupancyIndex, lessonIndex)) {
+            return;
         }
 
-        for (Set<Integer> lessonIndexes : academicGroupLessonIndexesList) {
-            double conflictTimeSlotsCount = 0;
-            double timeWindowCount = 0;
-
-            Iterator<Integer> lessonIndexIterator = lessonIndexes.iterator();
-            Lesson prevLesson = null;
-            while (lessonIndexIterator.hasNext()) {
-                double timeWindowDayCount = 0;
-
-                while (lessonIndexIterator.hasNext()) {
-                    int lessonIndex = lessonIndexIterator.next();
-                    Lesson lesson = lessons[lessonIndex];
-                    LessonTimeSlot lessonTimeSlot = lesson.getTimeSlot();
-                    LessonPeriodicity lessonPeriodicity = lesson.getPeriodicity();
-
-                    boolean isNewDay = false;
-                    if (prevLesson != null) {
-                        if (lesson.getDay() == prevLesson.getDay()) {
-                            LessonTimeSlot prevLessonTimeSlot = prevLesson.getTimeSlot();
-                            LessonPeriodicity prevLessonPeriodicity = prevLesson.getPeriodicity();
-
-                            if (lessonTimeSlotUtil.isConflict(prevLessonTimeSlot, lessonTimeSlot)) {
-                                if (lessonPeriodicity == prevLessonPeriodicity) {
-                                    if (lessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                        ++conflictTimeSlotsCount;
-                                    } else {
-                                        conflictTimeSlotsCount += 0.5;
-                                    }
-                                } else if (lessonPeriodicity == LessonPeriodicity.WEEKLY || prevLessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                    conflictTimeSlotsCount += 0.5;
-                                }
-                            }
-
-                            if (lessonTimeSlotUtil.isWindow(prevLessonTimeSlot, lessonTimeSlot)) {
-                                ++timeWindowDayCount;
-                            }
-                        } else {
-                            isNewDay = true;
-                        }
-                    }
+        passStats.addAcceptedMove();
+        timetableEvaluationService.moveLesson(occupancyIndex, lessonIndex, weekCells[candidate]);
+        lessonPenaltyQueue.lessonMoved(lessonIndex,
+                timetableEvaluationService.keepCandidatePlace(occupancyIndex, lessonIndex));
+    }
 
-                    prevLesson = lesson;
-                    if (isNewDay) {
-                        break;
-                    }
+    /**
+     * Week cells a lesson of every periodicity can be moved to, ordered by day and then by
+     * {@link LessonTimeSlotGrid#getTimeSlotOrdinals()}: the requirements time slot order, followed by the slots only
+     * the buildings use.
+     */
+    private int[][] getCandidateWeekCells(TimetableOccupancyIndex occupancyIndex) {
+        int[] timeSlotOrdinals = occupancyIndex.getTimeSlotGrid().getTimeSlotOrdinals();
+
+        int[][] candidateWeekCells = new int[PERIODICITIES_COUNT][days.length * timeSlotOrdinals.length];
+        for (int periodicity = 0; periodicity < PERIODICITIES_COUNT; ++periodicity) {
+            int candidate = 0;
+            for (Day day : days) {
+                for (int timeSlotOrdinal : timeSlotOrdinals) {
+                    candidateWeekCells[periodicity][candidate++] =
+                            occupancyIndex.getWeekCell(day.ordinal(), timeSlotOrdinal, periodicity);
                 }
+            }
+        }
 
-                if (timeWindowDayCount > 0) {
-                    timeWindowDayCount = Math.pow(timeWindowDayCount, academicGroupTimeWindowPenaltyDayPower);
+        return candidateWeekCells;
+    }
 
-                    timeWindowCount += timeWindowDayCount;
-                }
-            }
+    /**
+     * Moves a lesson that clashes in its place, or whose place it may not use (see {@link LessonPlaceCandidates}), to
+     * the first clash-free candidate place found in the occupied places bitmap of the index. Only if every candidate
+     * is taken at that time, or if the clash-free one is in another building, which may change the travel of the
+     * lecturer and the academic groups, all of them are scored by their full penalty.
+     */
+    private void optimizeLessonPlace(TimetableOccupancyIndex occupancyIndex, int lessonIndex,
+                                     LessonPenaltyQueue lessonPenaltyQueue, OptimizationPassStats passStats) {
+
+        int currentPlaceIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+        boolean currentPlaceCandidate = occupancyIndex.isCandidatePlace(lessonIndex, currentPlaceIndex);
+        if (currentPlaceCandidate && timetableEvaluationService.isLessonPlaceClashFree(occupancyIndex, lessonIndex)) {
+            return;
+        }
 
-            if (conflictTimeSlotsCount > 0) {
-                conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, academicGroupConflictTimeSlotPenaltyPower);
+        int clashFreePlaceIndex = timetableEvaluationService.findClashFreePlace(occupancyIndex, lessonIndex);
+        passStats.addCandidateEvaluations(1);
+        if (clashFreePlaceIndex >= 0 && (!currentPlaceCandidate || occupancyIndex.getPlaceBuilding(clashFreePlaceIndex)
+                == occupancyIndex.getPlaceBuilding(currentPlaceIndex))) {
+            passStats.addAcceptedMove();
+            timetableEvaluationService.changePlace(occupancyIndex, lessonIndex, clashFreePlaceIndex);
+            lessonPenaltyQueue.lessonMoved(lessonIndex, currentPlaceIndex);
+            return;
+        }
 
-                double conflictTimeSlotPenalty = conflictTimeSlotsCount * academicGroupConflictTimeSlotPenalty;
-                penalty += conflictTimeSlotPenalty;
+        long scoredBuilding = occupancyIndex.getPlaceBuilding(currentPlaceIndex);
+        double lecturerAndAcademicGroupsPenalty = timetableEvaluationService.calcLecturerAndAcademicGroupsPenalty(
+                occupancyIndex, lessonIndex, currentPlaceIndex);
+
+        int minPlaceIndex = currentPlaceIndex;
+        double minPenalty = currentPlaceCandidate
+                ? timetableEvaluationService.addPlacePenalty(lecturerAndAcademicGroupsPenalty, occupancyIndex,
+                lessonIndex, currentPlaceIndex)
+                : Double.MAX_VALUE;
+
+        int[] candidatePlaceIndexes = occupancyIndex.getCandidatePlaceIndexes();
+        int candidatesCount = occupancyIndex.collectCandidatePlaces(lessonIndex);
+        for (int i = 0; i < candidatesCount; ++i) {
+            int placeIndex = candidatePlaceIndexes[i];
+            if (placeIndex == currentPlaceIndex) {
+                continue;
             }
 
-            if (timeWindowCount > 0) {
-                timeWindowCount = Math.pow(timeWindowCount, academicGroupTimeWindowPenaltyPower);
-
-                double timeWindowPenalty = timeWindowCount * academicGroupTimeWindowPenalty;
-                penalty += timeWindowPenalty;
+            if (occupancyIndex.getPlaceBuilding(placeIndex) != scoredBuilding) {
+                scoredBuilding = occupancyIndex.getPlaceBuilding(placeIndex);
+                lecturerAndAcademicGroupsPenalty = timetableEvaluationService.calcLecturerAndAcademicGroupsPenalty(
+                        occupancyIndex, lessonIndex, placeIndex);
             }
-        }
 
-        {
-            double conflictTimeSlotsCount = 0;
-
-            Iterator<Integer> lessonIndexIterator = placeLessonIndexes.iterator();
-            Lesson prevLesson = null;
-            while (lessonIndexIterator.hasNext()) {
-                while (lessonIndexIterator.hasNext()) {
-                    int lessonIndex = lessonIndexIterator.next();
-                    Lesson lesson = lessons[lessonIndex];
-                    LessonTimeSlot lessonTimeSlot = lesson.getTimeSlot();
-                    LessonPeriodicity lessonPeriodicity = lesson.getPeriodicity();
-
-                    boolean isNewDay = false;
-                    if (prevLesson != null) {
-                        LessonTimeSlot prevLessonTimeSlot = prevLesson.getTimeSlot();
-
-                        if (lesson.getDay() == prevLesson.getDay()) {
-                            LessonPeriodicity prevLessonPeriodicity = prevLesson.getPeriodicity();
-
-                            if (lessonTimeSlotUtil.isConflict(prevLessonTimeSlot, lessonTimeSlot)) {
-                                if (lessonPeriodicity == prevLessonPeriodicity) {
-                                    if (lessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                        ++conflictTimeSlotsCount;
-                                    } else {
-                                        conflictTimeSlotsCount += 0.5;
-                                    }
-                                } else if (lessonPeriodicity == LessonPeriodicity.WEEKLY || prevLessonPeriodicity == LessonPeriodicity.WEEKLY) {
-                                    conflictTimeSlotsCount += 0.5;
-                                }
-                            }
-                        } else {
-                            isNewDay = true;
-                        }
-                    }
+            double penalty = timetableEvaluationService.addPlacePenalty(lecturerAndAcademicGroupsPenalty, occupancyIndex,
+                    lessonIndex, placeIndex);
+            passStats.addCandidateEvaluations(1);
 
-                    prevLesson = lesson;
-                    if (isNewDay) {
-                        break;
-                    }
-                }
+            if (penalty < minPenalty) {
+                minPlaceIndex = placeIndex;
+                minPenalty = penalty;
             }
 
-            if (conflictTimeSlotsCount > 0) {
-                conflictTimeSlotsCount = Math.pow(conflictTimeSlotsCount, placeConflictTimeSlotPenaltyPower);
-
-                double conflictTimeSlotPenalty = conflictTimeSlotsCount * placeConflictTimeSlotPenalty;
-                penalty += conflictTimeSlotPenalty;
+            if (penalty == 0) {
+                break;
             }
         }
 
-        return penalty;
+        if (minPlaceIndex != currentPlaceIndex) {
+            passStats.addAcceptedMove();
+            timetableEvaluationService.changePlace(occupancyIndex, lessonIndex, minPlaceIndex);
+            lessonPenaltyQueue.lessonMoved(lessonIndex, currentPlaceIndex);
+        }
     }
 
     public void printTimetable(TimetableRequirements timetableRequirements, EvaluatedTimetable timetable) {
@@ -863,63 +1110,31 @@ public class TimetableGenerationService {
         }
     }
 
-    private void changeTime(Set<Integer> lecturerLessonIndexes, List<Set<Integer>> academicGroupLessonIndexesList,
-                            Set<Integer> placeLessonIndexes, Lesson lesson, int lessonIndex, Day day, LessonTimeSlot timeSlot) {
-        lecturerLessonIndexes.remove(lessonIndex);
-        academicGroupLessonIndexesList.forEach(academicGroupLessonIndexes -> {
-            academicGroupLessonIndexes.remove(lessonIndex);
-        });
-        placeLessonIndexes.remove(lessonIndex);
-
-        lesson.setDay(day);
-        lesson.setTimeSlot(timeSlot);
-
-        lecturerLessonIndexes.add(lessonIndex);
-        academicGroupLessonIndexesList.forEach(academicGroupLessonIndexes -> {
-            academicGroupLessonIndexes.add(lessonIndex);
-        });
-        placeLessonIndexes.add(lessonIndex);
-    }
-
-    private Set<Integer> changePlace(Map<Integer, Set<Integer>> placeLessonsMap, Lesson lesson, int lessonIndex,
-                                     int prevPlaceIndex, int placeIndex, Comparator<Integer> lessonIndexcomparator) {
-
-        placeLessonsMap.get(prevPlaceIndex).remove(lessonIndex);
-
-        lesson.setPlaceIndex(placeIndex);
-
-        Set<Integer> placeLessonIndexes = placeLessonsMap.get(placeIndex);
-        if (placeLessonIndexes == null) {
-            placeLessonIndexes = new TreeSet<>(lessonIndexcomparator);
-            placeLessonsMap.put(placeIndex, placeLessonIndexes);
-        }
-
-        placeLessonIndexes.add(lessonIndex);
-
-        return placeLessonIndexes;
-    }
-
-    private LessonPeriodicity getRandomLessonPeriodicity(double numberOfClassesPerWeek) {
+    private LessonPeriodicity getRandomLessonPeriodicity(SplittableRandom random, double numberOfClassesPerWeek) {
         if (numberOfClassesPerWeek >= 1) {
             return LessonPeriodicity.WEEKLY;
         }
 
-        return getRandomLessonPeriodicity();
+        return getRandomLessonPeriodicity(random);
     }
 
-    private Day getRandomDay() {
+    private Day getRandomDay(SplittableRandom random) {
         return days[random.nextInt(days.length)];
     }
 
-    private LessonTimeSlot getRandomTimeSlot(List<LessonTimeSlot> timeSlots) {
-        return timeSlots.get(random.nextInt(timeSlots.size()));
+    private int getRandomTimeSlot(SplittableRandom random, int[] timeSlotOrdinals) {
+        return timeSlotOrdinals[random.nextInt(timeSlotOrdinals.length)];
     }
 
-    private int getRandomPlace(List<LessonPlace> lessonPlaces) {
-        return random.nextInt(lessonPlaces.size());
+    private int getRandomPlace(SplittableRandom random, LessonPlaceCandidates placeCandidates,
+                               int[] candidatePlaceIndexes, int requirementsIndex, int timeSlotOrdinal) {
+        int candidatesCount = placeCandidates.getCandidatePlaces(requirementsIndex, timeSlotOrdinal,
+                candidatePlaceIndexes);
+
+        return candidatePlaceIndexes[random.nextInt(candidatesCount)];
     }
 
-    private LessonPeriodicity getRandomLessonPeriodicity() {
+    private LessonPeriodicity getRandomLessonPeriodicity(SplittableRandom random) {
         return random.nextBoolean() ? LessonPeriodicity.NUMERATOR : LessonPeriodicity.DENOMINATOR;
     }
 }
@@ -0,0 +1,185 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.Day;
+import org.lnu.schedule.generation.model.LessonConflictGraph;
+import org.lnu.schedule.generation.model.LessonRequirements;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableState;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+import static org.lnu.schedule.generation.model.TimetableOccupancyIndex.PERIODICITIES_COUNT;
+
+/**
+ * Places the lessons of a timetable one by one, the most constrained first, in the spirit of DSatur graph coloring.
+ * The degree of a lesson is the number of its neighbours in the {@link LessonConflictGraph}, its saturation the number
+ * of those already placed; the lesson with the highest saturation goes next, then the one with
+ * the highest degree. Every lesson goes to the day and time slot that increases the penalty of its lecturer and groups
+ * the least, in the candidate place that increases the place penalty the least, ties broken randomly.
+ */
+class TimetableGreedyConstruction {
+    private static final int DAYS_COUNT = Day.values().length;
+
+    private static final Comparator<int[]> CONSTRAINEDNESS_COMPARATOR = Comparator
+            .<int[]>comparingInt(entry -> -entry[0])
+            .thenComparingInt(entry -> -entry[1])
+            .thenComparingInt(entry -> entry[2])
+            .thenComparingInt(entry -> entry[3]);
+
+    private final TimetableEvaluationService timetableEvaluationService;
+    private final SplittableRandom random;
+
+    private final TimetableState timetableState;
+    private final TimetableOccupancyIndex occupancyIndex;
+    private final LessonConflictGraph lessonConflictGraph;
+
+    private final int[] lessonLecturerIndexes;
+    private final int[][] lessonAcademicGroupIndexes;
+
+    private final int[][] candidateWeekCells;
+
+    TimetableGreedyConstruction(TimetableEvaluationService timetableEvaluationService,
+                                TimetableRequirements timetableRequirements, LessonTimeSlotGrid timeSlotGrid,
+                                TimetableState timetableState, SplittableRandom random) {
+        this.timetableEvaluationService = timetableEvaluationService;
+        this.random = random;
+
+        this.timetableState = timetableState;
+        this.occupancyIndex = timetableEvaluationService.createEmptyOccupancyIndex(timetableRequirements, timeSlotGrid,
+                timetableState);
+        this.lessonConflictGraph = timetableRequirements.getLessonConflictGraph();
+
+        List<LessonRequirements> lessonRequirementsList = timetableRequirements.getLessonRequirementsList();
+        int[][] academicGroupIndexesList = timetableEvaluationService.getAcademicGroupIndexesList(lessonRequirementsList);
+
+        int lessonsCount = timetableState.getLessonsCount();
+        this.lessonLecturerIndexes = new int[lessonsCount];
+        this.lessonAcademicGroupIndexes = new int[lessonsCount][];
+        for (int i = 0; i < lessonsCount; ++i) {
+            int requirementsIndex = timetableState.getRequirementsIndexes()[i];
+
+            lessonLecturerIndexes[i] = lessonRequirementsList.get(requirementsIndex).getLecturerIndex();
+            lessonAcademicGroupIndexes[i] = academicGroupIndexesList[requirementsIndex];
+        }
+
+        int[] timeSlotOrdinals = timeSlotGrid.getTimeSlotOrdinals();
+        this.candidateWeekCells = new int[PERIODICITIES_COUNT][DAYS_COUNT * timeSlotOrdinals.length];
+        for (int periodicity = 0; periodicity < PERIODICITIES_COUNT; ++periodicity) {
+            int candidate = 0;
+            for (int day = 0; day < DAYS_COUNT; ++day) {
+                for (int timeSlotOrdinal : timeSlotOrdinals) {
+                    candidateWeekCells[periodicity][candidate++] = occupancyIndex.getWeekCell(day, timeSlotOrdinal,
+                            periodicity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Overwrites the day, time slot and place of every lesson of the state, keeping requirements and periodicities.
+     */
+    TimetableState construct() {
+        int lessonsCount = timetableState.getLessonsCount();
+
+        int[] offsets = lessonConflictGraph.getOffsets();
+        int[] neighbours = lessonConflictGraph.getNeighbours();
+
+        int[] saturations = new int[lessonsCount];
+        int[] degrees = new int[lessonsCount];
+        int[] tieBreakers = new int[lessonsCount];
+        boolean[] placedLessons = new boolean[lessonsCount];
+
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, lessonsCount), CONSTRAINEDNESS_COMPARATOR);
+        for (int lessonIndex = 0; lessonIndex < lessonsCount; ++lessonIndex) {
+            degrees[lessonIndex] = lessonConflictGraph.getDegree(lessonIndex);
+            tieBreakers[lessonIndex] = random.nextInt();
+            queue.add(new int[]{0, degrees[lessonIndex], tieBreakers[lessonIndex], lessonIndex});
+        }
+
+        while (!queue.isEmpty()) {
+            int[] entry = queue.poll();
+            int lessonIndex = entry[3];
+            if (placedLessons[lessonIndex] || entry[0] != saturations[lessonIndex]) {
+                continue;
+            }
+
+            placeLesson(lessonIndex);
+            placedLessons[lessonIndex] = true;
+
+            for (int i = offsets[lessonIndex]; i < offsets[lessonIndex + 1]; ++i) {
+                int neighbourLesson = neighbours[i];
+                if (!placedLessons[neighbourLesson]) {
+                    ++saturations[neighbourLesson];
+                    queue.add(new int[]{saturations[neighbourLesson], degrees[neighbourLesson],
+                            tieBreakers[neighbourLesson], neighbourLesson});
+                }
+            }
+        }
+
+        return timetableState;
+    }
+
+    private void placeLesson(int lessonIndex) {
+        int lecturerIndex = lessonLecturerIndexes[lessonIndex];
+        int[] academicGroupIndexes = lessonAcademicGroupIndexes[lessonIndex];
+        int periodicityOrdinal = timetableState.getPeriodicityOrdinals()[lessonIndex];
+        int[] weekCells = candidateWeekCells[periodicityOrdinal];
+
+        double[] penalties = new double[weekCells.length];
+        double minPenalty = Double.MAX_VALUE;
+        for (int i = 0; i < weekCells.length; ++i) {
+            penalties[i] = timetableEvaluationService.calcLecturerAndAcademicGroupsInsertPenalty(occupancyIndex,
+                    lecturerIndex, academicGroupIndexes, weekCells[i]);
+            minPenalty = Math.min(minPenalty, penalties[i]);
+        }
+
+        int requirementsIndex = timetableState.getRequirementsIndexes()[lessonIndex];
+        int[] candidatePlaceIndexes = occupancyIndex.getCandidatePlaceIndexes();
+
+        int bestWeekCell = -1;
+        int bestPlaceIndex = -1;
+        double bestPenalty = Double.MAX_VALUE;
+        int tiesCount = 0;
+        for (int i = 0; i < weekCells.length; ++i) {
+            if (penalties[i] != minPenalty) {
+                continue;
+            }
+
+            int candidatesCount = occupancyIndex.getPlaceCandidates().getCandidatePlaces(requirementsIndex,
+                    occupancyIndex.getTimeSlot(weekCells[i]), candidatePlaceIndexes);
+
+            int placeIndex = -1;
+            double placePenalty = Double.MAX_VALUE;
+            int firstCandidate = random.nextInt(candidatesCount);
+            for (int j = 0; j < candidatesCount && placePenalty > 0; ++j) {
+                int candidatePlaceIndex = candidatePlaceIndexes[(firstCandidate + j) % candidatesCount];
+                double candidatePlacePenalty = timetableEvaluationService.calcPlaceInsertPenalty(occupancyIndex,
+                        candidatePlaceIndex, weekCells[i]);
+
+                if (candidatePlacePenalty < placePenalty) {
+                    placeIndex = candidatePlaceIndex;
+                    placePenalty = candidatePlacePenalty;
+                }
+            }
+
+            double penalty = penalties[i] + placePenalty;
+            if (penalty < bestPenalty) {
+                bestPenalty = penalty;
+                tiesCount = 0;
+            }
+            if (penalty == bestPenalty && random.nextInt(++tiesCount) == 0) {
+                bestWeekCell = weekCells[i];
+                bestPlaceIndex = placeIndex;
+            }
+        }
+
+        timetableState.setLesson(lessonIndex, requirementsIndex, occupancyIndex.getDay(bestWeekCell),
+                occupancyIndex.getTimeSlot(bestWeekCell), bestPlaceIndex, periodicityOrdinal);
+        timetableEvaluationService.insertLesson(occupancyIndex, lessonIndex, lecturerIndex, academicGroupIndexes);
+    }
+}
@@ -0,0 +1,72 @@
+package org.lnu.schedule.generation.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.SolverCancellationToken;
+import org.lnu.schedule.generation.model.TimetableJobInfo;
+import org.lnu.schedule.generation.model.TimetableJobStatus;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+/**
+ * State of a single job. Progress fields are written by the solver thread and read by the progress publisher, so
+ * they are volatile; the solver thread itself never touches the progress subscribers.
+ */
+@Getter
+class TimetableJob {
+    private final String id;
+    private final TimetableRequirements timetableRequirements;
+    private final SolverCancellationToken cancellationToken = new SolverCancellationToken();
+    private final Instant submittedAt = Instant.now();
+    private final List<SseEmitter> progressEmitters = new CopyOnWriteArrayList<>();
+
+    @Setter
+    private volatile Future<?> future;
+
+    private volatile TimetableJobStatus status = TimetableJobStatus.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile EvaluatedTimetable result;
+
+    private volatile double bestPenalty = Double.NaN;
+    private volatile int iteration = -1;
+
+    TimetableJob(String id, TimetableRequirements timetableRequirements) {
+        this.id = id;
+        this.timetableRequirements = timetableRequirements;
+    }
+
+    void start() {
+        startedAt = Instant.now();
+        status = TimetableJobStatus.RUNNING;
+    }
+
+    void onPass(int iteration, double penalty) {
+        this.iteration = iteration;
+        if (Double.isNaN(bestPenalty) || penalty < bestPenalty) {
+            bestPenalty = penalty;
+        }
+    }
+
+    void finish(TimetableJobStatus status, EvaluatedTimetable result, String error) {
+        this.result = result;
+        this.error = error;
+        if (result != null) {
+            bestPenalty = result.getPenalty();
+        }
+        finishedAt = Instant.now();
+        this.status = status;
+    }
+
+    TimetableJobInfo toInfo() {
+        return new TimetableJobInfo(id, status, submittedAt, startedAt, finishedAt,
+                Double.isNaN(bestPenalty) ? null : bestPenalty, iteration < 0 ? null : iteration, error);
+    }
+}
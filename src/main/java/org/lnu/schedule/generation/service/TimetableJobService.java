@@ -0,0 +1,246 @@
+package org.lnu.schedule.generation.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.SolverControl;
+import org.lnu.schedule.generation.model.TimetableJobInfo;
+import org.lnu.schedule.generation.model.TimetableJobResult;
+import org.lnu.schedule.generation.model.TimetableJobStatus;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs timetable generations as background jobs: at most {@code jobs.solver-slots} at a time, with up to
+ * {@code jobs.queue-capacity} more waiting. Progress is pushed to Server-Sent Events subscribers by a single publisher
+ * thread every {@code jobs.progress-interval-ms}, so slow clients never hold up a solver.
+ */
+@Slf4j
+@Service
+public class TimetableJobService {
+    private static final String PROGRESS_EVENT = "progress";
+
+    private final TimetableGenerationService timetableGenerationService;
+
+    private final int retainedCount;
+
+    private final ThreadPoolExecutor solverExecutor;
+    private final ScheduledExecutorService progressPublisher;
+
+    private final Map<String, TimetableJob> jobs = new ConcurrentHashMap<>();
+
+    public TimetableJobService(
+            TimetableGenerationService timetableGenerationService,
+
+            @Value("${jobs.solver-slots}") int solverSlots,
+            @Value("${jobs.queue-capacity}") int queueCapacity,
+            @Value("${jobs.progress-interval-ms}") long progressIntervalMs,
+            @Value("${jobs.retained-count}") int retainedCount
+    ) {
+        this.timetableGenerationService = timetableGenerationService;
+        this.retainedCount = retainedCount;
+
+        AtomicInteger solverThreadsCount = new AtomicInteger();
+        this.solverExecutor = new ThreadPoolExecutor(solverSlots, solverSlots, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "timetable-job-solver-" + solverThreadsCount.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.progressPublisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "timetable-job-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.progressPublisher.scheduleWithFixedDelay(this::publishProgress, progressIntervalMs, progressIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(job -> job.getCancellationToken().cancel());
+        solverExecutor.shutdownNow();
+        progressPublisher.shutdownNow();
+    }
+
+    /**
+     * Queues a generation. Throws {@link RejectedExecutionException} when all solver slots are busy and the queue is
+     * full.
+     */
+    public TimetableJobInfo submit(TimetableRequirements timetableRequirements) {
+        evictFinishedJobs();
+
+        TimetableJob job = new TimetableJob(UUID.randomUUID().toString(), timetableRequirements);
+        jobs.put(job.getId(), job);
+
+        try {
+            job.setFuture(solverExecutor.submit(() -> run(job)));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+
+        return job.toInfo();
+    }
+
+    public Optional<TimetableJobInfo> getStatus(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(TimetableJob::toInfo);
+    }
+
+    /**
+     * Cancels a job. A queued job never starts; a running one finishes the optimization pass in progress (a pass visits
+     * every lesson at most once, a decomposed timetable always gets its first merge pass) and keeps the best timetable
+     * found so far as its result.
+     */
+    public Optional<TimetableJobInfo> cancel(String jobId) {
+        TimetableJob job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        job.getCancellationToken().cancel();
+        if (job.getFuture() instanceof Runnable queuedTask && solverExecutor.remove(queuedTask)) {
+            job.finish(TimetableJobStatus.CANCELLED, null, null);
+            completeProgress(job);
+        }
+
+        return Optional.of(job.toInfo());
+    }
+
+    /**
+     * Result of a finished job, empty while the job is still queued or running or if it finished without one.
+     */
+    public Optional<TimetableJobResult> getResult(String jobId) {
+        TimetableJob job = jobs.get(jobId);
+        if (job == null || !job.getStatus().isFinished() || job.getResult() == null) {
+            return Optional.empty();
+        }
+
+        EvaluatedTimetable result = job.getResult();
+
+        return Optional.of(new TimetableJobResult(jobId, result.getPenalty(), Arrays.asList(result.getLessons())));
+    }
+
+    /**
+     * Subscribes to the progress of a job: a {@code progress} event with the {@link TimetableJobInfo} on every
+     * publishing tick while the job is active, and a last one when it finishes.
+     */
+    public Optional<SseEmitter> subscribe(String jobId) {
+        TimetableJob job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        SseEmitter emitter = new SseEmitter(0L);
+        emitter.onCompletion(() -> job.getProgressEmitters().remove(emitter));
+        emitter.onTimeout(() -> job.getProgressEmitters().remove(emitter));
+        emitter.onError(e -> job.getProgressEmitters().remove(emitter));
+
+        // Added before the status check: a job that finishes in between either has its emitters completed by
+        // completeProgress or is seen as finished here. Both complete on the publisher thread, so only one of them
+        // finds the emitter still subscribed
+        job.getProgressEmitters().add(emitter);
+        if (job.getStatus().isFinished()) {
+            progressPublisher.execute(() -> {
+                if (job.getProgressEmitters().remove(emitter)) {
+                    send(emitter, job);
+                    emitter.complete();
+                }
+            });
+        }
+
+        return Optional.of(emitter);
+    }
+
+    private void run(TimetableJob job) {
+        if (job.getCancellationToken().isCancelled()) {
+            job.finish(TimetableJobStatus.CANCELLED, null, null);
+            completeProgress(job);
+            return;
+        }
+
+        job.start();
+
+        SolverControl solverControl = timetableGenerationService.getDefaultSolverControl().toBuilder()
+                .cancellationToken(job.getCancellationToken())
+                .passListener((runIndex, iteration, phase, penalty, passStats) -> job.onPass(iteration, penalty))
+                .build();
+
+        try {
+            EvaluatedTimetable timetable = timetableGenerationService.generateTimetable(job.getTimetableRequirements(),
+                    solverControl);
+
+            job.finish(job.getCancellationToken().isCancelled() ? TimetableJobStatus.CANCELLED
+                    : TimetableJobStatus.COMPLETED, timetable, null);
+        } catch (RuntimeException e) {
+            log.warn("Timetable job {} failed", job.getId(), e);
+            job.finish(TimetableJobStatus.FAILED, null, String.valueOf(e.getMessage()));
+        }
+
+        completeProgress(job);
+    }
+
+    private void publishProgress() {
+        for (TimetableJob job : jobs.values()) {
+            if (job.getStatus() != TimetableJobStatus.RUNNING) {
+                continue;
+            }
+
+            for (SseEmitter emitter : job.getProgressEmitters()) {
+                send(emitter, job);
+            }
+        }
+    }
+
+    private void completeProgress(TimetableJob job) {
+        progressPublisher.execute(() -> {
+            for (SseEmitter emitter : job.getProgressEmitters()) {
+                if (job.getProgressEmitters().remove(emitter)) {
+                    send(emitter, job);
+                    emitter.complete();
+                }
+            }
+        });
+    }
+
+    private void send(SseEmitter emitter, TimetableJob job) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name(PROGRESS_EVENT)
+                    .data(job.toInfo()));
+        } catch (IOException | IllegalStateException e) {
+            job.getProgressEmitters().remove(emitter);
+        }
+    }
+
+    /**
+     * Forgets the oldest finished jobs beyond {@code jobs.retained-count}.
+     */
+    private void evictFinishedJobs() {
+        long finishedCount = jobs.values().stream()
+                .filter(job -> job.getStatus().isFinished())
+                .count();
+
+        jobs.values().stream()
+                .filter(job -> job.getStatus().isFinished())
+                .sorted(Comparator.comparing(TimetableJob::getFinishedAt))
+                .limit(Math.max(0, finishedCount - retainedCount))
+                .forEach(job -> jobs.remove(job.getId()));
+    }
+}
@@ -0,0 +1,46 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+/**
+ * Move selection and acceptance of the day and time slot pass, one instance per run.
+ */
+interface TimetableMoveAcceptance {
+    /**
+     * Called before every day and time slot pass with the penalty of the timetable at its start.
+     */
+    void startPass(int iteration, double penalty);
+
+    /**
+     * Chooses the candidate the lesson moves to, {@code -1} to leave it in place. {@code penalties} hold the local
+     * penalties of the lesson in {@code weekCells} as scored by
+     * {@link TimetableEvaluationService#findBestMove(TimetableOccupancyIndex, int, int[], double[])}, which returned
+     * {@code bestCandidate}; candidates after a zero penalty one are not scored.
+     */
+    int selectMove(TimetableOccupancyIndex occupancyIndex, int lessonIndex, int[] weekCells, double[] penalties,
+                   int bestCandidate);
+
+    /**
+     * The best candidate other than the current cell of the lesson, {@code -1} if there is none or the lesson already
+     * has no penalty there.
+     */
+    static int findBestOtherCandidate(int[] weekCells, double[] penalties, int bestCandidate, int currentWeekCell) {
+        if (weekCells[bestCandidate] != currentWeekCell) {
+            return bestCandidate;
+        }
+
+        if (penalties[bestCandidate] == 0) {
+            return -1;
+        }
+
+        int bestOtherCandidate = -1;
+        for (int i = 0; i < weekCells.length; ++i) {
+            if (weekCells[i] != currentWeekCell
+                    && (bestOtherCandidate < 0 || penalties[i] < penalties[bestOtherCandidate])) {
+                bestOtherCandidate = i;
+            }
+        }
+
+        return bestOtherCandidate;
+    }
+}
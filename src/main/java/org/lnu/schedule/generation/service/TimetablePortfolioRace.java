@@ -0,0 +1,79 @@
+package org.lnu.schedule.generation.service;
+
+import java.util.Arrays;
+import java.util.concurrent.Phaser;
+
+/**
+ * Coordinates the concurrent starts of a portfolio run.
+ * <p>
+ * Every {@code syncIterations} iterations the active runs meet at a barrier and report their penalty. The leader is the
+ * lowest penalty reported at that barrier or reached by a run that has already finished; runs whose penalty exceeds the
+ * leader's by more than {@code cancelPenaltyRatio} stop there. Since every run compares values taken at the same
+ * iteration, the cancellation decisions (and the winner) depend only on the seeds, not on thread timing.
+ */
+class TimetablePortfolioRace {
+    private final int syncIterations;
+    private final double cancelPenaltyRatio;
+
+    private final Phaser phaser;
+
+    private final double[][] barrierPenalties;
+    private final double[] finalPenalties;
+    private final int[] finishedBarriers;
+    private final int[] passedBarriers;
+
+    TimetablePortfolioRace(int runsCount, int syncIterations, double cancelPenaltyRatio) {
+        this.syncIterations = Math.max(1, syncIterations);
+        this.cancelPenaltyRatio = cancelPenaltyRatio;
+
+        this.phaser = new Phaser(runsCount);
+
+        this.barrierPenalties = new double[2][runsCount];
+        this.finalPenalties = new double[runsCount];
+        this.finishedBarriers = new int[runsCount];
+        this.passedBarriers = new int[runsCount];
+
+        Arrays.fill(finishedBarriers, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Called by a run after each iteration. Returns {@code false} if the run fell too far behind the leader and has to
+     * stop.
+     */
+    boolean onIteration(int runIndex, int iteration, double penalty) {
+        if (iteration % syncIterations != 0) {
+            return true;
+        }
+
+        int barrier = passedBarriers[runIndex] + 1;
+        double[] penalties = barrierPenalties[barrier % 2];
+        penalties[runIndex] = penalty;
+
+        phaser.arriveAndAwaitAdvance();
+        passedBarriers[runIndex] = barrier;
+
+        double leaderPenalty = Double.MAX_VALUE;
+        for (int i = 0; i < penalties.length; ++i) {
+            double runPenalty;
+            synchronized (finalPenalties) {
+                runPenalty = finishedBarriers[i] < barrier ? finalPenalties[i] : penalties[i];
+            }
+
+            leaderPenalty = Math.min(leaderPenalty, runPenalty);
+        }
+
+        return penalty <= leaderPenalty * (1 + cancelPenaltyRatio);
+    }
+
+    /**
+     * Called exactly once by every run when it stops, whether it finished, was cancelled or failed.
+     */
+    void finish(int runIndex, double penalty) {
+        synchronized (finalPenalties) {
+            finalPenalties[runIndex] = penalty;
+            finishedBarriers[runIndex] = passedBarriers[runIndex];
+        }
+
+        phaser.arriveAndDeregister();
+    }
+}
@@ -0,0 +1,92 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+/**
+ * Lessons a re-optimization may move. It starts with the lessons around a requirements change and every
+ * {@link #widen(TimetableOccupancyIndex)} adds the lessons sharing a lecturer, an academic group or a place with the
+ * movable ones, at most {@code maxWidenings} times.
+ */
+class TimetableRepairScope {
+    private final boolean[] movableLessons;
+    private int remainingWidenings;
+
+    TimetableRepairScope(boolean[] movableLessons, int maxWidenings) {
+        this.movableLessons = movableLessons;
+        this.remainingWidenings = maxWidenings;
+    }
+
+    boolean isMovable(int lessonIndex) {
+        return movableLessons[lessonIndex];
+    }
+
+    /**
+     * Returns {@code false} if the scope could not grow, either because no widening is left or because no other lesson
+     * shares an entity with the movable ones.
+     */
+    boolean widen(TimetableOccupancyIndex occupancyIndex) {
+        if (remainingWidenings <= 0) {
+            return false;
+        }
+        --remainingWidenings;
+
+        boolean[] lecturers = new boolean[occupancyIndex.getLecturersCount()];
+        boolean[] academicGroups = new boolean[occupancyIndex.getAcademicGroupsCount()];
+        boolean[] places = new boolean[occupancyIndex.getPlacesCount()];
+
+        int[] lessonLecturerIndexes = occupancyIndex.getLessonLecturerIndexes();
+        int[][] lessonAcademicGroupIndexes = occupancyIndex.getLessonAcademicGroupIndexes();
+
+        for (int lessonIndex = 0; lessonIndex < movableLessons.length; ++lessonIndex) {
+            if (!movableLessons[lessonIndex]) {
+                continue;
+            }
+
+            lecturers[lessonLecturerIndexes[lessonIndex]] = true;
+            for (int academicGroupIndex : lessonAcademicGroupIndexes[lessonIndex]) {
+                academicGroups[academicGroupIndex] = true;
+            }
+            places[occupancyIndex.getLessonPlaceIndex(lessonIndex)] = true;
+        }
+
+        boolean widened = false;
+        for (int lessonIndex = 0; lessonIndex < movableLessons.length; ++lessonIndex) {
+            if (!movableLessons[lessonIndex]
+                    && isTouching(occupancyIndex, lessonIndex, lecturers, academicGroups, places)) {
+                movableLessons[lessonIndex] = true;
+                widened = true;
+            }
+        }
+
+        return widened;
+    }
+
+    /**
+     * Lessons that have one of the marked lecturers, academic groups or places.
+     */
+    static boolean[] getTouchingLessons(TimetableOccupancyIndex occupancyIndex, boolean[] lecturers,
+                                        boolean[] academicGroups, boolean[] places) {
+        boolean[] touchingLessons = new boolean[occupancyIndex.getLessonLecturerIndexes().length];
+        for (int lessonIndex = 0; lessonIndex < touchingLessons.length; ++lessonIndex) {
+            touchingLessons[lessonIndex] = isTouching(occupancyIndex, lessonIndex, lecturers, academicGroups, places);
+        }
+
+        return touchingLessons;
+    }
+
+    private static boolean isTouching(TimetableOccupancyIndex occupancyIndex, int lessonIndex, boolean[] lecturers,
+                                      boolean[] academicGroups, boolean[] places) {
+        if (lecturers[occupancyIndex.getLessonLecturerIndexes()[lessonIndex]]
+                || places[occupancyIndex.getLessonPlaceIndex(lessonIndex)]) {
+            return true;
+        }
+
+        for (int academicGroupIndex : occupancyIndex.getLessonAcademicGroupIndexes()[lessonIndex]) {
+            if (academicGroups[academicGroupIndex]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -1,9 +1,10 @@
 package org.lnu.schedule.generation.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import org.lnu.schedule.generation.model.LessonRequirements;
+import org.lnu.schedule.generation.model.LessonRequirementsTable;
 import org.lnu.schedule.generation.model.TimetableRequirementsExample;
+import org.lnu.schedule.generation.util.TimetableRequirementsCodec;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
@@ -19,11 +20,13 @@ import java.util.Set;
 @AllArgsConstructor
 public class TimetableRequirementsGenerationService {
 
+    public static final String BINARY_EXTENSION = ".ttrb";
+
     private final String EXAMPLES_FOLDER = "timetable-requirements-examples";
 
     private static final Random random = new Random();
 
-    private final ObjectMapper objectMapper;
+    private final TimetableRequirementsCodec timetableRequirementsCodec;
 
     public void generateAndSaveRandomTimetableRequirementsExample(String fileName, int lecturersCount,
                                                                   int academicGroupsCount, int placesCount,
@@ -32,21 +35,42 @@ public class TimetableRequirementsGenerationService {
         TimetableRequirementsExample timetableRequirementsExample
                 = generateRandomTimetableRequirements(lecturersCount, academicGroupsCount, placesCount, lessonsCountPerWeek);
 
-        try {
-            String timetableRequirementsExampleStr = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(timetableRequirementsExample);
+        saveTimetableRequirementsExample(fileName, LessonRequirementsTable.fromExample(timetableRequirementsExample));
+    }
 
-            Path pathToFile = Path.of(EXAMPLES_FOLDER,fileName);
+    /**
+     * Writes the example as streamed JSON, or in the binary layout if the file name ends with {@link #BINARY_EXTENSION}.
+     */
+    public void saveTimetableRequirementsExample(String fileName, LessonRequirementsTable lessonRequirementsTable) {
+        try {
+            Path pathToFile = Path.of(EXAMPLES_FOLDER, fileName);
             Files.createDirectories(pathToFile.getParent());
-            Files.writeString(pathToFile, timetableRequirementsExampleStr);
+
+            if (fileName.endsWith(BINARY_EXTENSION)) {
+                timetableRequirementsCodec.writeBinary(lessonRequirementsTable, pathToFile);
+            } else {
+                timetableRequirementsCodec.writeJson(lessonRequirementsTable, pathToFile);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     public TimetableRequirementsExample readExampleTimetableRequirementsExample(String fileName) {
+        return readExampleLessonRequirementsTable(fileName).toExample();
+    }
+
+    /**
+     * Reads an example saved by {@link #saveTimetableRequirementsExample(String, LessonRequirementsTable)} straight
+     * into primitive arrays.
+     */
+    public LessonRequirementsTable readExampleLessonRequirementsTable(String fileName) {
         try {
-            Path pathToFile = Path.of(EXAMPLES_FOLDER,fileName);
-            return objectMapper.readValue(pathToFile.toFile(), TimetableRequirementsExample.class);
+            Path pathToFile = Path.of(EXAMPLES_FOLDER, fileName);
+
+            return fileName.endsWith(BINARY_EXTENSION)
+                    ? timetableRequirementsCodec.readBinary(pathToFile)
+                    : timetableRequirementsCodec.readJson(pathToFile);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -54,6 +78,17 @@ public class TimetableRequirementsGenerationService {
 
     public TimetableRequirementsExample generateRandomTimetableRequirements(int lecturersCount, int academicGroupsCount,
                                                     int placesCount, int lessonsCountPerWeek) {
+        return generateRandomTimetableRequirements(random, lecturersCount, academicGroupsCount, placesCount,
+                lessonsCountPerWeek);
+    }
+
+    /**
+     * Same as {@link #generateRandomTimetableRequirements(int, int, int, int)}, drawing from the given (e.g. seeded)
+     * random generator.
+     */
+    public TimetableRequirementsExample generateRandomTimetableRequirements(Random random, int lecturersCount,
+                                                                            int academicGroupsCount, int placesCount,
+                                                                            int lessonsCountPerWeek) {
 
         List<LessonRequirements> lessonRequirementsList = new ArrayList<>(lessonsCountPerWeek);
         double unusedLessonsCount = lessonsCountPerWeek;
@@ -0,0 +1,198 @@
+package org.lnu.schedule.generation.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.lnu.schedule.generation.model.BenchmarkRunResult;
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.LessonPlace;
+import org.lnu.schedule.generation.model.PenaltyPoint;
+import org.lnu.schedule.generation.model.SolverControl;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableRequirementsExample;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Headless scaling and convergence benchmark: solves seeded random instances of growing size and writes one CSV row
+ * per run, the time-to-penalty curves (best penalty after each optimization pass that improved it) as a second CSV
+ * and everything together as JSON.
+ * <p>
+ * Instance sizes are the {@code benchmark.*-count} base sizes multiplied by every {@code benchmark.scales} entry, each
+ * solved once per {@code benchmark.seeds} entry (the seed drives both the instance and the solver).
+ */
+@Slf4j
+@Service
+public class TimetableScalingBenchmarkService {
+    private static final DateTimeFormatter FILE_NAME_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final TimetableGenerationService timetableGenerationService;
+    private final TimetableRequirementsGenerationService timetableRequirementsGenerationService;
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+    private final int lecturersCount;
+    private final int academicGroupsCount;
+    private final int placesCount;
+    private final int lessonsCountPerWeek;
+    private final int[] scales;
+    private final long[] seeds;
+    private final long timeBudgetMs;
+    private final String outputFolder;
+
+    public TimetableScalingBenchmarkService(
+            TimetableGenerationService timetableGenerationService,
+            TimetableRequirementsGenerationService timetableRequirementsGenerationService,
+            ObjectMapper objectMapper,
+
+            @Value("${benchmark.enabled}") boolean enabled,
+            @Value("${benchmark.lecturers-count}") int lecturersCount,
+            @Value("${benchmark.academic-groups-count}") int academicGroupsCount,
+            @Value("${benchmark.places-count}") int placesCount,
+            @Value("${benchmark.lessons-count-per-week}") int lessonsCountPerWeek,
+            @Value("${benchmark.scales}") int[] scales,
+            @Value("${benchmark.seeds}") long[] seeds,
+            @Value("${benchmark.time-budget-ms}") long timeBudgetMs,
+            @Value("${benchmark.output-folder}") String outputFolder
+    ) {
+        this.timetableGenerationService = timetableGenerationService;
+        this.timetableRequirementsGenerationService = timetableRequirementsGenerationService;
+        this.objectMapper = objectMapper;
+
+        this.enabled = enabled;
+        this.lecturersCount = lecturersCount;
+        this.academicGroupsCount = academicGroupsCount;
+        this.placesCount = placesCount;
+        this.lessonsCountPerWeek = lessonsCountPerWeek;
+        this.scales = scales;
+        this.seeds = seeds;
+        this.timeBudgetMs = timeBudgetMs;
+        this.outputFolder = outputFolder;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<BenchmarkRunResult> runBenchmark() {
+        List<BenchmarkRunResult> results = new ArrayList<>(scales.length * seeds.length);
+        for (int scale : scales) {
+            for (long seed : seeds) {
+                BenchmarkRunResult result = runInstance(scale * lecturersCount, scale * academicGroupsCount,
+                        scale * placesCount, scale * lessonsCountPerWeek, seed);
+                log.info("{} lessons per week, seed {}: penalty {} in {} ms, {} iterations", result.getLessonsCountPerWeek(),
+                        seed, result.getFinalPenalty(), result.getWallTimeMs(), result.getIterations());
+
+                results.add(result);
+            }
+        }
+
+        writeResults(results);
+
+        return results;
+    }
+
+    public BenchmarkRunResult runInstance(int lecturersCount, int academicGroupsCount, int placesCount,
+                                          int lessonsCountPerWeek, long seed) {
+
+        TimetableRequirementsExample example = timetableRequirementsGenerationService.generateRandomTimetableRequirements(
+                new Random(seed), lecturersCount, academicGroupsCount, placesCount, lessonsCountPerWeek);
+
+        List<LessonPlace> places = new ArrayList<>(placesCount);
+        for (int i = 0; i < placesCount; ++i) {
+            places.add(null);
+        }
+
+        TimetableRequirements timetableRequirements = new TimetableRequirements(example.getLessonRequirementsList(),
+                places, ScheduleGenerationDemo.DEFAULT_TIME_SLOTS);
+
+        List<PenaltyPoint> convergence = new ArrayList<>();
+        int[] iterations = new int[1];
+        long[] candidateEvaluations = new long[1];
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long startNanos = System.nanoTime();
+
+        SolverControl defaultSolverControl = timetableGenerationService.getDefaultSolverControl();
+        SolverControl solverControl = defaultSolverControl.toBuilder()
+                .timeBudget(timeBudgetMs > 0 ? Duration.ofMillis(timeBudgetMs) : defaultSolverControl.getTimeBudget())
+                .passListener((runIndex, iteration, phase, penalty, passStats) -> {
+                    iterations[0] = iteration + 1;
+                    candidateEvaluations[0] += passStats.getCandidateEvaluations();
+
+                    if (convergence.isEmpty() || penalty < convergence.get(convergence.size() - 1).getPenalty()) {
+                        convergence.add(new PenaltyPoint(elapsedMs(startNanos), penalty));
+                    }
+                })
+                .build();
+
+        EvaluatedTimetable timetable = timetableGenerationService.generateTimetable(timetableRequirements, solverControl,
+                seed);
+
+        double wallTimeMs = elapsedMs(startNanos);
+
+        // Sum of the per-pool peaks, an upper bound of the peak of the whole heap
+        long peakHeapBytes = heapPools.stream()
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+
+        return new BenchmarkRunResult(lecturersCount, academicGroupsCount, placesCount, lessonsCountPerWeek, seed,
+                wallTimeMs, iterations[0], candidateEvaluations[0], peakHeapBytes, timetable.getPenalty(), convergence);
+    }
+
+    private void writeResults(List<BenchmarkRunResult> results) {
+        String fileName = "benchmark-" + LocalDateTime.now().format(FILE_NAME_TIME_FORMATTER);
+
+        try {
+            Path folder = Path.of(outputFolder);
+            Files.createDirectories(folder);
+
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(folder.resolve(fileName + ".json").toFile(), results);
+
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(folder.resolve(fileName + ".csv")))) {
+                writer.println("lecturers_count,academic_groups_count,places_count,lessons_count_per_week,seed,"
+                        + "wall_time_ms,iterations,candidate_evaluations,peak_heap_bytes,final_penalty");
+                for (BenchmarkRunResult result : results) {
+                    writer.printf(Locale.ROOT, "%d,%d,%d,%d,%d,%.3f,%d,%d,%d,%s%n", result.getLecturersCount(),
+                            result.getAcademicGroupsCount(), result.getPlacesCount(), result.getLessonsCountPerWeek(),
+                            result.getSeed(), result.getWallTimeMs(), result.getIterations(),
+                            result.getCandidateEvaluations(), result.getPeakHeapBytes(), result.getFinalPenalty());
+                }
+            }
+
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(folder.resolve(fileName + "-convergence.csv")))) {
+                writer.println("lessons_count_per_week,seed,time_ms,penalty");
+                for (BenchmarkRunResult result : results) {
+                    for (PenaltyPoint point : result.getConvergence()) {
+                        writer.printf(Locale.ROOT, "%d,%d,%.3f,%s%n", result.getLessonsCountPerWeek(), result.getSeed(),
+                                point.getTimeMs(), point.getPenalty());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static double elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+}
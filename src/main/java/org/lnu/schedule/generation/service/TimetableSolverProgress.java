@@ -0,0 +1,152 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.metrics.OptimizationPassListener;
+import org.lnu.schedule.generation.metrics.OptimizationPassStats;
+import org.lnu.schedule.generation.metrics.OptimizationPhase;
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.SolverCancellationToken;
+import org.lnu.schedule.generation.model.SolverControl;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+import org.lnu.schedule.generation.model.TimetableState;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies a {@link SolverControl} to the runs of one generation: keeps the best state of every run, tracks stalls,
+ * the deadline and cancellation, reports improvements of the overall best penalty to the listener and feeds the
+ * checkpoint writer.
+ */
+class TimetableSolverProgress {
+    private final SolverControl solverControl;
+    private final long deadlineNanos;
+    private final TimetableCheckpointWriter checkpointWriter;
+    private final int checkpointIterations;
+    private final Function<TimetableState, EvaluatedTimetable> snapshotEvaluator;
+
+    private final TimetableState[] bestStates;
+    private final double[] bestPenalties;
+    private final int[] stalledIterations;
+    private final boolean[] improvedInIteration;
+
+    private double bestPenalty = Double.MAX_VALUE;
+    private final Object improvementLock = new Object();
+    private double reportedPenalty = Double.MAX_VALUE;
+
+    TimetableSolverProgress(SolverControl solverControl, int runsCount, TimetableCheckpointWriter checkpointWriter,
+                            int checkpointIterations, Function<TimetableState, EvaluatedTimetable> snapshotEvaluator) {
+        this.solverControl = solverControl;
+        this.deadlineNanos = solverControl.getTimeBudget() == null
+                ? Long.MAX_VALUE
+                : System.nanoTime() + solverControl.getTimeBudget().toNanos();
+        this.checkpointWriter = checkpointWriter;
+        this.checkpointIterations = Math.max(1, checkpointIterations);
+        this.snapshotEvaluator = snapshotEvaluator;
+
+        this.bestStates = new TimetableState[runsCount];
+        this.bestPenalties = new double[runsCount];
+        this.stalledIterations = new int[runsCount];
+        this.improvedInIteration = new boolean[runsCount];
+
+        Arrays.fill(bestPenalties, Double.MAX_VALUE);
+    }
+
+    double getTargetPenalty() {
+        return solverControl.getTargetPenalty();
+    }
+
+    boolean isStopped() {
+        SolverCancellationToken cancellationToken = solverControl.getCancellationToken();
+
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            return true;
+        }
+
+        return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Remembers the timetable if it is the best one of the run so far.
+     */
+    void offer(int runIndex, EvaluatedTimetable timetable) {
+        double penalty = timetable.getPenalty();
+        if (penalty >= bestPenalties[runIndex]) {
+            return;
+        }
+
+        if (bestStates[runIndex] == null) {
+            bestStates[runIndex] = timetable.getTimetableState().copy();
+        } else {
+            bestStates[runIndex].copyFrom(timetable.getTimetableState());
+        }
+        bestPenalties[runIndex] = penalty;
+        improvedInIteration[runIndex] = true;
+
+        Consumer<EvaluatedTimetable> improvementListener = solverControl.getImprovementListener();
+        if (improvementListener == null) {
+            return;
+        }
+
+        TimetableState improvedState;
+        synchronized (this) {
+            if (penalty >= bestPenalty) {
+                return;
+            }
+
+            bestPenalty = penalty;
+            improvedState = bestStates[runIndex].copy();
+        }
+
+        // Evaluated outside the lock so that other runs do not wait for it; a slower report of an older improvement
+        // is dropped instead of overtaking a newer one
+        EvaluatedTimetable improvedTimetable = snapshotEvaluator.apply(improvedState);
+        synchronized (improvementLock) {
+            if (penalty < reportedPenalty) {
+                reportedPenalty = penalty;
+                improvementListener.accept(improvedTimetable);
+            }
+        }
+    }
+
+    void onPass(int runIndex, int iteration, OptimizationPhase phase, double penalty, OptimizationPassStats passStats) {
+        OptimizationPassListener passListener = solverControl.getPassListener();
+        if (passListener != null) {
+            passListener.onPass(runIndex, iteration, phase, penalty, passStats);
+        }
+    }
+
+    /**
+     * Called after every iteration of the run, offers the best state of the run to the checkpoint writer when a
+     * checkpoint is due. Returns {@code false} once the run has not improved for the allowed number of iterations.
+     */
+    boolean onIteration(int runIndex, int iteration) {
+        if (checkpointWriter != null && iteration % checkpointIterations == 0) {
+            checkpointWriter.offer(bestStates[runIndex], bestPenalties[runIndex]);
+        }
+
+        if (improvedInIteration[runIndex]) {
+            improvedInIteration[runIndex] = false;
+            stalledIterations[runIndex] = 0;
+            return true;
+        }
+
+        int stallIterations = solverControl.getStallIterations();
+
+        return stallIterations <= 0 || ++stalledIterations[runIndex] < stallIterations;
+    }
+
+    /**
+     * Best timetable of the run: the current one unless the run has been at a lower penalty before. The result is
+     * evaluated from a copy of the state into an index of its own, since the current timetable is a buffer of the
+     * run's index (see {@link TimetableOccupancyIndex#nextEvaluatedTimetable()}) and the best state one of this
+     * progress; callers keep it, pass it on to a re-optimization or hand it out while the buffers are reused.
+     */
+    EvaluatedTimetable getBestTimetable(int runIndex, EvaluatedTimetable timetable) {
+        if (bestPenalties[runIndex] >= timetable.getPenalty()) {
+            return snapshotEvaluator.apply(timetable.getTimetableState().copy());
+        }
+
+        return snapshotEvaluator.apply(bestStates[runIndex].copy());
+    }
+}
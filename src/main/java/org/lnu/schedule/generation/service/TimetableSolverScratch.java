@@ -0,0 +1,56 @@
+package org.lnu.schedule.generation.service;
+
+import org.lnu.schedule.generation.metrics.OptimizationPassStats;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+
+/**
+ * Buffers the optimization passes of one solver run reuse, so that once the run is under way its iterations do not
+ * allocate with sequential evaluation: the lesson penalty queue, the candidate week cells with their penalties, the
+ * compound moves and the pass counters. Bound to the occupancy index of the run, which holds the evaluation buffers.
+ */
+class TimetableSolverScratch {
+    private final TimetableOccupancyIndex occupancyIndex;
+    private final LessonPenaltyQueue lessonPenaltyQueue;
+    private final int[][] candidateWeekCells;
+    private final double[] candidatePenalties;
+    private final TimetableCompoundMoves compoundMoves;
+    private final OptimizationPassStats passStats = new OptimizationPassStats();
+
+    TimetableSolverScratch(TimetableOccupancyIndex occupancyIndex, LessonPenaltyQueue lessonPenaltyQueue,
+                           int[][] candidateWeekCells, TimetableCompoundMoves compoundMoves) {
+        this.occupancyIndex = occupancyIndex;
+        this.lessonPenaltyQueue = lessonPenaltyQueue;
+        this.candidateWeekCells = candidateWeekCells;
+        this.candidatePenalties = new double[candidateWeekCells[0].length];
+        this.compoundMoves = compoundMoves;
+    }
+
+    TimetableOccupancyIndex getOccupancyIndex() {
+        return occupancyIndex;
+    }
+
+    LessonPenaltyQueue getLessonPenaltyQueue() {
+        return lessonPenaltyQueue;
+    }
+
+    int[][] getCandidateWeekCells() {
+        return candidateWeekCells;
+    }
+
+    double[] getCandidatePenalties() {
+        return candidatePenalties;
+    }
+
+    TimetableCompoundMoves getCompoundMoves() {
+        return compoundMoves;
+    }
+
+    /**
+     * Counters for the next pass, cleared.
+     */
+    OptimizationPassStats startPass() {
+        passStats.reset();
+
+        return passStats;
+    }
+}
@@ -1,25 +1,118 @@
 package org.lnu.schedule.generation.util;
 
+import org.lnu.schedule.generation.model.LessonPlace;
 import org.lnu.schedule.generation.model.LessonTimeSlot;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.UniversityBuilding;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Compiles the bell schedules of a timetable, the time slots of the requirements and of every building, into one
+ * {@link LessonTimeSlotGrid}. Between lessons in different buildings a lecturer or an academic group travels, so in
+ * the travel variant of the relations two time slots conflict unless the break is at least
+ * {@code time_slot_min_travel_break} long, and the travel does not count as a time window. With
+ * {@code time_slot_non_adjacent_conflicts} set, lessons in slots of merged schedules that overlap non-adjacently are
+ * counted as conflicting too (see {@link LessonTimeSlotGrid}); a single schedule is unaffected.
+ */
 @Component
 public class LessonTimeSlotUtil {
     private final int timeSlotMinBreak;
     private final int timeWindowMinDuration;
+    private final int timeSlotMinTravelBreak;
+    private final boolean timeSlotNonAdjacentConflicts;
 
     public LessonTimeSlotUtil(
             @Value("${time_slot_min_break}") int timeSlotMinBreak,
-            @Value("${time_window_min_duration}") int timeWindowMinDuration
+            @Value("${time_window_min_duration}") int timeWindowMinDuration,
+            @Value("${time_slot_min_travel_break}") int timeSlotMinTravelBreak,
+            @Value("${time_slot_non_adjacent_conflicts}") boolean timeSlotNonAdjacentConflicts
     ) {
         this.timeSlotMinBreak = timeSlotMinBreak;
         this.timeWindowMinDuration = timeWindowMinDuration;
+        this.timeSlotMinTravelBreak = timeSlotMinTravelBreak;
+        this.timeSlotNonAdjacentConflicts = timeSlotNonAdjacentConflicts;
+    }
+
+    public LessonTimeSlotGrid compileTimeSlots(TimetableRequirements timetableRequirements) {
+        List<List<LessonTimeSlot>> schedules = new ArrayList<>();
+        schedules.add(timetableRequirements.getTimeSlots());
+        for (LessonPlace lessonPlace : timetableRequirements.getLessonPlaces()) {
+            UniversityBuilding building = lessonPlace == null ? null : lessonPlace.getBuilding();
+            if (building != null && building.getTimeSlots() != null && !building.getTimeSlots().isEmpty()
+                    && !schedules.contains(building.getTimeSlots())) {
+                schedules.add(building.getTimeSlots());
+            }
+        }
+
+        LessonTimeSlot[] orderedTimeSlots = schedules.stream()
+                .flatMap(List::stream)
+                .distinct()
+                .sorted()
+                .toArray(LessonTimeSlot[]::new);
+
+        int timeSlotsCount = orderedTimeSlots.length;
+        int[] timeSlotOrdinals = orderTimeSlotOrdinals(orderedTimeSlots, timetableRequirements.getTimeSlots());
+
+        boolean[] conflicts = new boolean[timeSlotsCount * timeSlotsCount];
+        boolean[] windows = new boolean[timeSlotsCount * timeSlotsCount];
+        boolean[] travelConflicts = new boolean[timeSlotsCount * timeSlotsCount];
+        boolean[] travelWindows = new boolean[timeSlotsCount * timeSlotsCount];
+        for (int i = 0; i < timeSlotsCount; ++i) {
+            for (int j = 0; j < timeSlotsCount; ++j) {
+                conflicts[i * timeSlotsCount + j] = isConflict(orderedTimeSlots[i], orderedTimeSlots[j], 0);
+                windows[i * timeSlotsCount + j] = isWindow(orderedTimeSlots[i], orderedTimeSlots[j], 0);
+                travelConflicts[i * timeSlotsCount + j] = isConflict(orderedTimeSlots[i], orderedTimeSlots[j],
+                        timeSlotMinTravelBreak);
+                travelWindows[i * timeSlotsCount + j] = isWindow(orderedTimeSlots[i], orderedTimeSlots[j],
+                        timeSlotMinTravelBreak);
+            }
+        }
+
+        return new LessonTimeSlotGrid(orderedTimeSlots, timeSlotOrdinals, conflicts, windows, travelConflicts,
+                travelWindows, timeSlotNonAdjacentConflicts && schedules.size() > 1);
+    }
+
+    /**
+     * Ordinals of the requirements time slots in the requirements order, followed by the ordinals of the slots only
+     * the buildings have in ascending time order. Candidate moves are scored in this order, so with a single bell
+     * schedule the first of equally good moves is the same as before the schedules of the buildings were merged.
+     */
+    private int[] orderTimeSlotOrdinals(LessonTimeSlot[] orderedTimeSlots, List<LessonTimeSlot> requirementsTimeSlots) {
+        boolean[] listed = new boolean[orderedTimeSlots.length];
+        int[] timeSlotOrdinals = new int[orderedTimeSlots.length];
+        int count = 0;
+        for (LessonTimeSlot timeSlot : requirementsTimeSlots) {
+            int timeSlotOrdinal = Arrays.binarySearch(orderedTimeSlots, timeSlot);
+            if (!listed[timeSlotOrdinal]) {
+                listed[timeSlotOrdinal] = true;
+                timeSlotOrdinals[count++] = timeSlotOrdinal;
+            }
+        }
+        for (int timeSlotOrdinal = 0; timeSlotOrdinal < orderedTimeSlots.length; ++timeSlotOrdinal) {
+            if (!listed[timeSlotOrdinal]) {
+                timeSlotOrdinals[count++] = timeSlotOrdinal;
+            }
+        }
+
+        return timeSlotOrdinals;
     }
 
     public boolean isConflict(LessonTimeSlot timeSlot1, LessonTimeSlot timeSlot2) {
+        return isConflict(timeSlot1, timeSlot2, 0);
+    }
+
+    public boolean isWindow(LessonTimeSlot timeSlot1, LessonTimeSlot timeSlot2) {
+        return isWindow(timeSlot1, timeSlot2, 0);
+    }
+
+    private boolean isConflict(LessonTimeSlot timeSlot1, LessonTimeSlot timeSlot2, int travelBreak) {
         int comparisonResult = timeSlot1.compareTo(timeSlot2);
 
         if (comparisonResult == 0) {
@@ -32,10 +125,11 @@ public class LessonTimeSlotUtil {
             timeSlot2 = temp;
         }
 
-        return Duration.between(timeSlot1.getEndTime(), timeSlot2.getStartTime()).toMinutes() < timeSlotMinBreak;
+        return Duration.between(timeSlot1.getEndTime(), timeSlot2.getStartTime()).toMinutes()
+                < Math.max(timeSlotMinBreak, travelBreak);
     }
 
-    public boolean isWindow(LessonTimeSlot timeSlot1, LessonTimeSlot timeSlot2) {
+    private boolean isWindow(LessonTimeSlot timeSlot1, LessonTimeSlot timeSlot2, int travelBreak) {
         int comparisonResult = timeSlot1.compareTo(timeSlot2);
 
         if (comparisonResult == 0) {
@@ -48,6 +142,7 @@ public class LessonTimeSlotUtil {
             timeSlot2 = temp;
         }
 
-        return Duration.between(timeSlot1.getEndTime(), timeSlot2.getStartTime()).toMinutes() >= timeWindowMinDuration;
+        return Duration.between(timeSlot1.getEndTime(), timeSlot2.getStartTime()).toMinutes()
+                >= travelBreak + timeWindowMinDuration;
     }
 }
@@ -0,0 +1,243 @@
+package org.lnu.schedule.generation.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.lnu.schedule.generation.model.LessonRequirementsTable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes {@link LessonRequirementsTable}s without building an object tree: JSON through the Jackson
+ * streaming API (in the same document layout as {@code TimetableRequirementsExample}) and a compact binary layout
+ * that is decoded with bulk reads straight into the table arrays.
+ * <p>
+ * Binary layout, big-endian: the {@link #BINARY_MAGIC} and {@link #BINARY_VERSION} ints; lecturers, academic groups,
+ * places, requirements and academic group references counts as ints; then the lecturer indexes, academic group
+ * offsets and academic group indexes int columns followed by the lessons per week double column.
+ */
+@Component
+public class TimetableRequirementsCodec {
+    public static final int BINARY_MAGIC = 0x54545251;
+    public static final int BINARY_VERSION = 1;
+
+    private static final int BINARY_HEADER_INTS_COUNT = 7;
+
+    private final JsonFactory jsonFactory;
+
+    public TimetableRequirementsCodec(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public void writeJson(LessonRequirementsTable table, Path path) throws IOException {
+        int[] lecturerIndexes = table.getLecturerIndexes();
+        int[] academicGroupOffsets = table.getAcademicGroupOffsets();
+        int[] academicGroupIndexes = table.getAcademicGroupIndexes();
+        double[] lessonsCountsPerWeek = table.getLessonsCountsPerWeek();
+
+        try (JsonGenerator generator = jsonFactory.createGenerator(path.toFile(), JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+
+            generator.writeStartObject();
+            generator.writeNumberField("lecturersCount", table.getLecturersCount());
+            generator.writeNumberField("academicGroupsCount", table.getAcademicGroupsCount());
+            generator.writeNumberField("placesCount", table.getPlacesCount());
+
+            generator.writeArrayFieldStart("lessonRequirementsList");
+            for (int i = 0; i < lecturerIndexes.length; ++i) {
+                generator.writeStartObject();
+                generator.writeNumberField("lecturerIndex", lecturerIndexes[i]);
+                generator.writeFieldName("academicGroupIndexes");
+                generator.writeArray(academicGroupIndexes, academicGroupOffsets[i],
+                        academicGroupOffsets[i + 1] - academicGroupOffsets[i]);
+                generator.writeNumberField("lessonsCountPerWeek", lessonsCountsPerWeek[i]);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+        }
+    }
+
+    public LessonRequirementsTable readJson(Path path) throws IOException {
+        int lecturersCount = 0;
+        int academicGroupsCount = 0;
+        int placesCount = 0;
+
+        IntColumn lecturerIndexes = new IntColumn();
+        IntColumn academicGroupOffsets = new IntColumn();
+        IntColumn academicGroupIndexes = new IntColumn();
+        double[] lessonsCountsPerWeek = new double[16];
+
+        academicGroupOffsets.add(0);
+
+        try (JsonParser parser = jsonFactory.createParser(path.toFile())) {
+            expectToken(parser.nextToken(), JsonToken.START_OBJECT);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+
+                switch (fieldName) {
+                    case "lecturersCount" -> lecturersCount = parser.getIntValue();
+                    case "academicGroupsCount" -> academicGroupsCount = parser.getIntValue();
+                    case "placesCount" -> placesCount = parser.getIntValue();
+                    case "lessonRequirementsList" -> {
+                        expectToken(valueToken, JsonToken.START_ARRAY);
+
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            int lecturerIndex = 0;
+                            double lessonsCountPerWeek = 0;
+                            int fromOffset = academicGroupIndexes.size;
+
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String requirementsFieldName = parser.getCurrentName();
+                                JsonToken requirementsValueToken = parser.nextToken();
+
+                                switch (requirementsFieldName) {
+                                    case "lecturerIndex" -> lecturerIndex = parser.getIntValue();
+                                    case "lessonsCountPerWeek" -> lessonsCountPerWeek = parser.getDoubleValue();
+                                    case "academicGroupIndexes" -> {
+                                        expectToken(requirementsValueToken, JsonToken.START_ARRAY);
+                                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                            academicGroupIndexes.add(parser.getIntValue());
+                                        }
+                                    }
+                                    default -> parser.skipChildren();
+                                }
+                            }
+
+                            Arrays.sort(academicGroupIndexes.values, fromOffset, academicGroupIndexes.size);
+
+                            if (lecturerIndexes.size == lessonsCountsPerWeek.length) {
+                                lessonsCountsPerWeek = Arrays.copyOf(lessonsCountsPerWeek, 2 * lessonsCountsPerWeek.length);
+                            }
+                            lessonsCountsPerWeek[lecturerIndexes.size] = lessonsCountPerWeek;
+                            lecturerIndexes.add(lecturerIndex);
+                            academicGroupOffsets.add(academicGroupIndexes.size);
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+
+        return new LessonRequirementsTable(lecturersCount, academicGroupsCount, placesCount, lecturerIndexes.toArray(),
+                academicGroupOffsets.toArray(), academicGroupIndexes.toArray(),
+                Arrays.copyOf(lessonsCountsPerWeek, lecturerIndexes.size));
+    }
+
+    public void writeBinary(LessonRequirementsTable table, Path path) throws IOException {
+        int requirementsCount = table.getRequirementsCount();
+        int[] academicGroupIndexes = table.getAcademicGroupIndexes();
+
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES
+                * (BINARY_HEADER_INTS_COUNT + 2 * requirementsCount + 1 + academicGroupIndexes.length)
+                + Double.BYTES * requirementsCount);
+
+        buffer.putInt(BINARY_MAGIC)
+                .putInt(BINARY_VERSION)
+                .putInt(table.getLecturersCount())
+                .putInt(table.getAcademicGroupsCount())
+                .putInt(table.getPlacesCount())
+                .putInt(requirementsCount)
+                .putInt(academicGroupIndexes.length);
+
+        buffer.asIntBuffer().put(table.getLecturerIndexes());
+        buffer.position(buffer.position() + Integer.BYTES * requirementsCount);
+        buffer.asIntBuffer().put(table.getAcademicGroupOffsets());
+        buffer.position(buffer.position() + Integer.BYTES * (requirementsCount + 1));
+        buffer.asIntBuffer().put(academicGroupIndexes);
+        buffer.position(buffer.position() + Integer.BYTES * academicGroupIndexes.length);
+        buffer.asDoubleBuffer().put(table.getLessonsCountsPerWeek());
+        buffer.rewind();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public LessonRequirementsTable readBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < Integer.BYTES * BINARY_HEADER_INTS_COUNT || buffer.getInt() != BINARY_MAGIC) {
+                throw new IOException("Not a timetable requirements file: " + path);
+            }
+
+            int version = buffer.getInt();
+            if (version != BINARY_VERSION) {
+                throw new IOException("Unsupported timetable requirements file version " + version + ": " + path);
+            }
+
+            int lecturersCount = buffer.getInt();
+            int academicGroupsCount = buffer.getInt();
+            int placesCount = buffer.getInt();
+            int requirementsCount = buffer.getInt();
+            int academicGroupReferencesCount = buffer.getInt();
+
+            if (lecturersCount < 0 || academicGroupsCount < 0 || placesCount < 0 || requirementsCount < 0
+                    || academicGroupReferencesCount < 0) {
+                throw new IOException("Negative count in timetable requirements file header: " + path);
+            }
+
+            long columnsSize = Integer.BYTES * (2L * requirementsCount + 1 + academicGroupReferencesCount)
+                    + (long) Double.BYTES * requirementsCount;
+            if (columnsSize > buffer.remaining()) {
+                throw new IOException("Timetable requirements file is truncated, expected " + columnsSize
+                        + " bytes of columns but found " + buffer.remaining() + ": " + path);
+            }
+
+            int[] lecturerIndexes = new int[requirementsCount];
+            int[] academicGroupOffsets = new int[requirementsCount + 1];
+            int[] academicGroupIndexes = new int[academicGroupReferencesCount];
+            double[] lessonsCountsPerWeek = new double[requirementsCount];
+
+            buffer.asIntBuffer().get(lecturerIndexes);
+            buffer.position(buffer.position() + Integer.BYTES * lecturerIndexes.length);
+            buffer.asIntBuffer().get(academicGroupOffsets);
+            buffer.position(buffer.position() + Integer.BYTES * academicGroupOffsets.length);
+            buffer.asIntBuffer().get(academicGroupIndexes);
+            buffer.position(buffer.position() + Integer.BYTES * academicGroupIndexes.length);
+            buffer.asDoubleBuffer().get(lessonsCountsPerWeek);
+
+            return new LessonRequirementsTable(lecturersCount, academicGroupsCount, placesCount, lecturerIndexes,
+                    academicGroupOffsets, academicGroupIndexes, lessonsCountsPerWeek);
+        }
+    }
+
+    private static void expectToken(JsonToken token, JsonToken expectedToken) throws IOException {
+        if (token != expectedToken) {
+            throw new IOException("Expected " + expectedToken + " but found " + token);
+        }
+    }
+
+    private static class IntColumn {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            values[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
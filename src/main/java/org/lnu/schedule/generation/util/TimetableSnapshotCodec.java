@@ -0,0 +1,148 @@
+package org.lnu.schedule.generation.util;
+
+import org.lnu.schedule.generation.model.LessonPlace;
+import org.lnu.schedule.generation.model.LessonRequirements;
+import org.lnu.schedule.generation.model.LessonTimeSlot;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableSnapshot;
+import org.lnu.schedule.generation.model.TimetableState;
+import org.lnu.schedule.generation.model.UniversityBuilding;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped timetable snapshots. A snapshot is written to a temporary file of its own next to the target and
+ * atomically moved over it, so a crash while writing leaves the previous snapshot intact and concurrent writers of the
+ * same path never share a temporary file.
+ * <p>
+ * Layout, big-endian: the {@link #SNAPSHOT_MAGIC} and {@link #SNAPSHOT_VERSION} ints, the requirements hash (long),
+ * the penalty (double) and the lessons count (int), followed by the requirements index, day, time slot, place and
+ * periodicity int columns of the {@link TimetableState}.
+ */
+@Component
+public class TimetableSnapshotCodec {
+    public static final int SNAPSHOT_MAGIC = 0x54545353;
+    public static final int SNAPSHOT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES + Double.BYTES;
+    private static final int COLUMNS_COUNT = 5;
+
+    public void write(Path path, long requirementsHash, double penalty, TimetableState timetableState) throws IOException {
+        int lessonsCount = timetableState.getLessonsCount();
+        Path directory = path.toAbsolutePath().getParent();
+        Path tempPath = Files.createTempFile(directory, path.getFileName() + ".", ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) COLUMNS_COUNT * Integer.BYTES * lessonsCount);
+
+                buffer.putInt(SNAPSHOT_MAGIC)
+                        .putInt(SNAPSHOT_VERSION)
+                        .putLong(requirementsHash)
+                        .putDouble(penalty)
+                        .putInt(lessonsCount);
+
+                for (int[] column : getColumns(timetableState)) {
+                    buffer.asIntBuffer().put(column);
+                    buffer.position(buffer.position() + Integer.BYTES * lessonsCount);
+                }
+
+                buffer.force();
+            }
+
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+    }
+
+    public TimetableSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a timetable snapshot: " + path);
+            }
+
+            int version = buffer.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported timetable snapshot version " + version + ": " + path);
+            }
+
+            long requirementsHash = buffer.getLong();
+            double penalty = buffer.getDouble();
+            int lessonsCount = buffer.getInt();
+
+            if (buffer.remaining() != COLUMNS_COUNT * Integer.BYTES * lessonsCount) {
+                throw new IOException("Truncated timetable snapshot: " + path);
+            }
+
+            TimetableState timetableState = new TimetableState(lessonsCount);
+            for (int[] column : getColumns(timetableState)) {
+                buffer.asIntBuffer().get(column);
+                buffer.position(buffer.position() + Integer.BYTES * lessonsCount);
+            }
+
+            return new TimetableSnapshot(requirementsHash, penalty, timetableState);
+        }
+    }
+
+    /**
+     * Hash of everything a snapshot depends on: the lesson requirements, the places and the time slots of the
+     * requirements and of the buildings, which together make up the time slot ordinals.
+     */
+    public long hashRequirements(TimetableRequirements timetableRequirements) {
+        long hash = 1125899906842597L;
+
+        for (LessonRequirements lessonRequirements : timetableRequirements.getLessonRequirementsList()) {
+            hash = 31 * hash + lessonRequirements.getLecturerIndex();
+            hash = 31 * hash + lessonRequirements.getAcademicGroupIndexes().stream()
+                    .mapToInt(Integer::intValue)
+                    .sorted()
+                    .reduce(1, (groupsHash, academicGroupIndex) -> 31 * groupsHash + academicGroupIndex);
+            hash = 31 * hash + Double.hashCode(lessonRequirements.getLessonsCountPerWeek());
+        }
+
+        for (LessonPlace lessonPlace : timetableRequirements.getLessonPlaces()) {
+            hash = 31 * hash + (lessonPlace == null ? 0 : Long.hashCode(lessonPlace.getId()));
+        }
+
+        for (LessonTimeSlot timeSlot : timetableRequirements.getTimeSlots()) {
+            hash = 31 * hash + timeSlot.getStartTime().toSecondOfDay();
+            hash = 31 * hash + timeSlot.getEndTime().toSecondOfDay();
+        }
+
+        for (LessonPlace lessonPlace : timetableRequirements.getLessonPlaces()) {
+            UniversityBuilding building = lessonPlace == null ? null : lessonPlace.getBuilding();
+            if (building == null || building.getTimeSlots() == null) {
+                continue;
+            }
+
+            for (LessonTimeSlot timeSlot : building.getTimeSlots()) {
+                hash = 31 * hash + timeSlot.getStartTime().toSecondOfDay();
+                hash = 31 * hash + timeSlot.getEndTime().toSecondOfDay();
+            }
+        }
+
+        return hash;
+    }
+
+    private static int[][] getColumns(TimetableState timetableState) {
+        return new int[][]{
+                timetableState.getRequirementsIndexes(),
+                timetableState.getDayOrdinals(),
+                timetableState.getTimeSlotOrdinals(),
+                timetableState.getPlaceIndexes(),
+                timetableState.getPeriodicityOrdinals()
+        };
+    }
+}
@@ -0,0 +1,198 @@
+package org.lnu.schedule.generation.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.lnu.schedule.generation.metrics.SolverMetrics;
+import org.lnu.schedule.generation.model.LessonPlace;
+import org.lnu.schedule.generation.model.LessonTimeSlot;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.TimetableOccupancyIndex;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableRequirementsExample;
+import org.lnu.schedule.generation.model.TimetableState;
+import org.lnu.schedule.generation.model.UniversityBuilding;
+import org.lnu.schedule.generation.util.LessonTimeSlotUtil;
+import org.lnu.schedule.generation.util.TimetableRequirementsCodec;
+import org.lnu.schedule.generation.util.TimetableSnapshotCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The incremental evaluation agrees with a full one: random day and time slot moves (with and without the relocation
+ * they force) and place changes are applied to one occupancy index and, after every move, the penalty the move
+ * scoring predicted and the local penalties read from the cached per-day statistics are compared with those of a
+ * fresh index built from a copy of the state. The places are spread over a building with the default bell schedule, a
+ * building with an overlapping one and no building at all, so that travel, merged schedules and unknown buildings are
+ * all exercised, with and without the conflicts of non-adjacent time slots.
+ */
+@SpringBootTest(classes = {ObjectMapper.class, LessonTimeSlotUtil.class, SolverMetrics.class,
+        TimetableEvaluationService.class, TimetableGenerationService.class, TimetableRequirementsCodec.class,
+        TimetableSnapshotCodec.class, TimetableRequirementsGenerationService.class})
+class TimetableEvaluationConsistencyTest {
+    private static final int MOVES_COUNT = 2000;
+    private static final int LESSONS_COUNT_PER_WEEK = 200;
+    private static final long SEED = 1;
+    private static final double TOLERANCE = 1e-6;
+
+    private static final List<LessonTimeSlot> SHIFTED_TIME_SLOTS = List.of(
+            new LessonTimeSlot(LocalTime.of(8, 0), LocalTime.of(11, 0)),
+            new LessonTimeSlot(LocalTime.of(9, 0), LocalTime.of(10, 20)),
+            new LessonTimeSlot(LocalTime.of(11, 20), LocalTime.of(12, 40)),
+            new LessonTimeSlot(LocalTime.of(13, 0), LocalTime.of(14, 20)),
+            new LessonTimeSlot(LocalTime.of(14, 40), LocalTime.of(16, 0)),
+            new LessonTimeSlot(LocalTime.of(16, 20), LocalTime.of(17, 40))
+    );
+
+    @Autowired
+    private TimetableEvaluationService timetableEvaluationService;
+    @Autowired
+    private TimetableGenerationService timetableGenerationService;
+    @Autowired
+    private TimetableRequirementsGenerationService timetableRequirementsGenerationService;
+
+    @Value("${time_slot_min_break}")
+    private int timeSlotMinBreak;
+    @Value("${time_window_min_duration}")
+    private int timeWindowMinDuration;
+    @Value("${time_slot_min_travel_break}")
+    private int timeSlotMinTravelBreak;
+
+    private TimetableRequirements timetableRequirements;
+    private LessonTimeSlotGrid timeSlotGrid;
+    private TimetableOccupancyIndex occupancyIndex;
+    private SplittableRandom random;
+    private double penalty;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void incrementalPenaltiesMatchFullEvaluation(boolean nonAdjacentConflicts) {
+        random = new SplittableRandom(SEED);
+        timetableRequirements = createRequirements();
+        timeSlotGrid = new LessonTimeSlotUtil(timeSlotMinBreak, timeWindowMinDuration, timeSlotMinTravelBreak,
+                nonAdjacentConflicts).compileTimeSlots(timetableRequirements);
+
+        TimetableState timetableState = timetableGenerationService.generateInitialTimetable(timetableRequirements,
+                timeSlotGrid, random);
+        occupancyIndex = timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid,
+                timetableState).getOccupancyIndex();
+        penalty = evaluateCopy().penalty();
+
+        for (int move = 0; move < MOVES_COUNT; ++move) {
+            checkRandomMove(move);
+        }
+    }
+
+    private TimetableRequirements createRequirements() {
+        TimetableRequirementsExample example = timetableRequirementsGenerationService.generateRandomTimetableRequirements(
+                new Random(SEED), LESSONS_COUNT_PER_WEEK / 20, LESSONS_COUNT_PER_WEEK / 40,
+                LESSONS_COUNT_PER_WEEK / 20, LESSONS_COUNT_PER_WEEK);
+
+        UniversityBuilding mainBuilding = new UniversityBuilding(1L, "Main building",
+                ScheduleGenerationDemo.DEFAULT_TIME_SLOTS);
+        UniversityBuilding shiftedBuilding = new UniversityBuilding(2L, "Shifted building", SHIFTED_TIME_SLOTS);
+        List<LessonPlace> places = new ArrayList<>(example.getPlacesCount());
+        for (int i = 0; i < example.getPlacesCount(); ++i) {
+            UniversityBuilding building = switch (i % 3) {
+                case 0 -> mainBuilding;
+                case 1 -> shiftedBuilding;
+                default -> null;
+            };
+            places.add(new LessonPlace(i, "Place " + i, Integer.MAX_VALUE, building));
+        }
+
+        return new TimetableRequirements(example.getLessonRequirementsList(), places,
+                ScheduleGenerationDemo.DEFAULT_TIME_SLOTS);
+    }
+
+    private void checkRandomMove(int move) {
+        int lessonIndex = random.nextInt(occupancyIndex.getTimetableState().getLessonsCount());
+        double localPenalty = timetableEvaluationService.calcLocalPenalty(occupancyIndex, lessonIndex);
+
+        switch (random.nextInt(3)) {
+            case 0 -> {
+                int weekCell = getRandomWeekCell(lessonIndex);
+                double expectedPenalty = penalty - localPenalty
+                        + timetableEvaluationService.calcMovePenalty(occupancyIndex, lessonIndex, weekCell);
+
+                timetableEvaluationService.moveLesson(occupancyIndex, lessonIndex, weekCell);
+                checkPenalty(move, "move", expectedPenalty, lessonIndex);
+            }
+            case 1 -> {
+                int weekCell = getRandomWeekCell(lessonIndex);
+                double expectedPenalty = penalty - localPenalty
+                        + timetableEvaluationService.calcRelocatedMovePenalty(occupancyIndex, lessonIndex, weekCell);
+
+                timetableEvaluationService.moveLesson(occupancyIndex, lessonIndex, weekCell);
+                timetableEvaluationService.keepCandidatePlace(occupancyIndex, lessonIndex);
+                checkPenalty(move, "relocated move", expectedPenalty, lessonIndex);
+            }
+            default -> {
+                int placeIndex = random.nextInt(occupancyIndex.getPlacesCount());
+                int prevPlaceIndex = occupancyIndex.getLessonPlaceIndex(lessonIndex);
+                double expectedPenalty = penalty - localPenalty
+                        - (placeIndex == prevPlaceIndex
+                                ? 0
+                                : timetableEvaluationService.calcPlacePenalty(occupancyIndex, placeIndex))
+                        + timetableEvaluationService.calcLecturerAndAcademicGroupsPenalty(occupancyIndex, lessonIndex,
+                                placeIndex)
+                        + timetableEvaluationService.addPlacePenalty(0, occupancyIndex, lessonIndex, placeIndex);
+
+                timetableEvaluationService.changePlace(occupancyIndex, lessonIndex, placeIndex);
+                // The place left behind can not be scored without touching the index, so it is added afterwards
+                if (placeIndex != prevPlaceIndex) {
+                    expectedPenalty += timetableEvaluationService.calcPlacePenalty(occupancyIndex, prevPlaceIndex);
+                }
+                checkPenalty(move, "place change", expectedPenalty, lessonIndex);
+            }
+        }
+    }
+
+    private int getRandomWeekCell(int lessonIndex) {
+        return occupancyIndex.getWeekCell(random.nextInt(occupancyIndex.getDaysCount()),
+                random.nextInt(timeSlotGrid.getTimeSlotsCount()),
+                occupancyIndex.getTimetableState().getPeriodicityOrdinals()[lessonIndex]);
+    }
+
+    /**
+     * Compares the predicted penalty with a full evaluation of a copy of the state, and the local penalties of the
+     * moved lesson and of a random one, which come from the cached per-day statistics, with those of the fresh index.
+     */
+    private void checkPenalty(int move, String moveType, double expectedPenalty, int movedLessonIndex) {
+        FreshEvaluation freshEvaluation = evaluateCopy();
+        assertClose(move, moveType + " penalty", expectedPenalty, freshEvaluation.penalty());
+
+        int randomLessonIndex = random.nextInt(occupancyIndex.getTimetableState().getLessonsCount());
+        for (int lessonIndex : new int[]{movedLessonIndex, randomLessonIndex}) {
+            assertClose(move, moveType + " local penalty of lesson " + lessonIndex,
+                    timetableEvaluationService.calcLocalPenalty(freshEvaluation.occupancyIndex(), lessonIndex),
+                    timetableEvaluationService.calcLocalPenalty(occupancyIndex, lessonIndex));
+        }
+
+        penalty = freshEvaluation.penalty();
+    }
+
+    private static void assertClose(int move, String value, double expected, double actual) {
+        assertEquals(expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)), () -> "Move " + move + ": " + value);
+    }
+
+    private FreshEvaluation evaluateCopy() {
+        TimetableOccupancyIndex freshOccupancyIndex = timetableEvaluationService.createOccupancyIndex(
+                timetableRequirements, timeSlotGrid, occupancyIndex.getTimetableState().copy());
+
+        return new FreshEvaluation(freshOccupancyIndex,
+                timetableEvaluationService.evaluateTimetable(freshOccupancyIndex).getPenalty());
+    }
+
+    private record FreshEvaluation(TimetableOccupancyIndex occupancyIndex, double penalty) {
+    }
+}
@@ -0,0 +1,120 @@
+package org.lnu.schedule.generation.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.lnu.schedule.generation.metrics.SolverMetrics;
+import org.lnu.schedule.generation.model.EvaluatedTimetable;
+import org.lnu.schedule.generation.model.LessonPlace;
+import org.lnu.schedule.generation.model.LessonTimeSlotGrid;
+import org.lnu.schedule.generation.model.TimetableRequirements;
+import org.lnu.schedule.generation.model.TimetableRequirementsExample;
+import org.lnu.schedule.generation.model.TimetableState;
+import org.lnu.schedule.generation.util.LessonTimeSlotUtil;
+import org.lnu.schedule.generation.util.TimetableRequirementsCodec;
+import org.lnu.schedule.generation.util.TimetableSnapshotCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Steady-state solver iterations with sequential evaluation do not allocate, the build-time counterpart of the check
+ * in the {@code TimetableSolverIterationBenchmark}, which also covers the other acceptance modes. A run with the
+ * configured acceptance mode is warmed up for a fixed number of iterations, so that C2 compiles the hot path and
+ * escape analysis removes its temporary objects, and then a batch of iterations must not allocate a single byte on the
+ * test thread.
+ */
+@SpringBootTest(classes = {ObjectMapper.class, LessonTimeSlotUtil.class, SolverMetrics.class,
+        TimetableEvaluationService.class, TimetableGenerationService.class, TimetableRequirementsCodec.class,
+        TimetableSnapshotCodec.class, TimetableRequirementsGenerationService.class},
+        properties = "evaluation.parallelism=1")
+class TimetableSolverIterationAllocationTest {
+    private static final int LESSONS_COUNT_PER_WEEK = 200;
+    private static final long SEED = 1;
+    private static final int WARMUP_ITERATIONS_COUNT = 300;
+    private static final int CHECKED_ITERATIONS_COUNT = 5;
+
+    @Autowired
+    private LessonTimeSlotUtil lessonTimeSlotUtil;
+    @Autowired
+    private TimetableEvaluationService timetableEvaluationService;
+    @Autowired
+    private TimetableGenerationService timetableGenerationService;
+    @Autowired
+    private TimetableRequirementsGenerationService timetableRequirementsGenerationService;
+
+    @Test
+    void steadyStateIterationsDoNotAllocate() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        TimetableExample example = createExample();
+        for (int i = 0; i < WARMUP_ITERATIONS_COUNT; ++i) {
+            example.runIteration();
+        }
+
+        long startAllocatedBytes = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CHECKED_ITERATIONS_COUNT; ++i) {
+            example.runIteration();
+        }
+        long allocatedBytes = threadMXBean.getCurrentThreadAllocatedBytes() - startAllocatedBytes;
+
+        assertEquals(0, allocatedBytes, () -> CHECKED_ITERATIONS_COUNT + " solver iterations allocated "
+                + allocatedBytes + " bytes");
+    }
+
+    private TimetableExample createExample() {
+        TimetableRequirementsExample requirementsExample = timetableRequirementsGenerationService
+                .generateRandomTimetableRequirements(new Random(SEED), LESSONS_COUNT_PER_WEEK / 20,
+                        LESSONS_COUNT_PER_WEEK / 40, LESSONS_COUNT_PER_WEEK / 20, LESSONS_COUNT_PER_WEEK);
+        List<LessonPlace> places = Collections.nCopies(requirementsExample.getPlacesCount(), null);
+        TimetableRequirements timetableRequirements = new TimetableRequirements(
+                requirementsExample.getLessonRequirementsList(), places, ScheduleGenerationDemo.DEFAULT_TIME_SLOTS);
+
+        LessonTimeSlotGrid timeSlotGrid = lessonTimeSlotUtil.compileTimeSlots(timetableRequirements);
+        SplittableRandom random = new SplittableRandom(SEED);
+        TimetableState timetableState = timetableGenerationService.generateInitialTimetable(timetableRequirements,
+                timeSlotGrid, random);
+
+        EvaluatedTimetable timetable = timetableEvaluationService.evaluateTimetable(timetableRequirements,
+                timeSlotGrid, timetableState);
+        TimetableSolverScratch solverScratch = timetableGenerationService.createSolverScratch(timetableRequirements,
+                timetable.getOccupancyIndex());
+        TimetableSolverProgress solverProgress = new TimetableSolverProgress(
+                timetableGenerationService.getDefaultSolverControl(), 1, null, 1, state ->
+                timetableEvaluationService.evaluateTimetable(timetableRequirements, timeSlotGrid, state));
+        TimetableMoveAcceptance moveAcceptance = timetableGenerationService.createMoveAcceptance(
+                timetableState.getLessonsCount(), random);
+
+        return new TimetableExample(timetable, solverScratch, solverProgress, moveAcceptance);
+    }
+
+    private class TimetableExample {
+        private EvaluatedTimetable timetable;
+        private final TimetableSolverScratch solverScratch;
+        private final TimetableSolverProgress solverProgress;
+        private final TimetableMoveAcceptance moveAcceptance;
+        private int iteration;
+
+        TimetableExample(EvaluatedTimetable timetable, TimetableSolverScratch solverScratch,
+                         TimetableSolverProgress solverProgress, TimetableMoveAcceptance moveAcceptance) {
+            this.timetable = timetable;
+            this.solverScratch = solverScratch;
+            this.solverProgress = solverProgress;
+            this.moveAcceptance = moveAcceptance;
+        }
+
+        void runIteration() {
+            timetable = timetableGenerationService.runIteration(timetable, solverScratch, solverProgress, 0,
+                    iteration++, null, moveAcceptance);
+        }
+    }
+}